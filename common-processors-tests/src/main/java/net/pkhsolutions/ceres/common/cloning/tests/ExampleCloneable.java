@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning.tests;
+
+import java.util.*;
+import net.pkhsolutions.ceres.common.cloning.CloneThis;
+import net.pkhsolutions.ceres.common.cloning.CloneUtil;
+
+/**
+ * Example class whose annotated fields are cloned by an auto-generated cloner.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ExampleCloneable extends ExampleCloneableBase implements Cloneable {
+
+    @CloneThis(deepClone = true)
+    ArrayList<Item> itemList = new ArrayList<Item>(Arrays.asList(new Item("a"), null));
+    @CloneThis(deepClone = true)
+    Collection<Item> itemCollection = new HashSet<Item>(Collections.singleton(new Item("b")));
+    @CloneThis(deepClone = true)
+    HashMap<String, Item> itemMap = new HashMap<String, Item>(Collections.singletonMap("c", new Item("c")));
+    @CloneThis(deepClone = true)
+    Item[] itemArray = {new Item("d"), null};
+    @CloneThis
+    Item[] shallowItemArray = {new Item("e")};
+    @CloneThis
+    int[] intArray = {1, 2, 3};
+    @CloneThis
+    Item item = new Item("f");
+    @CloneThis
+    Item nullItem;
+    Item uncloned = new Item("g");
+
+    @Override
+    public ExampleCloneable clone() throws CloneNotSupportedException {
+        return CloneUtil.deepClone((ExampleCloneable) super.clone());
+    }
+
+    /**
+     * Example item that is cloned when the example class is cloned.
+     */
+    public static class Item implements Cloneable {
+
+        String name;
+
+        public Item(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Item clone() {
+            try {
+                return (Item) super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Example nested class whose annotated field is cloned by an
+     * auto-generated cloner.
+     */
+    public static class Nested implements Cloneable {
+
+        @CloneThis
+        Date created = new Date();
+
+        @Override
+        public Nested clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((Nested) super.clone());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning.tests;
+
+import java.util.Date;
+import net.pkhsolutions.ceres.common.cloning.CloneThis;
+
+/**
+ * Example superclass whose annotated field is cloned by the auto-generated
+ * cloner of {@link ExampleCloneable}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ExampleCloneableBase {
+
+    @CloneThis
+    Date created = new Date();
+}
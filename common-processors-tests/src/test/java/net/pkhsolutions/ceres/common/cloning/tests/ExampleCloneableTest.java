@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning.tests;
+
+import net.pkhsolutions.ceres.common.cloning.DeepCloner;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test cases for the auto-generated deep cloners.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ExampleCloneableTest {
+
+    @Test
+    public void clonersAreGeneratedForAccessibleFields() {
+        DeepCloner<ExampleCloneable> cloner = new ExampleCloneableDeepCloner();
+        DeepCloner<ExampleCloneable.Nested> nestedCloner = new ExampleCloneable_NestedDeepCloner();
+        assertNotNull(cloner);
+        assertNotNull(nestedCloner);
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void noClonerIsGeneratedForPrivateFields() throws Exception {
+        Class.forName(ExamplePrivateCloneable.class.getName() + DeepCloner.CLASS_NAME_SUFFIX);
+    }
+
+    @Test
+    public void annotatedFieldsAreCloned() throws Exception {
+        ExampleCloneable original = new ExampleCloneable();
+        ExampleCloneable clone = original.clone();
+
+        assertNotSame(original.created, clone.created);
+        assertEquals(original.created, clone.created);
+        assertNotSame(original.itemList, clone.itemList);
+        assertNotSame(original.itemList.get(0), clone.itemList.get(0));
+        assertEquals("a", clone.itemList.get(0).name);
+        assertNull(clone.itemList.get(1));
+        assertNotSame(original.itemCollection, clone.itemCollection);
+        assertNotSame(original.itemCollection.iterator().next(), clone.itemCollection.iterator().next());
+        assertNotSame(original.itemMap, clone.itemMap);
+        assertNotSame(original.itemMap.get("c"), clone.itemMap.get("c"));
+        assertNotSame(original.itemArray, clone.itemArray);
+        assertNotSame(original.itemArray[0], clone.itemArray[0]);
+        assertNull(clone.itemArray[1]);
+        assertNotSame(original.shallowItemArray, clone.shallowItemArray);
+        assertSame(original.shallowItemArray[0], clone.shallowItemArray[0]);
+        assertNotSame(original.intArray, clone.intArray);
+        assertArrayEquals(original.intArray, clone.intArray);
+        assertNotSame(original.item, clone.item);
+        assertNull(clone.nullItem);
+        assertSame(original.uncloned, clone.uncloned);
+    }
+
+    @Test
+    public void nestedClassIsCloned() throws Exception {
+        ExampleCloneable.Nested original = new ExampleCloneable.Nested();
+        assertNotSame(original.created, original.clone().created);
+    }
+
+    @Test
+    public void privateFieldsAreClonedUsingReflection() throws Exception {
+        ExamplePrivateCloneable original = new ExamplePrivateCloneable();
+        ExamplePrivateCloneable clone = original.clone();
+
+        assertNotSame(original.getCreated(), clone.getCreated());
+        assertEquals(original.getCreated(), clone.getCreated());
+        assertNotSame(original.getNumbers(), clone.getNumbers());
+        assertArrayEquals(original.getNumbers(), clone.getNumbers());
+    }
+}
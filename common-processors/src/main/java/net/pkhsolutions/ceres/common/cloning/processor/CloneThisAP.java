@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.JavaFileObject;
+import net.pkhsolutions.ceres.common.cloning.CloneThis;
+import net.pkhsolutions.ceres.common.cloning.DeepCloner;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+
+/**
+ * This is an annotation processor that generates {@link DeepCloner}s for
+ * classes that declare fields annotated with {@link CloneThis}. A cloner is
+ * only generated if every annotated field of the class and its superclasses
+ * can be read and assigned from the package of the class, i.e. if none of the
+ * fields is private, final or static and fields declared in other packages
+ * are public. Classes that do not qualify, as well as subclasses that do not
+ * declare any annotated fields themselves, are cloned using reflection.
+ * Clients should never use this class directly.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@SupportedAnnotationTypes("net.pkhsolutions.ceres.common.cloning.CloneThis")
+@SupportedSourceVersion(SourceVersion.RELEASE_6)
+public final class CloneThisAP extends AbstractProcessor {
+
+    private VelocityEngine velocityEngine;
+    private Template clonerTemplate;
+
+    /**
+     * Constructs a new
+     * <code>CloneThisAP</code>. Clients should never need to create instances
+     * of this class.
+     */
+    public CloneThisAP() {
+        super();
+
+        URL url = this.getClass().getClassLoader().getResource("net/pkhsolutions/ceres/common/cloning/processor/velocity.properties");
+        Properties props = new Properties();
+        try {
+            props.load(url.openStream());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load velocity properties", e);
+        }
+        velocityEngine = new VelocityEngine(props);
+        velocityEngine.init();
+
+        clonerTemplate = velocityEngine.getTemplate("net/pkhsolutions/ceres/common/cloning/processor/deep_cloner.vm");
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(CloneThis.class)) {
+            final Element enclosingElement = element.getEnclosingElement();
+            if (enclosingElement.getKind() == ElementKind.CLASS) {
+                types.add((TypeElement) enclosingElement);
+            }
+        }
+        for (TypeElement type : types) {
+            processType(type);
+        }
+        return true;
+    }
+
+    private void processType(TypeElement type) {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        if (!isAccessibleFrom(type, pkg)) {
+            return;
+        }
+        final List<CloneField> fields = getCloneFields(type, pkg);
+        if (fields == null) {
+            return;
+        }
+        final String clonerName = getFlattenedName(type) + DeepCloner.CLASS_NAME_SUFFIX;
+        final VelocityContext vc = new VelocityContext();
+        vc.put("className", clonerName);
+        vc.put("typeName", getTypeName(type.asType()));
+        vc.put("generationDate", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+        vc.put("packageName", pkg.getQualifiedName().toString());
+        vc.put("fields", fields);
+        final String fileName = pkg.isUnnamed() ? clonerName : pkg.getQualifiedName() + "." + clonerName;
+        createSourceFile(fileName, clonerTemplate, vc);
+    }
+
+    /**
+     * Returns the annotated fields of the type and its superclasses, in the
+     * order they are cloned by reflection, or null if any of them cannot be
+     * accessed by the generated cloner.
+     */
+    private List<CloneField> getCloneFields(TypeElement type, PackageElement pkg) {
+        final List<CloneField> fields = new ArrayList<CloneField>();
+        TypeElement currentType = type;
+        while (currentType != null && !currentType.getQualifiedName().contentEquals(Object.class.getName())) {
+            for (VariableElement field : ElementFilter.fieldsIn(currentType.getEnclosedElements())) {
+                final CloneThis cloneAnnotation = field.getAnnotation(CloneThis.class);
+                if (cloneAnnotation != null) {
+                    if (!isAssignableFrom(field, pkg)) {
+                        return null;
+                    }
+                    fields.add(new CloneField(field, currentType != type, cloneAnnotation.deepClone()));
+                }
+            }
+            final TypeMirror superclass = currentType.getSuperclass();
+            currentType = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return fields;
+    }
+
+    private boolean isAssignableFrom(VariableElement field, PackageElement pkg) {
+        final Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.STATIC)) {
+            return false;
+        }
+        final TypeElement declaringType = (TypeElement) field.getEnclosingElement();
+        if (!isInPackage(declaringType, pkg) && !modifiers.contains(Modifier.PUBLIC)) {
+            return false;
+        }
+        return isAccessibleFrom(declaringType, pkg) && isAccessibleFrom(erasure(field.asType()), pkg);
+    }
+
+    private boolean isAccessibleFrom(TypeMirror type, PackageElement pkg) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isAccessibleFrom(((ArrayType) type).getComponentType(), pkg);
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            return isAccessibleFrom((TypeElement) ((DeclaredType) type).asElement(), pkg);
+        }
+        return type.getKind().isPrimitive();
+    }
+
+    private boolean isAccessibleFrom(TypeElement type, PackageElement pkg) {
+        final boolean samePackage = isInPackage(type, pkg);
+        Element element = type;
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            final NestingKind nestingKind = ((TypeElement) element).getNestingKind();
+            if (element.getModifiers().contains(Modifier.PRIVATE)
+                    || nestingKind.equals(NestingKind.LOCAL)
+                    || nestingKind.equals(NestingKind.ANONYMOUS)
+                    || (!samePackage && !element.getModifiers().contains(Modifier.PUBLIC))) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private boolean isInPackage(TypeElement type, PackageElement pkg) {
+        return processingEnv.getElementUtils().getPackageOf(type).equals(pkg);
+    }
+
+    private TypeMirror erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type);
+    }
+
+    private String getTypeName(TypeMirror type) {
+        return erasure(type).toString();
+    }
+
+    private static String getFlattenedName(TypeElement type) {
+        final StringBuilder sb = new StringBuilder(type.getSimpleName());
+        Element element = type.getEnclosingElement();
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            sb.insert(0, '_').insert(0, element.getSimpleName());
+            element = element.getEnclosingElement();
+        }
+        return sb.toString();
+    }
+
+    private void createSourceFile(String fileName, Template template, VelocityContext vc) {
+        try {
+            JavaFileObject jfo = processingEnv.getFiler().createSourceFile(fileName);
+            Writer writer = jfo.openWriter();
+            template.merge(vc, writer);
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create source file", e);
+        }
+    }
+
+    /**
+     * This class is used to pass information from the annotation processor to
+     * the template engine. It is intended for internal use only and should
+     * never be used by clients.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public final class CloneField {
+
+        private final VariableElement element;
+        private final boolean inherited;
+        private final boolean deepClone;
+
+        CloneField(VariableElement element, boolean inherited, boolean deepClone) {
+            this.element = element;
+            this.inherited = inherited;
+            this.deepClone = deepClone;
+        }
+
+        /**
+         * Returns the expression that accesses the field of the shallow clone.
+         * Inherited fields are accessed through a cast, in case they are
+         * hidden by a field of a subclass.
+         */
+        public String getAccessor() {
+            if (inherited) {
+                return "((" + CloneThisAP.this.getTypeName(element.getEnclosingElement().asType()) + ") shallowClone)." + element.getSimpleName();
+            }
+            return "shallowClone." + element.getSimpleName();
+        }
+
+        /**
+         * Returns the name of the erased type of the field.
+         */
+        public String getTypeName() {
+            return CloneThisAP.this.getTypeName(element.asType());
+        }
+
+        /**
+         * Returns whether the items of the field value should be cloned.
+         */
+        public boolean isDeepClone() {
+            return deepClone;
+        }
+
+        /**
+         * Returns how the field is cloned: <code>PRIMITIVE_ARRAY</code>,
+         * <code>ARRAY</code>, <code>COLLECTION</code>, <code>MAP</code>,
+         * <code>DEEP_VALUE</code> or <code>VALUE</code>.
+         */
+        public String getKind() {
+            final TypeMirror type = element.asType();
+            if (type.getKind() == TypeKind.ARRAY) {
+                return ((ArrayType) type).getComponentType().getKind().isPrimitive() ? "PRIMITIVE_ARRAY" : "ARRAY";
+            } else if (!deepClone) {
+                return "VALUE";
+            } else if (isSubtypeOf(type, Collection.class)) {
+                return "COLLECTION";
+            } else if (isSubtypeOf(type, Map.class)) {
+                return "MAP";
+            }
+            return "DEEP_VALUE";
+        }
+
+        /**
+         * Returns the expression that clones the non-null value of the
+         * specified variable, which has the type of the field.
+         */
+        public String getCloneExpression(String variable) {
+            return createCloneExpression(erasure(element.asType()), variable);
+        }
+
+        /**
+         * Returns the expression that clones the possibly null value of the
+         * specified variable, which is an item of the array, collection or map
+         * stored in the field.
+         */
+        public String getItemCloneExpression(String variable) {
+            final TypeMirror itemType = getItemType();
+            if (itemType == null || !hasPublicCloneMethod(itemType)) {
+                return "net.pkhsolutions.ceres.common.cloning.CloneUtil.cloneObject(" + variable + ")";
+            }
+            final String itemTypeName = CloneThisAP.this.getTypeName(itemType);
+            return variable + " == null ? null : (" + itemTypeName + ") ((" + itemTypeName + ") " + variable + ").clone()";
+        }
+
+        private TypeMirror getItemType() {
+            final TypeMirror type = element.asType();
+            final TypeMirror itemType;
+            if (type.getKind() == TypeKind.ARRAY) {
+                itemType = ((ArrayType) type).getComponentType();
+            } else if (isSubtypeOf(type, Collection.class)) {
+                itemType = findTypeArgument(type, Collection.class.getName(), 0);
+            } else if (isSubtypeOf(type, Map.class)) {
+                itemType = findTypeArgument(type, Map.class.getName(), 1);
+            } else {
+                itemType = null;
+            }
+            if (itemType == null || itemType.getKind() != TypeKind.DECLARED) {
+                return null;
+            }
+            final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(element);
+            return isAccessibleFrom(erasure(itemType), pkg) ? itemType : null;
+        }
+
+        private String createCloneExpression(TypeMirror type, String variable) {
+            if (hasPublicCloneMethod(type)) {
+                return "(" + CloneThisAP.this.getTypeName(type) + ") " + variable + ".clone()";
+            }
+            return "net.pkhsolutions.ceres.common.cloning.CloneUtil.cloneObject(" + variable + ")";
+        }
+
+        private boolean isSubtypeOf(TypeMirror type, Class<?> supertype) {
+            final TypeElement supertypeElement = processingEnv.getElementUtils().getTypeElement(supertype.getName());
+            return processingEnv.getTypeUtils().isSubtype(erasure(type), erasure(supertypeElement.asType()));
+        }
+
+        private TypeMirror findTypeArgument(TypeMirror type, String typeName, int index) {
+            if (type.getKind() != TypeKind.DECLARED) {
+                return null;
+            }
+            final DeclaredType declaredType = (DeclaredType) type;
+            if (((TypeElement) declaredType.asElement()).getQualifiedName().contentEquals(typeName)) {
+                return declaredType.getTypeArguments().size() > index ? declaredType.getTypeArguments().get(index) : null;
+            }
+            final Types types = processingEnv.getTypeUtils();
+            for (TypeMirror supertype : types.directSupertypes(type)) {
+                final TypeMirror typeArgument = findTypeArgument(supertype, typeName, index);
+                if (typeArgument != null) {
+                    return typeArgument;
+                }
+            }
+            return null;
+        }
+
+        private boolean hasPublicCloneMethod(TypeMirror type) {
+            if (type.getKind() != TypeKind.DECLARED) {
+                return false;
+            }
+            final TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+            for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(typeElement))) {
+                if (method.getSimpleName().contentEquals("clone")
+                        && method.getParameters().isEmpty()
+                        && method.getModifiers().contains(Modifier.PUBLIC)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
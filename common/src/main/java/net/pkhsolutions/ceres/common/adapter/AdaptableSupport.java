@@ -17,11 +17,10 @@ package net.pkhsolutions.ceres.common.adapter;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Implementation of the {@link Adaptable} interface that can be used either as
@@ -29,39 +28,34 @@ import java.util.Set;
  * {@link #registerAdapter(Class, Object)} method. <p> This class is
  * serializable. When instances of this class are serialized, all serializable
  * adapters will also be serialized. Any transient adapters will be left out.
+ * The adapter maps are not serialized as such; only the adapter class names and
+ * the adapters themselves are written, which keeps the serialized form small.
  *
  * @author Petter Holmström
  * @since 1.0
  */
 public class AdaptableSupport implements Adaptable {
 
-    private static final long serialVersionUID = -7780952614009866736L;
+    private static final long serialVersionUID = 2186364913594893487L;
 
-    private static class AdapterEntry implements Serializable {
+    private static class AdapterEntry {
 
-        private static final long serialVersionUID = -3833719181978897176L;
-        private transient Object adapter;
-        private Serializable serializableAdapter;
+        private final Object adapter;
 
         public AdapterEntry(Object adapter) {
             this.adapter = adapter;
-            if (adapter instanceof Serializable) {
-                serializableAdapter = (Serializable) adapter;
-            }
         }
 
         public Object getAdapter() {
             return adapter;
         }
 
-        private void readObject(ObjectInputStream in) throws IOException,
-                ClassNotFoundException {
-            in.defaultReadObject();
-            adapter = serializableAdapter;
+        public boolean isSerializable() {
+            return adapter instanceof Serializable;
         }
     }
-    private Map<String, AdapterEntry> adapterMap = new HashMap<String, AdapterEntry>();
-    private Map<String, Adaptable> chainedAdapterMap = new HashMap<String, Adaptable>();
+    private transient Map<String, AdapterEntry> adapterMap = new HashMap<String, AdapterEntry>();
+    private transient Map<String, Adaptable> chainedAdapterMap = new HashMap<String, Adaptable>();
 
     /**
      * Registers the specified adapter of the specified adapter class. If an
@@ -151,19 +145,42 @@ public class AdaptableSupport implements Adaptable {
         return adapterClass.cast(adapterEntry.getAdapter());
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int serializableCount = 0;
+        for (AdapterEntry entry : adapterMap.values()) {
+            if (entry.isSerializable()) {
+                ++serializableCount;
+            }
+        }
+        out.writeInt(serializableCount);
+        for (Map.Entry<String, AdapterEntry> entry : adapterMap.entrySet()) {
+            if (entry.getValue().isSerializable()) {
+                out.writeUTF(entry.getKey());
+                out.writeObject(entry.getValue().getAdapter());
+            }
+        }
+        out.writeInt(chainedAdapterMap.size());
+        for (Map.Entry<String, Adaptable> entry : chainedAdapterMap.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+    }
+
     private void readObject(ObjectInputStream in) throws IOException,
             ClassNotFoundException {
         in.defaultReadObject();
-        /*
-         * Remove all transient adapters from the map
-         */
-        final Set<String> classNames = new HashSet<String>();
-        classNames.addAll(adapterMap.keySet());
-        for (String className : classNames) {
-            final AdapterEntry entry = adapterMap.get(className);
-            if (entry.getAdapter() == null) {
-                adapterMap.remove(className);
-            }
+        final int adapterCount = in.readInt();
+        adapterMap = new HashMap<String, AdapterEntry>(Math.max(adapterCount * 2, 16));
+        for (int i = 0; i < adapterCount; ++i) {
+            final String className = in.readUTF();
+            adapterMap.put(className, new AdapterEntry(in.readObject()));
+        }
+        final int chainedCount = in.readInt();
+        chainedAdapterMap = new HashMap<String, Adaptable>(Math.max(chainedCount * 2, 16));
+        for (int i = 0; i < chainedCount; ++i) {
+            final String className = in.readUTF();
+            chainedAdapterMap.put(className, (Adaptable) in.readObject());
         }
     }
 }
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * The way instances of a particular class are cloned by {@link CloneUtil}. A
+ * plan is created once per class and contains the public clone method of the
+ * class, if any, and the fields annotated with {@link CloneThis} in the class
+ * and its superclasses, already made accessible. Cloning an instance is then a
+ * matter of running through the fields without looking anything up. If a
+ * {@link DeepCloner} has been generated for the class, the plan uses it
+ * instead of the fields. <p> The plans are cached in an immutable hash table
+ * that is read without locking and replaced as a whole when a plan is added.
+ * The table refers to the classes weakly and to the plans softly, so a cached
+ * plan does not prevent its class from being unloaded.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class ClonePlan {
+
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final Object plansLock = new Object();
+    /**
+     * Open addressing hash table of the cached plans, with linear probing.
+     * The table is never modified once published and at most half full.
+     */
+    private static volatile PlanReference[] plans = new PlanReference[MIN_TABLE_SIZE];
+    private static final FieldCloner[] NO_FIELD_CLONERS = new FieldCloner[0];
+    private final Method cloneMethod;
+    private final DeepCloner<Object> generatedCloner;
+    private final FieldCloner[] fieldCloners;
+
+    private ClonePlan(Class<?> type) {
+        cloneMethod = findCloneMethod(type);
+        generatedCloner = loadGeneratedCloner(type);
+        fieldCloners = generatedCloner == null ? findFieldCloners(type) : NO_FIELD_CLONERS;
+    }
+
+    private static FieldCloner[] findFieldCloners(Class<?> type) {
+        final List<FieldCloner> cloners = new ArrayList<FieldCloner>();
+        for (Class<?> currentClass = type; currentClass != null && currentClass != Object.class; currentClass = currentClass.getSuperclass()) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                final CloneThis cloneAnnotation = field.getAnnotation(CloneThis.class);
+                if (cloneAnnotation != null) {
+                    field.setAccessible(true);
+                    if (!field.getType().isArray()) {
+                        cloners.add(new OrdinaryFieldCloner(field, cloneAnnotation.deepClone()));
+                    } else if (field.getType().getComponentType().isPrimitive()) {
+                        cloners.add(new PrimitiveArrayFieldCloner(field));
+                    } else {
+                        cloners.add(new ArrayFieldCloner(field, cloneAnnotation.deepClone()));
+                    }
+                }
+            }
+        }
+        return cloners.toArray(new FieldCloner[cloners.size()]);
+    }
+
+    /**
+     * Loads the generated cloner of the class. If the cloner cannot be
+     * loaded, the fields are cloned using reflection instead.
+     */
+    @SuppressWarnings("unchecked")
+    private static DeepCloner<Object> loadGeneratedCloner(Class<?> type) {
+        final String typeName = type.getName();
+        final int packageEnd = typeName.lastIndexOf('.') + 1;
+        final String clonerName = typeName.substring(0, packageEnd)
+                + typeName.substring(packageEnd).replace('$', '_')
+                + DeepCloner.CLASS_NAME_SUFFIX;
+        try {
+            final Class<?> clonerClass = Class.forName(clonerName, true, type.getClassLoader());
+            return (DeepCloner<Object>) clonerClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            /*
+             * A cloner that cannot be instantiated is ignored, as the fields
+             * can still be cloned using reflection.
+             */
+            return null;
+        }
+    }
+
+    /**
+     * Gets the plan of the specified class, creating it if it has not been
+     * created yet or has been garbage collected. Cached plans are looked up
+     * without locking. A missing plan is created without holding the lock, so
+     * two threads may both create it; only the first one is cached.
+     */
+    static ClonePlan forClass(Class<?> type) {
+        final ClonePlan cachedPlan = lookUp(plans, type);
+        if (cachedPlan != null) {
+            return cachedPlan;
+        }
+        final ClonePlan plan = new ClonePlan(type);
+        synchronized (plansLock) {
+            final ClonePlan concurrentPlan = lookUp(plans, type);
+            if (concurrentPlan != null) {
+                return concurrentPlan;
+            }
+            plans = withPlan(plans, type, plan);
+        }
+        return plan;
+    }
+
+    private static ClonePlan lookUp(PlanReference[] table, Class<?> type) {
+        final int mask = table.length - 1;
+        for (int i = System.identityHashCode(type) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].type.get() == type) {
+                return table[i].get();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the table, leaving out the plans that have been garbage collected
+     * or belong to unloaded classes, and adds the plan of the specified class.
+     */
+    private static PlanReference[] withPlan(PlanReference[] table, Class<?> type, ClonePlan plan) {
+        final List<PlanReference> references = new ArrayList<PlanReference>();
+        for (PlanReference reference : table) {
+            if (reference != null && reference.get() != null) {
+                final Class<?> referenceType = reference.type.get();
+                if (referenceType != null && referenceType != type) {
+                    references.add(reference);
+                }
+            }
+        }
+        references.add(new PlanReference(type, plan));
+        int size = MIN_TABLE_SIZE;
+        while (size < references.size() * 2) {
+            size <<= 1;
+        }
+        final PlanReference[] newTable = new PlanReference[size];
+        final int mask = size - 1;
+        for (PlanReference reference : references) {
+            final Class<?> referenceType = reference.type.get();
+            if (referenceType != null) {
+                int i = System.identityHashCode(referenceType) & mask;
+                while (newTable[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                newTable[i] = reference;
+            }
+        }
+        return newTable;
+    }
+
+    /**
+     * Returns the public clone method of the class, made accessible to avoid
+     * the access check on every invocation. Methods declared by non-public
+     * classes cannot be invoked from here, so they are treated as missing.
+     */
+    private static Method findCloneMethod(Class<?> type) {
+        try {
+            final Method method = type.getMethod("clone");
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                return null;
+            }
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Clones the annotated fields of the shallow clone.
+     */
+    void cloneFields(Object owner) throws CloneNotSupportedException {
+        if (generatedCloner != null) {
+            generatedCloner.cloneFields(owner);
+            return;
+        }
+        for (FieldCloner cloner : fieldCloners) {
+            try {
+                cloner.cloneField(owner);
+            } catch (IllegalAccessException e) {
+                throw new CloneNotSupportedException("Could not access field "
+                        + cloner.field + " on object " + owner);
+            }
+        }
+    }
+
+    /**
+     * Invokes the public clone method of the object, which must be an instance
+     * of the class of this plan.
+     */
+    Object invokeCloneMethod(Object object) throws CloneNotSupportedException {
+        if (cloneMethod == null) {
+            throw new CloneNotSupportedException(
+                    "Could not invoke clone method on object " + object);
+        }
+        try {
+            return cloneMethod.invoke(object);
+        } catch (Exception e) {
+            throw new CloneNotSupportedException(
+                    "Could not invoke clone method on object " + object);
+        }
+    }
+
+    static Object callCloneMethod(Object object) throws CloneNotSupportedException {
+        return object == null ? null : forClass(object.getClass()).invokeCloneMethod(object);
+    }
+
+    /**
+     * Clones the value of a field that is not an array. If the clone is a
+     * collection or a map, its items are also cloned if requested.
+     */
+    @SuppressWarnings("unchecked")
+    static Object cloneValue(Object value, boolean deepClone) throws CloneNotSupportedException {
+        final Object newValue = callCloneMethod(value);
+        if (newValue != null && deepClone) {
+            if (newValue instanceof Collection) {
+                cloneCollection((Collection<Object>) value,
+                        (Collection<Object>) newValue);
+            } else if (newValue instanceof Map) {
+                cloneMap((Map<Object, Object>) value,
+                        (Map<Object, Object>) newValue);
+            }
+        }
+        return newValue;
+    }
+
+    private static void cloneCollection(Collection<Object> source,
+            Collection<Object> destination) throws CloneNotSupportedException {
+        destination.clear();
+        for (Object sourceItem : source) {
+            destination.add(callCloneMethod(sourceItem));
+        }
+    }
+
+    private static void cloneMap(Map<Object, Object> source,
+            Map<Object, Object> destination) throws CloneNotSupportedException {
+        destination.clear();
+        for (Map.Entry<Object, Object> sourceEntry : source.entrySet()) {
+            destination.put(sourceEntry.getKey(),
+                    callCloneMethod(sourceEntry.getValue()));
+        }
+    }
+
+    /**
+     * Soft reference to a cached plan that also remembers the class of the
+     * plan, without preventing the class from being unloaded.
+     */
+    private static final class PlanReference extends SoftReference<ClonePlan> {
+
+        final WeakReference<Class<?>> type;
+
+        PlanReference(Class<?> type, ClonePlan plan) {
+            super(plan);
+            this.type = new WeakReference<Class<?>>(type);
+        }
+    }
+
+    private static abstract class FieldCloner {
+
+        final Field field;
+        final boolean deepClone;
+
+        FieldCloner(Field field, boolean deepClone) {
+            this.field = field;
+            this.deepClone = deepClone;
+        }
+
+        abstract void cloneField(Object owner) throws IllegalAccessException, CloneNotSupportedException;
+    }
+
+    private static final class OrdinaryFieldCloner extends FieldCloner {
+
+        OrdinaryFieldCloner(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        void cloneField(Object owner) throws IllegalAccessException, CloneNotSupportedException {
+            field.set(owner, cloneValue(field.get(owner), deepClone));
+        }
+    }
+
+    private static final class ArrayFieldCloner extends FieldCloner {
+
+        ArrayFieldCloner(Field field, boolean deepClone) {
+            super(field, deepClone);
+        }
+
+        @Override
+        void cloneField(Object owner) throws IllegalAccessException, CloneNotSupportedException {
+            final Object[] fieldValue = (Object[]) field.get(owner);
+            if (fieldValue != null) {
+                final Object[] newArray = Arrays.copyOf(fieldValue, fieldValue.length);
+                if (deepClone) {
+                    for (int i = 0; i < fieldValue.length; i++) {
+                        if (fieldValue[i] instanceof Cloneable) {
+                            newArray[i] = callCloneMethod(fieldValue[i]);
+                        }
+                    }
+                }
+                field.set(owner, newArray);
+            }
+        }
+    }
+
+    private static final class PrimitiveArrayFieldCloner extends FieldCloner {
+
+        PrimitiveArrayFieldCloner(Field field) {
+            super(field, false);
+        }
+
+        @Override
+        void cloneField(Object owner) throws IllegalAccessException {
+            final Object fieldValue = field.get(owner);
+            if (fieldValue != null) {
+                final int length = Array.getLength(fieldValue);
+                final Object newArray = Array.newInstance(fieldValue.getClass().getComponentType(), length);
+                System.arraycopy(fieldValue, 0, newArray, 0, length);
+                field.set(owner, newArray);
+            }
+        }
+    }
+}
@@ -15,11 +15,6 @@
  */
 package net.pkhsolutions.ceres.common.cloning;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Map;
 import net.pkhsolutions.ceres.common.annotations.NeverReturnsNull;
 
 /**
@@ -43,7 +38,11 @@ public final class CloneUtil {
      * <code>shallowClone</code> object (both fields declared by the object's
      * class and fields declared by superclasses) and clones all fields that are
      * annotated with
-     * {@link CloneThis}. The
+     * {@link CloneThis}. The fields to clone and the clone methods to invoke
+     * are looked up once per class and cached, so cloning another instance of
+     * the same class does not scan its fields again, and if the cloning
+     * annotation processor has generated a {@link DeepCloner} for the class,
+     * no reflection is used at all. The
      * <code>shallowClone</code> object should be retrieved from
      * <code>Object.clone()</code> like this:
      *
@@ -65,106 +64,44 @@ public final class CloneUtil {
             throws CloneNotSupportedException {
         assert shallowClone != null : "shallowClone must not be null";
 
-        Class<?> currentClass = shallowClone.getClass();
-        while (currentClass != Object.class) {
-            cloneDeclaredFields(currentClass, shallowClone);
-            currentClass = currentClass.getSuperclass();
-        }
-
+        ClonePlan.forClass(shallowClone.getClass()).cloneFields(shallowClone);
         return shallowClone;
     }
 
-    private static void cloneDeclaredFields(Class<?> declaringClass,
-            Object owner) throws CloneNotSupportedException {
-        for (Field field : declaringClass.getDeclaredFields()) {
-            CloneThis cloneAnnotation = field.getAnnotation(CloneThis.class);
-            if (cloneAnnotation != null) {
-                cloneField(field, owner, cloneAnnotation.deepClone());
-            }
-        }
-    }
-
-    private static void cloneField(Field field, Object owner, boolean deepClone)
-            throws CloneNotSupportedException {
-        boolean oldAccessible = field.isAccessible();
-        field.setAccessible(true);
-        try {
-            if (field.getType().isArray()) {
-                cloneArrayField(field, owner, deepClone);
-            } else {
-                cloneOrdinaryField(field, owner, deepClone);
-            }
-        } catch (IllegalAccessException e) {
-            throw new CloneNotSupportedException("Could not access field "
-                    + field + " on object " + owner);
-        } finally {
-            field.setAccessible(oldAccessible);
-        }
-    }
-
+    /**
+     * Invokes the public clone method of the object. This method is used by
+     * the generated {@link DeepCloner}s for values whose declared type does
+     * not have a public clone method.
+     *
+     * @param <T> the type of the object.
+     * @param object the object to clone, may be null.
+     * @return the clone, or null if <code>object</code> is null.
+     * @throws CloneNotSupportedException if the object does not have a public
+     * clone method or the clone method fails.
+     */
     @SuppressWarnings("unchecked")
-    private static void cloneOrdinaryField(Field field, Object owner,
-            boolean deepClone) throws IllegalAccessException,
-            CloneNotSupportedException {
-        Object oldValue = field.get(owner);
-        Object newValue = callCloneMethod(oldValue);
-        if (newValue != null && deepClone) {
-            if (newValue instanceof Collection) {
-                cloneCollection((Collection<Object>) oldValue,
-                        (Collection<Object>) newValue);
-            } else if (newValue instanceof Map) {
-                cloneMap((Map<Object, Object>) oldValue,
-                        (Map<Object, Object>) newValue);
-            }
-        }
-        field.set(owner, newValue);
-    }
-
-    private static void cloneArrayField(Field field, Object owner,
-            boolean deepClone) throws IllegalAccessException,
-            CloneNotSupportedException {
-        Object[] fieldValue = (Object[]) field.get(owner);
-        if (fieldValue != null) {
-            Object[] newArray = Arrays.copyOf(fieldValue, fieldValue.length);
-            if (deepClone) {
-                for (int i = 0; i < fieldValue.length; i++) {
-                    if (fieldValue[i] instanceof Cloneable) {
-                        newArray[i] = callCloneMethod(fieldValue[i]);
-                    }
-                }
-            }
-            field.set(owner, newArray);
-        }
-    }
-
-    private static void cloneCollection(Collection<Object> source,
-            Collection<Object> destination) throws CloneNotSupportedException {
-        destination.clear();
-        for (Object sourceItem : source) {
-            destination.add(callCloneMethod(sourceItem));
-        }
-    }
-
-    private static void cloneMap(Map<Object, Object> source,
-            Map<Object, Object> destination) throws CloneNotSupportedException {
-        destination.clear();
-        for (Map.Entry<Object, Object> sourceEntry : source.entrySet()) {
-            destination.put(sourceEntry.getKey(),
-                    callCloneMethod(sourceEntry.getValue()));
-        }
+    public static <T> T cloneObject(T object) throws CloneNotSupportedException {
+        return (T) ClonePlan.callCloneMethod(object);
     }
 
-    private static Object callCloneMethod(Object object)
-            throws CloneNotSupportedException {
-        if (object == null) {
-            return null;
-        }
-        try {
-            Method cloneMethod = object.getClass().getMethod("clone");
-            return cloneMethod.invoke(object);
-        } catch (Exception e) {
-            throw new CloneNotSupportedException(
-                    "Could not invoke clone method on object " + object);
-        }
+    /**
+     * Clones the value like the value of a field annotated with
+     * {@link CloneThis}: the value is cloned using its public clone method
+     * and if <code>deepClone</code> is true and the clone is a collection or a
+     * map, its items are also cloned. This method is used by the generated
+     * {@link DeepCloner}s for fields whose declared type is neither a
+     * collection nor a map.
+     *
+     * @param <T> the type of the value.
+     * @param value the value to clone, may be null.
+     * @param deepClone whether the items of a collection or map should be
+     * cloned.
+     * @return the clone, or null if <code>value</code> is null.
+     * @throws CloneNotSupportedException if the value or any of its items
+     * could not be cloned.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T cloneValue(T value, boolean deepClone) throws CloneNotSupportedException {
+        return (T) ClonePlan.cloneValue(value, deepClone);
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning;
+
+/**
+ * Clones the fields annotated with {@link CloneThis} of a particular class
+ * without using reflection. Implementations are generated by the cloning
+ * annotation processor and are named after the class: the cloner of
+ * <code>com.example.MyClass</code> is called
+ * <code>com.example.MyClassDeepCloner</code> and the cloner of the nested
+ * class
+ * <code>com.example.Outer.Inner</code> is called
+ * <code>com.example.Outer_InnerDeepCloner</code>. {@link CloneUtil#deepClone(Cloneable)
+ * } uses the cloner of the class of the object if there is one. Clients
+ * should never need to implement this interface themselves.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ * @param <T> the type of the objects that are cloned.
+ */
+public interface DeepCloner<T> {
+
+    /**
+     * The suffix that is appended to the name of the class to get the name of
+     * the cloner.
+     */
+    String CLASS_NAME_SUFFIX = "DeepCloner";
+
+    /**
+     * Clones the annotated fields of the shallow clone, like
+     * {@link CloneUtil#deepClone(Cloneable)}.
+     *
+     * @param shallowClone the object whose annotated fields are to be cloned,
+     * must not be null.
+     * @throws CloneNotSupportedException if the deep clone could not be
+     * completed.
+     */
+    void cloneFields(T shallowClone) throws CloneNotSupportedException;
+}
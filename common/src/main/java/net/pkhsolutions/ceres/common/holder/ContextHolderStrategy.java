@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.holder;
+
+/**
+ * Holder strategy that stores the object in the context of the current task.
+ * Unlike {@link ThreadLocalHolderStrategy}, new threads do not inherit the
+ * object. Instead, the objects of all holders using this strategy are captured
+ * in a {@link HolderContext} and installed explicitly for the tasks that
+ * should see them, typically by wrapping the tasks or the executor that runs
+ * them. <p> Outside of a task run through a {@link HolderContext}, the object
+ * is stored in a plain {@link ThreadLocal}. Inside such a task, the object is
+ * read from the installed context; if the runtime supports scoped values, the
+ * context is bound to a scoped value instead of being copied into the thread
+ * locals, so that running the task does not touch the thread locals at all.
+ * Objects set while a task is running are only visible until the task
+ * completes.
+ *
+ * @see HolderContext
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ * @param <T> the type of object stored by the strategy.
+ */
+public class ContextHolderStrategy<T> implements HolderStrategy<T> {
+
+    private final ThreadLocal<T> threadLocal = new ThreadLocal<T>();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        final HolderContext.Scope scope = HolderContext.getCurrentScope();
+        return scope == null ? threadLocal.get() : (T) scope.get(this);
+    }
+
+    @Override
+    public void set(T object) {
+        final HolderContext.Scope scope = HolderContext.getCurrentScope();
+        if (scope != null) {
+            scope.set(this, object);
+        } else {
+            setThreadLocal(object);
+        }
+    }
+
+    T getThreadLocal() {
+        return threadLocal.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    void setThreadLocal(Object object) {
+        if (object == null) {
+            threadLocal.remove();
+        } else {
+            threadLocal.set((T) object);
+        }
+    }
+}
@@ -17,7 +17,11 @@ package net.pkhsolutions.ceres.common.holder;
 
 /**
  * Holder strategy that stores the object in a local field, making it available
- * to all threads of the application.
+ * to all threads of the application. The field is volatile, so an object set
+ * by one thread is immediately visible to all other threads, and neither
+ * getting nor setting the object ever locks. This makes the strategy suitable
+ * for objects that are read often by many threads, such as a shared
+ * application wide event bus.
  *
  * @author Petter Holmström
  * @since 1.0
@@ -25,15 +29,15 @@ package net.pkhsolutions.ceres.common.holder;
  */
 public class GlobalHolderStrategy<T> implements HolderStrategy<T> {
 
-    private T object;
+    private volatile T object;
 
     @Override
-    public synchronized T get() {
+    public T get() {
         return object;
     }
 
     @Override
-    public synchronized void set(T object) {
+    public void set(T object) {
         this.object = object;
     }
 }
@@ -15,8 +15,10 @@
  */
 package net.pkhsolutions.ceres.common.holder;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import net.pkhsolutions.ceres.common.annotations.NeverReturnsNull;
 
 /**
@@ -27,45 +29,74 @@ import net.pkhsolutions.ceres.common.annotations.NeverReturnsNull;
  * <pre>
  * public class CurrentUserNameHolder extends Holder&lt;String&gt; {
  *
+ *   private static final StrategyReference&lt;String&gt; strategy = getStrategyReference(CurrentUserNameHolder.class);
+ *
  *   private CurrentUserNameHolder() {
  *   }
  *
  *   public static String get() {
- *       return getStrategy(CurrentUserNameHolder.class).get();
+ *       return strategy.get().get();
  *   }
  *
  *   public static void set(String username) {
- *       getStrategy(CurrentUserNameHolder.class).set(username);
+ *       strategy.get().set(username);
  *   }
  * }
  * </pre> Now a method that needs the name of the current user can call
- * <code>CurrentUserNameHolder.get()</code> to retrieve it.
+ * <code>CurrentUserNameHolder.get()</code> to retrieve it. <p> The strategies
+ * are kept in {@link StrategyReference}s that are created once per holder
+ * class and never replaced, so a holder can cache its reference in a static
+ * field as above. Resolving the strategy through a cached reference costs a
+ * single volatile read, and neither that nor {@link #getStrategy(java.lang.Class)
+ * } nor {@link #setStrategy(java.lang.Class, net.pkhsolutions.ceres.common.holder.HolderStrategy)
+ * } ever locks.
  *
  * @see HolderStrategy
  * @see GlobalHolderStrategy
  * @see ThreadLocalHolderStrategy
+ * @see ContextHolderStrategy
+ * @see HolderContext
  *
  * @author Petter Holmström
  * @since 1.0
  */
 public abstract class Holder<T> {
 
-    private static final Map<Class<? extends Holder<?>>, HolderStrategy<?>> strategies = new HashMap<Class<? extends Holder<?>>, HolderStrategy<?>>();
+    private static final ConcurrentMap<Class<?>, StrategyReference<?>> strategyReferences = new ConcurrentHashMap<Class<?>, StrategyReference<?>>();
 
     /**
-     * Sets the strategy for the specified holder class.
+     * Gets the strategy reference of the specified holder class. The same
+     * reference is returned every time for the same holder class, so it can be
+     * stored in a static field of the holder.
      *
      * @param <T> the type of object stored in the holder.
      * @param holderClass the holder class, must not be null.
-     * @param strategy the strategy to set, may be null.
+     * @return the strategy reference, never null.
      */
-    public synchronized static <T> void setStrategy(Class<? extends Holder<T>> holderClass, HolderStrategy<T> strategy) {
+    @NeverReturnsNull
+    @SuppressWarnings("unchecked")
+    public static <T> StrategyReference<T> getStrategyReference(Class<? extends Holder<T>> holderClass) {
         assert holderClass != null : "holderClass must not be null";
-        if (strategy == null) {
-            strategies.remove(holderClass);
-        } else {
-            strategies.put(holderClass, strategy);
+        StrategyReference<T> reference = (StrategyReference<T>) strategyReferences.get(holderClass);
+        if (reference == null) {
+            final StrategyReference<T> newReference = new StrategyReference<T>();
+            reference = (StrategyReference<T>) strategyReferences.putIfAbsent(holderClass, newReference);
+            if (reference == null) {
+                reference = newReference;
+            }
         }
+        return reference;
+    }
+
+    /**
+     * Sets the strategy for the specified holder class.
+     *
+     * @param <T> the type of object stored in the holder.
+     * @param holderClass the holder class, must not be null.
+     * @param strategy the strategy to set, may be null.
+     */
+    public static <T> void setStrategy(Class<? extends Holder<T>> holderClass, HolderStrategy<T> strategy) {
+        getStrategyReference(holderClass).set(strategy);
     }
 
     /**
@@ -77,13 +108,68 @@ public abstract class Holder<T> {
      * @return the holder strategy, never null.
      */
     @NeverReturnsNull
-    public synchronized static <T> HolderStrategy<T> getStrategy(Class<? extends Holder<T>> holderClass) {
-        assert holderClass != null : "holderClass must not be null";
-        HolderStrategy<T> strategy = (HolderStrategy<T>) strategies.get(holderClass);
-        if (strategy == null) {
-            strategy = new ThreadLocalHolderStrategy<T>();
-            strategies.put(holderClass, strategy);
+    public static <T> HolderStrategy<T> getStrategy(Class<? extends Holder<T>> holderClass) {
+        return getStrategyReference(holderClass).get();
+    }
+
+    /**
+     * Gets the strategy references of all holder classes that have been used
+     * so far.
+     */
+    static Collection<StrategyReference<?>> getStrategyReferences() {
+        return strategyReferences.values();
+    }
+
+    /**
+     * Reference to the strategy of a holder class. The reference itself never
+     * changes; setting a new strategy for the holder class only updates the
+     * volatile field of the reference.
+     *
+     * @see Holder#getStrategyReference(java.lang.Class)
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     * @param <T> the type of object stored in the holder.
+     */
+    public static final class StrategyReference<T> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<StrategyReference, HolderStrategy> strategyUpdater =
+                AtomicReferenceFieldUpdater.newUpdater(StrategyReference.class, HolderStrategy.class, "strategy");
+        private volatile HolderStrategy<T> strategy;
+
+        StrategyReference() {
+        }
+
+        /**
+         * Gets the strategy. If no strategy has been set, a
+         * {@link ThreadLocalHolderStrategy} is created and returned.
+         *
+         * @return the holder strategy, never null.
+         */
+        @NeverReturnsNull
+        public HolderStrategy<T> get() {
+            final HolderStrategy<T> current = strategy;
+            return current == null ? createDefaultStrategy() : current;
+        }
+
+        private HolderStrategy<T> createDefaultStrategy() {
+            final HolderStrategy<T> defaultStrategy = new ThreadLocalHolderStrategy<T>();
+            if (strategyUpdater.compareAndSet(this, null, defaultStrategy)) {
+                return defaultStrategy;
+            }
+            return get();
+        }
+
+        /**
+         * Gets the strategy without creating a default one.
+         */
+        HolderStrategy<T> getIfSet() {
+            return strategy;
+        }
+
+        void set(HolderStrategy<T> strategy) {
+            this.strategy = strategy;
         }
-        return strategy;
     }
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.holder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import net.pkhsolutions.ceres.common.annotations.NeverReturnsNull;
+
+/**
+ * Immutable snapshot of the objects of all holders that use a
+ * {@link ContextHolderStrategy}. A context is captured in one thread and
+ * installed in another thread for the duration of a task, after which the
+ * objects the thread had before are restored. This makes the current
+ * principal, I18N or event bus follow a task into a thread pool, which
+ * inheritable thread locals cannot do since they are only copied when a thread
+ * is created. <p> A context is typically captured and installed by wrapping
+ * the task:
+ * <pre>
+ * executor.execute(HolderContext.capture().wrap(task));
+ * </pre> or by wrapping the executor, which captures the context of the
+ * submitting thread every time a task is submitted:
+ * <pre>
+ * Executor contextExecutor = HolderContext.wrapExecutor(executor);
+ * </pre> If the runtime supports scoped values, installing a context binds it
+ * to a scoped value instead of copying the objects into thread locals. This
+ * is considerably cheaper for short-lived virtual threads. Use
+ * {@link #isUsingScopedValues()} to find out which mechanism is used.
+ *
+ * @see ContextHolderStrategy
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class HolderContext {
+
+    /**
+     * A context without any objects, captured when no holder uses a
+     * {@link ContextHolderStrategy}. Installing it does nothing.
+     */
+    public static final HolderContext EMPTY = new HolderContext(new ContextHolderStrategy<?>[0], new Object[0]);
+    private final ContextHolderStrategy<?>[] strategies;
+    private final Object[] objects;
+
+    private HolderContext(ContextHolderStrategy<?>[] strategies, Object[] objects) {
+        this.strategies = strategies;
+        this.objects = objects;
+    }
+
+    /**
+     * Captures the objects that the holders using a
+     * {@link ContextHolderStrategy} currently hold in the calling thread.
+     *
+     * @return the captured context, never null.
+     */
+    @NeverReturnsNull
+    public static HolderContext capture() {
+        List<ContextHolderStrategy<?>> capturedStrategies = null;
+        for (Holder.StrategyReference<?> reference : Holder.getStrategyReferences()) {
+            final HolderStrategy<?> strategy = reference.getIfSet();
+            if (strategy instanceof ContextHolderStrategy) {
+                if (capturedStrategies == null) {
+                    capturedStrategies = new ArrayList<ContextHolderStrategy<?>>();
+                }
+                capturedStrategies.add((ContextHolderStrategy<?>) strategy);
+            }
+        }
+        if (capturedStrategies == null) {
+            return EMPTY;
+        }
+        final ContextHolderStrategy<?>[] strategies = capturedStrategies.toArray(new ContextHolderStrategy<?>[capturedStrategies.size()]);
+        final Object[] objects = new Object[strategies.length];
+        for (int i = 0; i < strategies.length; ++i) {
+            objects[i] = strategies[i].get();
+        }
+        return new HolderContext(strategies, objects);
+    }
+
+    /**
+     * Checks whether contexts are installed by binding them to a scoped value
+     * rather than by copying them into thread locals. Scoped values are used
+     * when the runtime supports them.
+     *
+     * @return true if scoped values are used, false otherwise.
+     */
+    public static boolean isUsingScopedValues() {
+        return ScopedValues.SUPPORTED;
+    }
+
+    /**
+     * Gets the scope of the context installed using a scoped value, if any.
+     */
+    static Scope getCurrentScope() {
+        return ScopedValues.SUPPORTED ? ScopedValues.getCurrentScope() : null;
+    }
+
+    /**
+     * Checks whether this context contains any objects.
+     *
+     * @return true if no holder uses a {@link ContextHolderStrategy}, false
+     * otherwise.
+     */
+    public boolean isEmpty() {
+        return strategies.length == 0;
+    }
+
+    /**
+     * Runs the task in the calling thread with this context installed. When
+     * the task completes, the objects that the thread held before are
+     * restored.
+     *
+     * @param task the task to run, must not be null.
+     */
+    public void run(Runnable task) {
+        assert task != null : "task must not be null";
+        if (isEmpty()) {
+            task.run();
+        } else if (ScopedValues.SUPPORTED) {
+            ScopedValues.runInScope(new Scope(this), task);
+        } else {
+            final Object[] previousObjects = install();
+            try {
+                task.run();
+            } finally {
+                restore(previousObjects);
+            }
+        }
+    }
+
+    /**
+     * Calls the task in the calling thread with this context installed, like
+     * {@link #run(java.lang.Runnable) }.
+     *
+     * @param task the task to call, must not be null.
+     * @return the result of the task.
+     * @throws Exception if the task throws an exception.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V call(final Callable<V> task) throws Exception {
+        assert task != null : "task must not be null";
+        if (isEmpty()) {
+            return task.call();
+        }
+        final Object[] result = new Object[1];
+        final Exception[] failure = new Exception[1];
+        run(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = task.call();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return (V) result[0];
+    }
+
+    /**
+     * Wraps the task so that it runs with this context installed, regardless
+     * of the thread that runs it.
+     *
+     * @param task the task to wrap, must not be null.
+     * @return the wrapped task, or the task itself if this context is empty.
+     */
+    @NeverReturnsNull
+    public Runnable wrap(final Runnable task) {
+        assert task != null : "task must not be null";
+        if (isEmpty()) {
+            return task;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                HolderContext.this.run(task);
+            }
+        };
+    }
+
+    /**
+     * Wraps the task so that it is called with this context installed,
+     * regardless of the thread that calls it.
+     *
+     * @param task the task to wrap, must not be null.
+     * @return the wrapped task, or the task itself if this context is empty.
+     */
+    @NeverReturnsNull
+    public <V> Callable<V> wrap(final Callable<V> task) {
+        assert task != null : "task must not be null";
+        if (isEmpty()) {
+            return task;
+        }
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return HolderContext.this.call(task);
+            }
+        };
+    }
+
+    /**
+     * Wraps the executor so that every task runs with the context of the
+     * thread that submitted it.
+     *
+     * @param executor the executor to wrap, must not be null.
+     * @return the wrapped executor, never null.
+     */
+    @NeverReturnsNull
+    public static Executor wrapExecutor(final Executor executor) {
+        assert executor != null : "executor must not be null";
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                executor.execute(capture().wrap(task));
+            }
+        };
+    }
+
+    private Object[] install() {
+        final Object[] previousObjects = new Object[strategies.length];
+        for (int i = 0; i < strategies.length; ++i) {
+            previousObjects[i] = strategies[i].getThreadLocal();
+            strategies[i].setThreadLocal(objects[i]);
+        }
+        return previousObjects;
+    }
+
+    private void restore(Object[] previousObjects) {
+        for (int i = 0; i < strategies.length; ++i) {
+            strategies[i].setThreadLocal(previousObjects[i]);
+        }
+    }
+
+    /**
+     * The objects of a context bound to a scoped value. Every installation
+     * gets a scope of its own, so objects set by the task are discarded when
+     * the task completes. Strategies that were not captured in the context
+     * fall back to their thread locals.
+     */
+    static final class Scope {
+
+        private final ContextHolderStrategy<?>[] strategies;
+        private final Object[] objects;
+
+        Scope(HolderContext context) {
+            strategies = context.strategies;
+            objects = context.objects.clone();
+        }
+
+        private int indexOf(ContextHolderStrategy<?> strategy) {
+            for (int i = 0; i < strategies.length; ++i) {
+                if (strategies[i] == strategy) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Object get(ContextHolderStrategy<?> strategy) {
+            final int index = indexOf(strategy);
+            return index < 0 ? strategy.getThreadLocal() : objects[index];
+        }
+
+        void set(ContextHolderStrategy<?> strategy, Object object) {
+            final int index = indexOf(strategy);
+            if (index < 0) {
+                strategy.setThreadLocal(object);
+            } else {
+                objects[index] = object;
+            }
+        }
+    }
+
+    /**
+     * Access to {@code java.lang.ScopedValue}, which is looked up using
+     * reflection so that this class works on any Java version. Scoped values
+     * are only used if a value can actually be bound, which is not the case
+     * on runtimes where they are a disabled preview feature. Since
+     * {@code orElse} does not accept null, an unbound value is detected by
+     * passing a sentinel. <p> Every thread counts the scopes it has bound
+     * itself, so that threads without a scope skip the reflective lookup of
+     * the current scope, regardless of what other threads are doing. A thread
+     * that merely inherits a binding, e.g. a fork of a structured task scope,
+     * does not see the scope and uses its thread locals.
+     */
+    private static final class ScopedValues {
+
+        static final boolean SUPPORTED;
+        private static final Object UNBOUND = new Object();
+        private static final ThreadLocal<int[]> scopeDepth = new ThreadLocal<int[]>();
+        private static final Object scopedValue;
+        private static final Method where;
+        private static final Method run;
+        private static final Method orElse;
+
+        static {
+            Object value = null;
+            Method whereMethod = null;
+            Method runMethod = null;
+            Method orElseMethod = null;
+            boolean supported = false;
+            try {
+                final Class<?> scopedValueClass = Class.forName("java.lang.ScopedValue");
+                final Class<?> carrierClass = Class.forName("java.lang.ScopedValue$Carrier");
+                value = scopedValueClass.getMethod("newInstance").invoke(null);
+                whereMethod = scopedValueClass.getMethod("where", scopedValueClass, Object.class);
+                runMethod = carrierClass.getMethod("run", Runnable.class);
+                orElseMethod = scopedValueClass.getMethod("orElse", Object.class);
+                final Object[] bound = new Object[1];
+                final Object probe = value;
+                final Method probeOrElse = orElseMethod;
+                runMethod.invoke(whereMethod.invoke(null, value, Boolean.TRUE), new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            bound[0] = probeOrElse.invoke(probe, UNBOUND);
+                        } catch (Exception e) {
+                            bound[0] = null;
+                        }
+                    }
+                });
+                supported = Boolean.TRUE.equals(bound[0]) && orElseMethod.invoke(value, UNBOUND) == UNBOUND;
+            } catch (ClassNotFoundException e) {
+                // Scoped values are not available
+            } catch (Throwable e) {
+                // Scoped values are a disabled preview feature or otherwise unusable
+            }
+            SUPPORTED = supported;
+            scopedValue = value;
+            where = whereMethod;
+            run = runMethod;
+            orElse = orElseMethod;
+        }
+
+        static Scope getCurrentScope() {
+            if (scopeDepth.get() == null) {
+                return null;
+            }
+            final Object scope;
+            try {
+                scope = orElse.invoke(scopedValue, UNBOUND);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw rethrow(e);
+            }
+            return scope == UNBOUND ? null : (Scope) scope;
+        }
+
+        static void runInScope(Scope scope, Runnable task) {
+            int[] depth = scopeDepth.get();
+            if (depth == null) {
+                depth = new int[1];
+                scopeDepth.set(depth);
+            }
+            ++depth[0];
+            try {
+                run.invoke(where.invoke(null, scopedValue, scope), task);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw rethrow(e);
+            } finally {
+                if (--depth[0] == 0) {
+                    scopeDepth.remove();
+                }
+            }
+        }
+
+        private static RuntimeException rethrow(InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
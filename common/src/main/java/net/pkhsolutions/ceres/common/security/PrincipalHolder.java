@@ -26,6 +26,8 @@ import net.pkhsolutions.ceres.common.holder.Holder;
  */
 public class PrincipalHolder extends Holder<Principal> {
 
+    private static final StrategyReference<Principal> strategy = getStrategyReference(PrincipalHolder.class);
+
     private PrincipalHolder() {
     }
 
@@ -35,7 +37,7 @@ public class PrincipalHolder extends Holder<Principal> {
      * @return the principal, or null if not set.
      */
     public static Principal get() {
-        return getStrategy(PrincipalHolder.class).get();
+        return strategy.get().get();
     }
 
     /**
@@ -55,6 +57,6 @@ public class PrincipalHolder extends Holder<Principal> {
      * @param principal the principal to set, may be null.
      */
     public static void set(Principal principal) {
-        getStrategy(PrincipalHolder.class).set(principal);
+        strategy.get().set(principal);
     }
 }
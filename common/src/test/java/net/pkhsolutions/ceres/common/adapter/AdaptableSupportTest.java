@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.adapter;
+
+import java.io.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link AdaptableSupport}.
+ *
+ * @author Petter Holmström
+ */
+public class AdaptableSupportTest {
+
+    /**
+     * Adapter that is not serializable and is therefore left out when the
+     * adaptable is serialized.
+     */
+    public static class NonSerializableAdapter {
+    }
+
+    private static AdaptableSupport serializeAndDeserialize(AdaptableSupport adaptable) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(adaptable);
+        os.flush();
+        return (AdaptableSupport) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    }
+
+    @Test
+    public void serializableAdaptersSurviveSerialization() throws Exception {
+        AdaptableSupport adaptable = new AdaptableSupport();
+        adaptable.registerAdapter(String.class, "hello");
+        adaptable.registerAdapter(NonSerializableAdapter.class, new NonSerializableAdapter());
+
+        AdaptableSupport restored = serializeAndDeserialize(adaptable);
+
+        assertEquals("hello", restored.adapt(String.class));
+        assertFalse(restored.supportsAdapter(NonSerializableAdapter.class));
+    }
+
+    @Test
+    public void chainedAdaptersSurviveSerialization() throws Exception {
+        AdaptableSupport chained = new AdaptableSupport();
+        chained.registerAdapter(Integer.class, 42);
+        AdaptableSupport adaptable = new AdaptableSupport();
+        adaptable.chainAdapter(Integer.class, chained);
+
+        AdaptableSupport restored = serializeAndDeserialize(adaptable);
+
+        assertTrue(restored.supportsAdapter(Integer.class));
+        assertEquals(Integer.valueOf(42), restored.adapt(Integer.class));
+        assertFalse(restored.supportsAdapter(String.class));
+    }
+
+    @Test
+    public void adaptersCanBeRegisteredAfterDeserialization() throws Exception {
+        AdaptableSupport restored = serializeAndDeserialize(new AdaptableSupport());
+
+        restored.registerAdapter(String.class, "hello");
+
+        assertEquals("hello", restored.adapt(String.class));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.cloning;
+
+import java.util.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link CloneUtil} and {@link ClonePlan}.
+ *
+ * @author Petter Holmström
+ */
+public class CloneUtilTest {
+
+    public static class Base implements Cloneable {
+
+        @CloneThis
+        Date baseDate = new Date(1000L);
+        Date uncloned = new Date(2000L);
+
+        @Override
+        public Base clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((Base) super.clone());
+        }
+    }
+
+    public static class Sub extends Base {
+
+        @CloneThis(deepClone = true)
+        private final ArrayList<Date> deepList = new ArrayList<Date>();
+        @CloneThis
+        private final ArrayList<Date> shallowList = new ArrayList<Date>();
+        @CloneThis(deepClone = true)
+        HashMap<String, Date> deepMap = new HashMap<String, Date>();
+
+        @Override
+        public Sub clone() throws CloneNotSupportedException {
+            return (Sub) super.clone();
+        }
+    }
+
+    public static class ArrayHolder implements Cloneable {
+
+        @CloneThis(deepClone = true)
+        Date[] deepArray;
+        @CloneThis
+        Date[] shallowArray;
+        @CloneThis
+        int[] primitiveArray;
+
+        @Override
+        public ArrayHolder clone() throws CloneNotSupportedException {
+            return CloneUtil.deepClone((ArrayHolder) super.clone());
+        }
+    }
+
+    @Test
+    public void fieldsOfSuperclassesAreCloned() throws Exception {
+        final Sub original = new Sub();
+        final Sub clone = original.clone();
+
+        assertNotSame(original.baseDate, clone.baseDate);
+        assertEquals(original.baseDate, clone.baseDate);
+        assertSame(original.uncloned, clone.uncloned);
+    }
+
+    @Test
+    public void finalFieldsAreCloned() throws Exception {
+        final Sub original = new Sub();
+        original.deepList.add(new Date(3000L));
+        original.shallowList.add(new Date(4000L));
+
+        final Sub clone = original.clone();
+        clone.deepList.add(new Date(5000L));
+
+        assertNotSame(original.deepList, clone.deepList);
+        assertNotSame(original.shallowList, clone.shallowList);
+        assertEquals(1, original.deepList.size());
+        assertEquals(2, clone.deepList.size());
+    }
+
+    @Test
+    public void itemsAreOnlyClonedWhenDeepCloning() throws Exception {
+        final Sub original = new Sub();
+        original.deepList.add(new Date(3000L));
+        original.shallowList.add(new Date(4000L));
+        original.deepMap.put("date", new Date(5000L));
+
+        final Sub clone = original.clone();
+
+        assertNotSame(original.deepList.get(0), clone.deepList.get(0));
+        assertEquals(original.deepList.get(0), clone.deepList.get(0));
+        assertSame(original.shallowList.get(0), clone.shallowList.get(0));
+        assertNotSame(original.deepMap.get("date"), clone.deepMap.get("date"));
+        assertEquals(original.deepMap.get("date"), clone.deepMap.get("date"));
+    }
+
+    @Test
+    public void arraysAreCloned() throws Exception {
+        final ArrayHolder original = new ArrayHolder();
+        original.deepArray = new Date[]{new Date(1000L), null};
+        original.shallowArray = new Date[]{new Date(2000L)};
+        original.primitiveArray = new int[]{1, 2, 3};
+
+        final ArrayHolder clone = original.clone();
+
+        assertNotSame(original.deepArray, clone.deepArray);
+        assertNotSame(original.deepArray[0], clone.deepArray[0]);
+        assertEquals(original.deepArray[0], clone.deepArray[0]);
+        assertNull(clone.deepArray[1]);
+        assertNotSame(original.shallowArray, clone.shallowArray);
+        assertSame(original.shallowArray[0], clone.shallowArray[0]);
+        assertNotSame(original.primitiveArray, clone.primitiveArray);
+        assertArrayEquals(original.primitiveArray, clone.primitiveArray);
+    }
+
+    @Test
+    public void nullFieldsAndItemsAreLeftAlone() throws Exception {
+        final ArrayHolder arrays = new ArrayHolder().clone();
+        assertNull(arrays.deepArray);
+        assertNull(arrays.shallowArray);
+        assertNull(arrays.primitiveArray);
+
+        final Sub original = new Sub();
+        original.baseDate = null;
+        original.deepList.add(null);
+        original.deepMap = null;
+        final Sub clone = original.clone();
+        assertNull(clone.baseDate);
+        assertEquals(Collections.singletonList(null), clone.deepList);
+        assertNull(clone.deepMap);
+    }
+
+    @Test
+    public void nullValuesAreClonedToNull() throws Exception {
+        assertNull(CloneUtil.cloneObject(null));
+        assertNull(CloneUtil.cloneValue(null, true));
+    }
+
+    @Test(expected = CloneNotSupportedException.class)
+    public void valueWithoutPublicCloneMethodCannotBeCloned() throws Exception {
+        CloneUtil.cloneObject(new Object());
+    }
+
+    @Test
+    public void plansAreCachedPerClass() throws Exception {
+        final ClonePlan subPlan = ClonePlan.forClass(Sub.class);
+        final ClonePlan basePlan = ClonePlan.forClass(Base.class);
+
+        assertSame(subPlan, ClonePlan.forClass(Sub.class));
+        assertNotSame(subPlan, basePlan);
+        assertSame(basePlan, ClonePlan.forClass(Base.class));
+    }
+
+    @Test
+    public void plansSurviveGrowingCache() throws Exception {
+        final ClonePlan plan = ClonePlan.forClass(Sub.class);
+        final Class<?>[] otherClasses = {String.class, Integer.class, Long.class, Short.class, Byte.class,
+            Double.class, Float.class, Character.class, Boolean.class, Date.class, ArrayList.class,
+            LinkedList.class, HashMap.class, TreeMap.class, HashSet.class, TreeSet.class,
+            LinkedHashMap.class, LinkedHashSet.class, ArrayDeque.class, PriorityQueue.class,
+            Vector.class, Stack.class, Hashtable.class, IdentityHashMap.class, WeakHashMap.class,
+            BitSet.class, Locale.class, UUID.class, Random.class, StringBuilder.class, Object.class,
+            ArrayHolder.class, Base.class};
+        final Map<Class<?>, ClonePlan> otherPlans = new HashMap<Class<?>, ClonePlan>();
+        for (Class<?> otherClass : otherClasses) {
+            otherPlans.put(otherClass, ClonePlan.forClass(otherClass));
+        }
+
+        assertSame(plan, ClonePlan.forClass(Sub.class));
+        for (Class<?> otherClass : otherClasses) {
+            assertSame(otherPlans.get(otherClass), ClonePlan.forClass(otherClass));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.holder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link GlobalHolderStrategy}.
+ *
+ * @author Petter Holmström
+ */
+public class GlobalHolderStrategyTest {
+
+    @Test
+    public void objectSetInOneThreadIsSeenByAnother() throws Exception {
+        final GlobalHolderStrategy<String> strategy = new GlobalHolderStrategy<String>();
+        final CountDownLatch readerStarted = new CountDownLatch(1);
+        final AtomicReference<String> seen = new AtomicReference<String>();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readerStarted.countDown();
+                String object;
+                // Spins on the field itself, so a non-volatile field could be
+                // hoisted out of the loop and the object never seen
+                while ((object = strategy.get()) == null) {
+                }
+                seen.set(object);
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        assertTrue(readerStarted.await(10, TimeUnit.SECONDS));
+
+        strategy.set("global");
+
+        reader.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse("Reader never saw the object", reader.isAlive());
+        assertEquals("global", seen.get());
+    }
+
+    @Test
+    public void objectIsSharedByAllThreads() throws Exception {
+        final GlobalHolderStrategy<String> strategy = new GlobalHolderStrategy<String>();
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                strategy.set("written");
+            }
+        });
+        writer.start();
+        writer.join();
+        assertEquals("written", strategy.get());
+
+        strategy.set(null);
+        assertNull(strategy.get());
+    }
+}
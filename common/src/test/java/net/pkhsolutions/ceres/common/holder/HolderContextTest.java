@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.holder;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link HolderContext} and {@link ContextHolderStrategy}.
+ *
+ * @author Petter Holmström
+ */
+public class HolderContextTest {
+
+    /**
+     * Holder used by the tests only, so that the strategies of the real
+     * holders are left alone.
+     */
+    public static final class TestHolder extends Holder<String> {
+    }
+
+    private ContextHolderStrategy<String> strategy;
+
+    @Before
+    public void setUp() {
+        strategy = new ContextHolderStrategy<String>();
+        Holder.setStrategy(TestHolder.class, strategy);
+    }
+
+    @After
+    public void tearDown() {
+        strategy.set(null);
+        Holder.setStrategy(TestHolder.class, null);
+    }
+
+    private static void runInNewThread(Runnable task) throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread thread = new Thread(task);
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure.get() instanceof Error) {
+            throw (Error) failure.get();
+        } else if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test
+    public void capturedObjectsAreInstalledAndPreviousObjectsRestored() throws Exception {
+        strategy.set("publisher");
+        final HolderContext context = HolderContext.capture();
+        assertFalse(context.isEmpty());
+        runInNewThread(new Runnable() {
+            @Override
+            public void run() {
+                strategy.set("worker");
+                context.run(new Runnable() {
+                    @Override
+                    public void run() {
+                        assertEquals("publisher", strategy.get());
+                    }
+                });
+                assertEquals("worker", strategy.get());
+            }
+        });
+        assertEquals("publisher", strategy.get());
+    }
+
+    @Test
+    public void objectsSetByTaskAreDiscarded() {
+        strategy.set("publisher");
+        final HolderContext context = HolderContext.capture();
+        strategy.set("caller");
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                assertEquals("publisher", strategy.get());
+                strategy.set("changed");
+                assertEquals("changed", strategy.get());
+            }
+        };
+        context.run(task);
+        assertEquals("caller", strategy.get());
+        // The context itself is immutable
+        context.run(task);
+        assertEquals("caller", strategy.get());
+    }
+
+    @Test
+    public void objectsAreRestoredWhenTaskFails() {
+        strategy.set("publisher");
+        final HolderContext context = HolderContext.capture();
+        strategy.set("caller");
+        try {
+            context.run(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail("Exception was not propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals("caller", strategy.get());
+    }
+
+    @Test
+    public void callReturnsResultOfTask() throws Exception {
+        strategy.set("publisher");
+        final HolderContext context = HolderContext.capture();
+        strategy.set(null);
+        assertEquals("publisher", context.call(new Callable<String>() {
+            @Override
+            public String call() {
+                return strategy.get();
+            }
+        }));
+        assertNull(strategy.get());
+    }
+
+    @Test
+    public void callPropagatesCheckedException() throws Exception {
+        strategy.set("publisher");
+        final IOException failure = new IOException("failed");
+        final Callable<String> task = HolderContext.capture().wrap(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw failure;
+            }
+        });
+        try {
+            task.call();
+            fail("Exception was not propagated");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertEquals("publisher", strategy.get());
+    }
+
+    @Test
+    public void wrappedExecutorCapturesContextOfSubmittingThread() throws Exception {
+        final AtomicReference<String> seen = new AtomicReference<String>();
+        final Executor executor = HolderContext.wrapExecutor(new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                try {
+                    runInNewThread(task);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                seen.set(strategy.get());
+            }
+        };
+        strategy.set("first");
+        executor.execute(task);
+        assertEquals("first", seen.get());
+        strategy.set("second");
+        executor.execute(task);
+        assertEquals("second", seen.get());
+    }
+
+    @Test
+    public void strategiesNotInContextUseThreadLocals() {
+        strategy.set("publisher");
+        final HolderContext context = HolderContext.capture();
+        final ContextHolderStrategy<String> lateStrategy = new ContextHolderStrategy<String>();
+        lateStrategy.set("caller");
+        context.run(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals("caller", lateStrategy.get());
+                lateStrategy.set("changed");
+            }
+        });
+        // Not captured, so the object set by the task stays in the thread
+        assertEquals("changed", lateStrategy.get());
+        lateStrategy.set(null);
+    }
+
+    @Test
+    public void threadLocalsAreUsedWithoutScopedValues() {
+        strategy.set("publisher");
+        final HolderContext context = HolderContext.capture();
+        strategy.set("caller");
+        context.run(new Runnable() {
+            @Override
+            public void run() {
+                if (HolderContext.isUsingScopedValues()) {
+                    assertEquals("caller", strategy.getThreadLocal());
+                    assertNotNull(HolderContext.getCurrentScope());
+                } else {
+                    assertEquals("publisher", strategy.getThreadLocal());
+                    assertNull(HolderContext.getCurrentScope());
+                }
+            }
+        });
+        assertEquals("caller", strategy.getThreadLocal());
+        assertNull(HolderContext.getCurrentScope());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.common.holder;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link Holder}.
+ *
+ * @author Petter Holmström
+ */
+public class HolderTest {
+
+    /**
+     * Holder used by the tests only, so that the strategies of the real
+     * holders are left alone.
+     */
+    public static final class TestHolder extends Holder<String> {
+    }
+
+    @After
+    public void tearDown() {
+        Holder.setStrategy(TestHolder.class, null);
+    }
+
+    @Test
+    public void sameReferenceIsReturnedForSameHolderClass() {
+        assertSame(Holder.getStrategyReference(TestHolder.class), Holder.getStrategyReference(TestHolder.class));
+    }
+
+    @Test
+    public void concurrentlyCreatedDefaultStrategyIsShared() throws Exception {
+        final int threadCount = 8;
+        for (int round = 0; round < 50; ++round) {
+            final Holder.StrategyReference<String> reference = new Holder.StrategyReference<String>();
+            final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+            final AtomicReferenceArray<HolderStrategy<String>> strategies = new AtomicReferenceArray<HolderStrategy<String>>(threadCount);
+            final Thread[] threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; ++i) {
+                final int index = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            barrier.await();
+                        } catch (Exception e) {
+                            return;
+                        }
+                        strategies.set(index, reference.get());
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            final HolderStrategy<String> winner = reference.getIfSet();
+            assertTrue(winner instanceof ThreadLocalHolderStrategy);
+            for (int i = 0; i < threadCount; ++i) {
+                assertSame(winner, strategies.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void nullStrategyFallsBackToDefault() {
+        final GlobalHolderStrategy<String> globalStrategy = new GlobalHolderStrategy<String>();
+        Holder.setStrategy(TestHolder.class, globalStrategy);
+        assertSame(globalStrategy, Holder.getStrategy(TestHolder.class));
+
+        Holder.setStrategy(TestHolder.class, null);
+
+        final HolderStrategy<String> defaultStrategy = Holder.getStrategy(TestHolder.class);
+        assertTrue(defaultStrategy instanceof ThreadLocalHolderStrategy);
+        assertSame(defaultStrategy, Holder.getStrategy(TestHolder.class));
+    }
+}
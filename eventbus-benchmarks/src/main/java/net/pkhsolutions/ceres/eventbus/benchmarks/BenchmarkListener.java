@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerMethod;
+
+/**
+ * Event listener used by the benchmarks. It listens to all events, to
+ * {@link Payloads.BasePayload}s and to {@link Payloads.LeafPayload}s, and
+ * counts the number of events it has been notified of. The payload values are
+ * accumulated in a field so that the JIT cannot eliminate the listener methods. The counter may be
+ * shared between several listeners.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class BenchmarkListener {
+
+    private final AtomicLong deliveredEvents;
+    private long checksum;
+
+    /**
+     * Creates a new
+     * <code>BenchmarkListener</code>.
+     *
+     * @param deliveredEvents the counter to increment once per notified event,
+     * must not be null.
+     */
+    public BenchmarkListener(AtomicLong deliveredEvents) {
+        this.deliveredEvents = deliveredEvents;
+    }
+
+    @EventListenerMethod
+    public void allEvents(Event<Object> event) {
+        deliveredEvents.incrementAndGet();
+    }
+
+    @EventListenerMethod
+    public void baseEvents(Event<Payloads.BasePayload> event) {
+        checksum += event.getPayload().getValue();
+    }
+
+    @EventListenerMethod
+    public void leafEvents(Event<Payloads.LeafPayload> event) {
+        checksum -= event.getPayload().getValue();
+    }
+}
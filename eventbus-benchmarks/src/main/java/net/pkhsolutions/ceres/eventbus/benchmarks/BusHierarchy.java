@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.EventScope;
+
+/**
+ * A chain of event buses where every bus is the parent of the next one, with
+ * the same number of {@link BenchmarkListener}s registered on each bus. Events
+ * are published on the last bus of the chain, so that GLOBAL events travel
+ * through all the parent buses.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+final class BusHierarchy {
+
+    private final List<EventBus> eventBuses = new ArrayList<EventBus>();
+    /**
+     * Strong references to the listeners, as the event buses only keep weak
+     * ones.
+     */
+    private final List<BenchmarkListener> listeners = new ArrayList<BenchmarkListener>();
+    private final AtomicLong deliveredEvents = new AtomicLong();
+    private final int listenerCount;
+
+    /**
+     * Creates a new
+     * <code>BusHierarchy</code>.
+     *
+     * @param busType the type of the event buses, must not be null.
+     * @param depth the number of parent buses above the publishing bus.
+     * @param listenerCount the number of listeners to register on every bus.
+     */
+    BusHierarchy(BusType busType, int depth, int listenerCount) {
+        this.listenerCount = listenerCount;
+        EventBus parentBus = null;
+        for (int i = 0; i <= depth; ++i) {
+            final EventBus eventBus = busType.createEventBus();
+            eventBus.setParentBus(parentBus);
+            for (int j = 0; j < listenerCount; ++j) {
+                final BenchmarkListener listener = new BenchmarkListener(deliveredEvents);
+                listeners.add(listener);
+                eventBus.registerEventListener(listener);
+            }
+            eventBuses.add(eventBus);
+            parentBus = eventBus;
+        }
+    }
+
+    /**
+     * Gets the bus on which events are published, i.e. the last bus of the
+     * chain.
+     */
+    EventBus getPublishingBus() {
+        return eventBuses.get(eventBuses.size() - 1);
+    }
+
+    /**
+     * Gets the number of listener notifications a single event published with
+     * the specified scope results in.
+     */
+    long getDeliveriesPerEvent(EventScope scope) {
+        return scope == EventScope.GLOBAL ? (long) listenerCount * eventBuses.size() : listenerCount;
+    }
+
+    /**
+     * Gets the total number of listener notifications so far.
+     */
+    AtomicLong getDeliveredEvents() {
+        return deliveredEvents;
+    }
+
+    /**
+     * Shuts down all asynchronous event buses of the chain.
+     *
+     * @throws InterruptedException if interrupted while waiting for pending
+     * deliveries.
+     */
+    void shutdown() throws InterruptedException {
+        for (EventBus eventBus : eventBuses) {
+            BusType.shutdown(eventBus);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.eventbus.AsynchronousEventBus;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.SynchronousEventBus;
+
+/**
+ * Enumeration of the event bus implementations that are benchmarked.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public enum BusType {
+
+    SYNCHRONOUS {
+
+        @Override
+        EventBus createEventBus() {
+            return new SynchronousEventBus();
+        }
+    },
+    ASYNCHRONOUS {
+
+        @Override
+        EventBus createEventBus() {
+            return new AsynchronousEventBus();
+        }
+    },
+    ASYNCHRONOUS_ORDERED {
+
+        @Override
+        EventBus createEventBus() {
+            return new AsynchronousEventBus(AsynchronousEventBus.DeliveryOrder.ORDERED_PER_LISTENER);
+        }
+    };
+
+    /**
+     * Creates a new event bus of this type.
+     *
+     * @return the event bus, never null.
+     */
+    abstract EventBus createEventBus();
+
+    /**
+     * Shuts down the specified event bus if it is asynchronous, waiting for
+     * all pending deliveries to complete.
+     *
+     * @param eventBus the event bus to shut down, must not be null.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    static void shutdown(EventBus eventBus) throws InterruptedException {
+        if (eventBus instanceof AsynchronousEventBus) {
+            final AsynchronousEventBus asynchronousEventBus = (AsynchronousEventBus) eventBus;
+            asynchronousEventBus.shutdown();
+            asynchronousEventBus.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.EventScope;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the publishing throughput when several threads publish events on
+ * the same event bus at the same time. The number of threads defaults to four
+ * and can be changed with the {@code -t} option of the benchmark runner.
+ *
+ * @see PublishBenchmark
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ContendedPublishBenchmark {
+
+    @Param({"SYNCHRONOUS", "ASYNCHRONOUS", "ASYNCHRONOUS_ORDERED"})
+    public BusType busType;
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+    @Param({"LOCAL", "GLOBAL"})
+    public EventScope scope;
+    private BusHierarchy hierarchy;
+    private EventBus publishingBus;
+    private Object payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hierarchy = new BusHierarchy(busType, 1, listenerCount);
+        publishingBus = hierarchy.getPublishingBus();
+        payload = Payloads.PayloadType.LEAF.createPayload(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        hierarchy.shutdown();
+    }
+
+    @Benchmark
+    public void publishEvent() {
+        publishingBus.publishEvent(payload, scope);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.EventScope;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the time from publishing an event until every listener that should
+ * receive it has been notified, including the listeners of the parent buses
+ * for GLOBAL events. Only one event is in flight at a time, so the results show
+ * the latency of an otherwise idle bus.
+ *
+ * @see PublishBenchmark
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DeliveryLatencyBenchmark {
+
+    @Param({"SYNCHRONOUS", "ASYNCHRONOUS", "ASYNCHRONOUS_ORDERED"})
+    public BusType busType;
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+    @Param({"LOCAL", "GLOBAL"})
+    public EventScope scope;
+    @Param({"0", "3"})
+    public int depth;
+    private BusHierarchy hierarchy;
+    private EventBus publishingBus;
+    private AtomicLong deliveredEvents;
+    private long deliveriesPerEvent;
+    private Object payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hierarchy = new BusHierarchy(busType, depth, listenerCount);
+        publishingBus = hierarchy.getPublishingBus();
+        deliveredEvents = hierarchy.getDeliveredEvents();
+        deliveriesPerEvent = hierarchy.getDeliveriesPerEvent(scope);
+        payload = Payloads.PayloadType.LEAF.createPayload(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        hierarchy.shutdown();
+    }
+
+    @Benchmark
+    public void publishAndAwaitDelivery() {
+        final long expected = deliveredEvents.get() + deliveriesPerEvent;
+        publishingBus.publishEvent(payload, scope);
+        while (deliveredEvents.get() < expected) {
+            Thread.yield();
+        }
+    }
+}
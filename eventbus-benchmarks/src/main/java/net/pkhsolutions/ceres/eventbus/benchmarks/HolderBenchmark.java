@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.common.holder.GlobalHolderStrategy;
+import net.pkhsolutions.ceres.common.holder.Holder;
+import net.pkhsolutions.ceres.common.holder.HolderStrategy;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.EventBusHolder;
+import net.pkhsolutions.ceres.eventbus.SynchronousEventBus;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the throughput of {@link EventBusHolder#getEventBus()} when the
+ * holder uses a global strategy, read by a single thread, by 64 threads, and
+ * by 63 threads while one thread keeps replacing the event bus. The current
+ * {@link GlobalHolderStrategy} is compared with the previous implementation,
+ * which synchronized both reads and writes.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class HolderBenchmark {
+
+    public enum StrategyType {
+
+        SYNCHRONIZED {
+            @Override
+            HolderStrategy<EventBus> createStrategy() {
+                return new SynchronizedHolderStrategy<EventBus>();
+            }
+        },
+        VOLATILE {
+            @Override
+            HolderStrategy<EventBus> createStrategy() {
+                return new GlobalHolderStrategy<EventBus>();
+            }
+        };
+
+        abstract HolderStrategy<EventBus> createStrategy();
+    }
+
+    /**
+     * The global holder strategy as it was before it became lock free.
+     */
+    static class SynchronizedHolderStrategy<T> implements HolderStrategy<T> {
+
+        private T object;
+
+        @Override
+        public synchronized T get() {
+            return object;
+        }
+
+        @Override
+        public synchronized void set(T object) {
+            this.object = object;
+        }
+    }
+
+    @Param({"SYNCHRONIZED", "VOLATILE"})
+    public StrategyType strategyType;
+    private EventBus[] eventBuses;
+    private int nextEventBus;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventBuses = new EventBus[]{new SynchronousEventBus(), new SynchronousEventBus()};
+        Holder.setStrategy(EventBusHolder.class, strategyType.createStrategy());
+        EventBusHolder.setEventBus(eventBuses[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        EventBusHolder.setEventBus(null);
+        Holder.setStrategy(EventBusHolder.class, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public EventBus uncontendedRead() {
+        return EventBusHolder.getEventBus();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public EventBus contendedRead() {
+        return EventBusHolder.getEventBus();
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(63)
+    public EventBus readWhileWriting() {
+        return EventBusHolder.getEventBus();
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public void write() {
+        nextEventBus = (nextEventBus + 1) % eventBuses.length;
+        EventBusHolder.setEventBus(eventBuses[nextEventBus]);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+/**
+ * Payload types used by the benchmarks. The types form a small hierarchy so
+ * that the cost of matching listener methods against super types can be
+ * measured.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Enumeration of the payload types a benchmark can publish.
+     */
+    public enum PayloadType {
+
+        /**
+         * Publish {@link BasePayload}s, which are accepted by two of the three
+         * methods of a {@link BenchmarkListener}.
+         */
+        BASE {
+
+            @Override
+            Object createPayload(int value) {
+                return new BasePayload(value);
+            }
+        },
+        /**
+         * Publish {@link LeafPayload}s, which are accepted by all methods of a
+         * {@link BenchmarkListener}.
+         */
+        LEAF {
+
+            @Override
+            Object createPayload(int value) {
+                return new LeafPayload(value);
+            }
+        };
+
+        abstract Object createPayload(int value);
+    }
+
+    public static class BasePayload {
+
+        private final int value;
+
+        public BasePayload(int value) {
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    public static class MiddlePayload extends BasePayload {
+
+        public MiddlePayload(int value) {
+            super(value);
+        }
+    }
+
+    public static class LeafPayload extends MiddlePayload {
+
+        public LeafPayload(int value) {
+            super(value);
+        }
+    }
+}
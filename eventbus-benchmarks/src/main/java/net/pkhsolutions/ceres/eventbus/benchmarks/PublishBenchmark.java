@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.EventScope;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how many events a single thread can publish per second. For the
+ * asynchronous event buses, this is the cost of handing the events over to the
+ * executor; once the work queue is full, the publishing thread also notifies
+ * listeners itself, so the steady state reflects the delivery throughput. <p>
+ * Build the module with {@code mvn package} and run the benchmarks with
+ * {@code java -jar eventbus-benchmarks/target/benchmarks.jar}. Use
+ * {@code -p name=value} to restrict the parameters and {@code -t} to change the
+ * number of threads of {@link ContendedPublishBenchmark}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+    @Param({"SYNCHRONOUS", "ASYNCHRONOUS", "ASYNCHRONOUS_ORDERED"})
+    public BusType busType;
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+    @Param({"BASE", "LEAF"})
+    public Payloads.PayloadType payloadType;
+    @Param({"LOCAL", "GLOBAL"})
+    public EventScope scope;
+    @Param({"0", "1", "3"})
+    public int depth;
+    private BusHierarchy hierarchy;
+    private EventBus publishingBus;
+    private Object payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hierarchy = new BusHierarchy(busType, depth, listenerCount);
+        publishingBus = hierarchy.getPublishingBus();
+        payload = payloadType.createPayload(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        hierarchy.shutdown();
+    }
+
+    @Benchmark
+    public void publishEvent() {
+        publishingBus.publishEvent(payload, scope);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerMethod;
+import net.pkhsolutions.ceres.eventbus.EventScope;
+import net.pkhsolutions.ceres.eventbus.Routable;
+import net.pkhsolutions.ceres.eventbus.SynchronousEventBus;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost of publishing an event that concerns a single aggregate
+ * when every listener is interested in a different aggregate. With
+ * {@link Subscription#FILTERED}, every listener receives the event and
+ * compares the aggregate id itself. With {@link Subscription#ROUTED}, the
+ * listeners are registered with the aggregate id as routing key and only the
+ * matching listener is notified.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+
+    /**
+     * The ways a listener can subscribe to the events of one aggregate.
+     */
+    public enum Subscription {
+
+        FILTERED, ROUTED
+    }
+
+    /**
+     * Payload that is routed by the id of the changed aggregate.
+     */
+    public static final class AggregateChanged implements Routable {
+
+        private final String aggregateId;
+
+        public AggregateChanged(String aggregateId) {
+            this.aggregateId = aggregateId;
+        }
+
+        public String getAggregateId() {
+            return aggregateId;
+        }
+
+        @Override
+        public String getRoutingKey() {
+            return aggregateId;
+        }
+    }
+
+    /**
+     * Listener that is interested in the changes of one aggregate.
+     */
+    public static final class AggregateListener {
+
+        private final String aggregateId;
+        private long changes;
+
+        public AggregateListener(String aggregateId) {
+            this.aggregateId = aggregateId;
+        }
+
+        @EventListenerMethod
+        public void aggregateChanged(Event<AggregateChanged> event) {
+            if (aggregateId.equals(event.getPayload().getAggregateId())) {
+                ++changes;
+            }
+        }
+    }
+    @Param({"FILTERED", "ROUTED"})
+    public Subscription subscription;
+    @Param({"10", "1000", "10000"})
+    public int listenerCount;
+    private final List<AggregateListener> listeners = new ArrayList<AggregateListener>();
+    private SynchronousEventBus eventBus;
+    private AggregateChanged[] payloads;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventBus = new SynchronousEventBus();
+        payloads = new AggregateChanged[listenerCount];
+        for (int i = 0; i < listenerCount; ++i) {
+            final String aggregateId = "aggregate-" + i;
+            final AggregateListener listener = new AggregateListener(aggregateId);
+            listeners.add(listener);
+            if (subscription == Subscription.ROUTED) {
+                eventBus.registerEventListener(listener, aggregateId);
+            } else {
+                eventBus.registerEventListener(listener);
+            }
+            payloads[i] = new AggregateChanged(aggregateId);
+        }
+    }
+
+    @Benchmark
+    public void publishEvent() {
+        eventBus.publishEvent(payloads[next], EventScope.LOCAL);
+        next = (next + 1) % payloads.length;
+    }
+}
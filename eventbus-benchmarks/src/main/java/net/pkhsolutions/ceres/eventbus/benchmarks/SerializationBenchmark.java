@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.benchmarks;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.common.adapter.AdaptableSupport;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerMethod;
+import net.pkhsolutions.ceres.eventbus.SerializableEventBus;
+import net.pkhsolutions.ceres.i18n.DefaultI18N;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the cost of serializing and deserializing the objects that are
+ * typically stored in a web session: a {@link SerializableEventBus} with
+ * serializable listeners, an {@link AdaptableSupport} with adapters and a
+ * {@link DefaultI18N}. The serialized size of the objects is printed when the
+ * trial starts, as JMH only reports times.
+ *
+ * @see PublishBenchmark
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    /**
+     * Enumeration of the objects to serialize.
+     */
+    public enum SessionObject {
+
+        EVENT_BUS {
+
+            @Override
+            Serializable create(int size) {
+                final SerializableEventBus eventBus = SerializableEventBus.createSynchronousSerializableEventBus();
+                for (int i = 0; i < size; ++i) {
+                    eventBus.registerEventListener(new SerializableListener());
+                }
+                return eventBus;
+            }
+        },
+        ADAPTABLE_SUPPORT {
+
+            @Override
+            Serializable create(int size) {
+                final AdaptableSupport adaptableSupport = new AdaptableSupport();
+                for (int i = 0; i < size; ++i) {
+                    adaptableSupport.registerAdapter(ADAPTER_CLASSES[i % ADAPTER_CLASSES.length], new SerializableListener());
+                }
+                return adaptableSupport;
+            }
+        },
+        I18N {
+
+            @Override
+            Serializable create(int size) {
+                return new DefaultI18N(Arrays.asList(Arrays.copyOf(Locale.getAvailableLocales(), size)));
+            }
+        };
+
+        abstract Serializable create(int size);
+    }
+    private static final Class[] ADAPTER_CLASSES = {Serializable.class, Object.class, Cloneable.class, SerializableListener.class};
+
+    /**
+     * Serializable listener, also used as an adapter.
+     */
+    public static class SerializableListener implements Serializable, Cloneable {
+
+        private static final long serialVersionUID = 1L;
+        private int count;
+
+        @EventListenerMethod
+        public void allEvents(Event<Object> event) {
+            ++count;
+        }
+    }
+    @Param({"EVENT_BUS", "ADAPTABLE_SUPPORT", "I18N"})
+    public SessionObject sessionObject;
+    @Param({"1", "4"})
+    public int size;
+    private Serializable object;
+    private byte[] serializedObject;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        object = sessionObject.create(size);
+        serializedObject = serialize();
+        System.out.println(sessionObject + " with size " + size + " is serialized into " + serializedObject.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        final ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(object);
+        os.close();
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(serializedObject)).readObject();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerMethod;
+
+/**
+ * Example listener for which event listener invokers are generated.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ExampleListener {
+
+    final List<Object> stringPayloads = new ArrayList<Object>();
+    final List<Object> allPayloads = new ArrayList<Object>();
+    final List<Object> privatePayloads = new ArrayList<Object>();
+    final List<Object> overloadedStringPayloads = new ArrayList<Object>();
+    final List<Object> overloadedLongPayloads = new ArrayList<Object>();
+
+    @EventListenerMethod
+    void stringEventsOnly(Event<String> event) {
+        stringPayloads.add(event.getPayload());
+    }
+
+    @EventListenerMethod
+    protected void allEvents(Event<Object> event) {
+        allPayloads.add(event.getPayload());
+    }
+
+    @EventListenerMethod
+    private void privateIntegerEvents(Event<Integer> event) {
+        privatePayloads.add(event.getPayload());
+    }
+
+    @EventListenerMethod
+    void overloaded(Event<String> event) {
+        overloadedStringPayloads.add(event.getPayload());
+    }
+
+    @EventListenerMethod
+    void overloaded(List<Event<Long>> events) {
+        for (Event<Long> event : events) {
+            overloadedLongPayloads.add(event.getPayload());
+        }
+    }
+
+    /**
+     * Example of a nested listener type.
+     */
+    public static class Nested {
+
+        final List<Object> payloads = new ArrayList<Object>();
+
+        @EventListenerMethod
+        public void integerEventsOnly(Event<Integer> event) {
+            payloads.add(event.getPayload());
+        }
+    }
+}
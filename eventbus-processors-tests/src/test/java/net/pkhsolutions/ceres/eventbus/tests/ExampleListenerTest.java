@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.tests;
+
+import java.util.Arrays;
+import net.pkhsolutions.ceres.eventbus.EventBus;
+import net.pkhsolutions.ceres.eventbus.EventScope;
+import net.pkhsolutions.ceres.eventbus.SynchronousEventBus;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test cases for the auto-generated event listener invokers.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ExampleListenerTest {
+
+    @Test
+    public void invokersAreGeneratedForNonPrivateMethods() {
+        ExampleListenerEventListenerInvokers invokers = new ExampleListenerEventListenerInvokers();
+        assertNotNull(invokers.getInvoker("stringEventsOnly(java.lang.String)"));
+        assertNotNull(invokers.getInvoker("allEvents(java.lang.Object)"));
+        assertNull(invokers.getInvoker("privateIntegerEvents(java.lang.Integer)"));
+    }
+
+    @Test
+    public void invokersAreGeneratedForNestedTypes() {
+        assertNotNull(new ExampleListener_NestedEventListenerInvokers().getInvoker("integerEventsOnly(java.lang.Integer)"));
+    }
+
+    @Test
+    public void overloadedMethodsGetInvokersOfTheirOwn() {
+        ExampleListenerEventListenerInvokers invokers = new ExampleListenerEventListenerInvokers();
+        assertNotNull(invokers.getInvoker("overloaded(java.lang.String)"));
+        // The batch overload is always invoked using reflection
+        assertNull(invokers.getInvoker("overloaded(java.lang.Long)"));
+        assertNull(invokers.getInvoker("overloaded"));
+    }
+
+    @Test
+    public void eventsAreDeliveredToOverloadedMethods() {
+        EventBus eventBus = new SynchronousEventBus();
+        ExampleListener listener = new ExampleListener();
+        eventBus.registerEventListener(listener);
+
+        eventBus.publishEvent("hello", EventScope.LOCAL);
+        eventBus.publishEvent(456L, EventScope.LOCAL);
+
+        assertEquals(Arrays.<Object>asList("hello"), listener.overloadedStringPayloads);
+        assertEquals(Arrays.<Object>asList(456L), listener.overloadedLongPayloads);
+    }
+
+    @Test
+    public void eventsAreDeliveredToGeneratedAndReflectiveMethods() {
+        EventBus eventBus = new SynchronousEventBus();
+        ExampleListener listener = new ExampleListener();
+        ExampleListener.Nested nestedListener = new ExampleListener.Nested();
+        eventBus.registerEventListener(listener);
+        eventBus.registerEventListener(nestedListener);
+
+        eventBus.publishEvent("hello", EventScope.LOCAL);
+        eventBus.publishEvent(123, EventScope.LOCAL);
+
+        assertEquals(Arrays.<Object>asList("hello"), listener.stringPayloads);
+        assertEquals(Arrays.<Object>asList("hello", 123), listener.allPayloads);
+        assertEquals(Arrays.<Object>asList(123), listener.privatePayloads);
+        assertEquals(Arrays.<Object>asList(123), nestedListener.payloads);
+    }
+}
@@ -0,0 +1,57 @@
+package net.pkhsolutions.ceres.eventbus.tests;
+
+import javax.annotation.Generated;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerInvoker;
+import net.pkhsolutions.ceres.eventbus.EventListenerInvokerProvider;
+
+/**
+ * Auto-generated event listener invokers for {@link net.pkhsolutions.ceres.eventbus.tests.ExampleListener}.
+ */
+@Generated(value = "net.pkhsolutions.ceres.eventbus.processor.EventListenerMethodAP", date = "2026-10-17T18:49:09+0000")
+public final class ExampleListenerEventListenerInvokers implements EventListenerInvokerProvider {
+
+    private static final EventListenerInvoker stringEventsOnlyInvoker0 = new EventListenerInvoker() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Object listener, Event<?> event) throws Exception {
+            ((net.pkhsolutions.ceres.eventbus.tests.ExampleListener) listener).stringEventsOnly((net.pkhsolutions.ceres.eventbus.Event<java.lang.String>) event);
+        }
+    };
+
+    private static final EventListenerInvoker allEventsInvoker1 = new EventListenerInvoker() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Object listener, Event<?> event) throws Exception {
+            ((net.pkhsolutions.ceres.eventbus.tests.ExampleListener) listener).allEvents((net.pkhsolutions.ceres.eventbus.Event<java.lang.Object>) event);
+        }
+    };
+
+    private static final EventListenerInvoker overloadedInvoker2 = new EventListenerInvoker() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Object listener, Event<?> event) throws Exception {
+            ((net.pkhsolutions.ceres.eventbus.tests.ExampleListener) listener).overloaded((net.pkhsolutions.ceres.eventbus.Event<java.lang.String>) event);
+        }
+    };
+
+    public ExampleListenerEventListenerInvokers() {
+    }
+
+    @Override
+    public EventListenerInvoker getInvoker(String methodKey) {
+        if ("stringEventsOnly(java.lang.String)".equals(methodKey)) {
+            return stringEventsOnlyInvoker0;
+        }
+        if ("allEvents(java.lang.Object)".equals(methodKey)) {
+            return allEventsInvoker1;
+        }
+        if ("overloaded(java.lang.String)".equals(methodKey)) {
+            return overloadedInvoker2;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,33 @@
+package net.pkhsolutions.ceres.eventbus.tests;
+
+import javax.annotation.Generated;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerInvoker;
+import net.pkhsolutions.ceres.eventbus.EventListenerInvokerProvider;
+
+/**
+ * Auto-generated event listener invokers for {@link net.pkhsolutions.ceres.eventbus.tests.ExampleListener.Nested}.
+ */
+@Generated(value = "net.pkhsolutions.ceres.eventbus.processor.EventListenerMethodAP", date = "2026-10-17T18:49:09+0000")
+public final class ExampleListener_NestedEventListenerInvokers implements EventListenerInvokerProvider {
+
+    private static final EventListenerInvoker integerEventsOnlyInvoker0 = new EventListenerInvoker() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Object listener, Event<?> event) throws Exception {
+            ((net.pkhsolutions.ceres.eventbus.tests.ExampleListener.Nested) listener).integerEventsOnly((net.pkhsolutions.ceres.eventbus.Event<java.lang.Integer>) event);
+        }
+    };
+
+    public ExampleListener_NestedEventListenerInvokers() {
+    }
+
+    @Override
+    public EventListenerInvoker getInvoker(String methodKey) {
+        if ("integerEventsOnly(java.lang.Integer)".equals(methodKey)) {
+            return integerEventsOnlyInvoker0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import net.pkhsolutions.ceres.eventbus.Event;
+import net.pkhsolutions.ceres.eventbus.EventListenerInvokerProvider;
+import net.pkhsolutions.ceres.eventbus.EventListenerMethod;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+
+/**
+ * This is an annotation processor that generates
+ * {@link EventListenerInvokerProvider}s for types that declare methods
+ * annotated with {@link EventListenerMethod}. Private methods and methods
+ * declared by types that cannot be accessed from their own package are
+ * skipped, as the event bus can only invoke them using reflection. Clients
+ * should never use this class directly.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+@SupportedAnnotationTypes("net.pkhsolutions.ceres.eventbus.EventListenerMethod")
+@SupportedSourceVersion(SourceVersion.RELEASE_6)
+public final class EventListenerMethodAP extends AbstractProcessor {
+
+    private VelocityEngine velocityEngine;
+    private Template invokersTemplate;
+
+    /**
+     * Constructs a new
+     * <code>EventListenerMethodAP</code>. Clients should never need to create
+     * instances of this class.
+     */
+    public EventListenerMethodAP() {
+        super();
+
+        URL url = this.getClass().getClassLoader().getResource("net/pkhsolutions/ceres/eventbus/processor/velocity.properties");
+        Properties props = new Properties();
+        try {
+            props.load(url.openStream());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load velocity properties", e);
+        }
+        velocityEngine = new VelocityEngine(props);
+        velocityEngine.init();
+
+        invokersTemplate = velocityEngine.getTemplate("net/pkhsolutions/ceres/eventbus/processor/invokers.vm");
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final Map<TypeElement, List<ListenerMethod>> methodsByType = new LinkedHashMap<TypeElement, List<ListenerMethod>>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(EventListenerMethod.class)) {
+            final ExecutableElement method = (ExecutableElement) element;
+            final TypeElement type = (TypeElement) method.getEnclosingElement();
+            if (isInvokable(method) && isAccessible(type)) {
+                List<ListenerMethod> methods = methodsByType.get(type);
+                if (methods == null) {
+                    methods = new ArrayList<ListenerMethod>();
+                    methodsByType.put(type, methods);
+                }
+                methods.add(new ListenerMethod(method, methods.size(), getPayloadTypeName(method)));
+            }
+        }
+        for (Map.Entry<TypeElement, List<ListenerMethod>> entry : methodsByType.entrySet()) {
+            processType(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private void processType(TypeElement type, List<ListenerMethod> methods) {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        final String providerName = getFlattenedName(type) + EventListenerInvokerProvider.CLASS_NAME_SUFFIX;
+        final VelocityContext vc = new VelocityContext();
+        vc.put("className", providerName);
+        vc.put("typeName", processingEnv.getTypeUtils().erasure(type.asType()).toString());
+        vc.put("generationDate", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+        vc.put("packageName", pkg.getQualifiedName().toString());
+        vc.put("methods", methods);
+        final String fileName = pkg.isUnnamed() ? providerName : pkg.getQualifiedName() + "." + providerName;
+        createSourceFile(fileName, invokersTemplate, vc);
+    }
+
+    private boolean isInvokable(ExecutableElement method) {
+        if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+            return false;
+        }
+        if (method.getParameters().size() != 1) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Event listener methods must take exactly one parameter", method);
+            return false;
+        }
+        final TypeMirror parameterType = method.getParameters().get(0).asType();
+        if (parameterType.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        final DeclaredType declaredType = (DeclaredType) parameterType;
+        final TypeElement parameterElement = (TypeElement) declaredType.asElement();
+        if (parameterElement.getQualifiedName().contentEquals(List.class.getName())) {
+            /*
+             * Batch methods are always invoked using reflection.
+             */
+            return false;
+        }
+        if (!parameterElement.getQualifiedName().contentEquals(Event.class.getName())
+                || declaredType.getTypeArguments().size() != 1
+                || declaredType.getTypeArguments().get(0).getKind() != TypeKind.DECLARED) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Event listener methods must take a single parameter of type Event with a non-wildcard payload type", method);
+            return false;
+        }
+        /*
+         * Parameterized payload types are ignored by the event bus.
+         */
+        return ((DeclaredType) declaredType.getTypeArguments().get(0)).getTypeArguments().isEmpty();
+    }
+
+    /**
+     * Returns the binary name of the payload type of an invokable method, which
+     * is what the event bus uses to tell overloaded methods apart.
+     */
+    private String getPayloadTypeName(ExecutableElement method) {
+        final DeclaredType eventType = (DeclaredType) method.getParameters().get(0).asType();
+        final DeclaredType payloadType = (DeclaredType) eventType.getTypeArguments().get(0);
+        return processingEnv.getElementUtils().getBinaryName((TypeElement) payloadType.asElement()).toString();
+    }
+
+    private static boolean isAccessible(TypeElement type) {
+        Element element = type;
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)
+                    || ((TypeElement) element).getNestingKind().equals(NestingKind.LOCAL)
+                    || ((TypeElement) element).getNestingKind().equals(NestingKind.ANONYMOUS)) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private static String getFlattenedName(TypeElement type) {
+        final StringBuilder sb = new StringBuilder(type.getSimpleName());
+        Element element = type.getEnclosingElement();
+        while (element.getKind().isClass() || element.getKind().isInterface()) {
+            sb.insert(0, '_').insert(0, element.getSimpleName());
+            element = element.getEnclosingElement();
+        }
+        return sb.toString();
+    }
+
+    private void createSourceFile(String fileName, Template template, VelocityContext vc) {
+        try {
+            JavaFileObject jfo = processingEnv.getFiler().createSourceFile(fileName);
+            Writer writer = jfo.openWriter();
+            template.merge(vc, writer);
+            writer.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create source file", e);
+        }
+    }
+
+    /**
+     * This class is used to pass information from the annotation processor to
+     * the template engine. It is intended for internal use only and should
+     * never be used by clients.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public static final class ListenerMethod {
+
+        private final ExecutableElement element;
+        private final int index;
+        private final String payloadTypeName;
+
+        ListenerMethod(ExecutableElement element, int index, String payloadTypeName) {
+            this.element = element;
+            this.index = index;
+            this.payloadTypeName = payloadTypeName;
+        }
+
+        /**
+         * Returns the name of the method.
+         */
+        public String getName() {
+            return element.getSimpleName().toString();
+        }
+
+        /**
+         * Returns the key that the invoker of the method is looked up by.
+         *
+         * @see EventListenerInvokerProvider#getInvoker(java.lang.String)
+         */
+        public String getKey() {
+            return getName() + "(" + payloadTypeName + ")";
+        }
+
+        /**
+         * Returns the name of the field holding the invoker, which is unique
+         * even if the method is overloaded.
+         */
+        public String getFieldName() {
+            return getName() + "Invoker" + index;
+        }
+
+        /**
+         * Returns the name of the type of the event parameter, including the
+         * payload type.
+         */
+        public String getParameterTypeName() {
+            return element.getParameters().get(0).asType().toString();
+        }
+    }
+}
@@ -15,11 +15,17 @@
  */
 package net.pkhsolutions.ceres.eventbus;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,82 +33,255 @@ import org.slf4j.LoggerFactory;
  * This is an abstract base class for {@link EventBus} implementations. It
  * supports registration and unregistration of event listeners, detection and
  * invocation of event listener methods and event propagation to/from a parent
- * event bus.<p>This class has been specifically designed to act as a super
- * class for {@link SynchronousEventBus} and {@link AsynchronousEventBus} and
- * may not be that useful for other event bus implementations.
+ * event bus.<p>The registered listeners are kept in an immutable snapshot that
+ * is replaced atomically whenever a listener is registered or unregistered, so
+ * publishing never blocks. The event listeners that support a particular
+ * payload type are resolved once and stored in a dispatch table belonging to
+ * the snapshot. Publishing an event of an already seen payload type thus only
+ * requires a map lookup. Listener methods with a routing key are indexed by
+ * their key as well, so an event with a {@link Event#getRoutingKey() routing
+ * key} is only matched against the listeners that accept every key and the
+ * listeners subscribed to its key.<p>Listeners that have been garbage collected are
+ * reported by the JVM through a reference queue. The queue is drained whenever
+ * a listener is registered or unregistered, or when {@link #reclaimListeners()}
+ * is called, and exactly the reported listeners are then removed in the same
+ * snapshot replacement. Publishing never touches the queue; until a garbage
+ * collected listener has been reclaimed, it is simply skipped.<p>Event buses that
+ * extend this class keep track of their child buses. When an event is
+ * published, it is delivered to the whole affected part of the bus hierarchy in
+ * a single traversal: first to the publishing bus and its descendants, and for
+ * GLOBAL events then to every ancestor and the descendants of the ancestor that
+ * have not received the event yet. Every bus is visited exactly once, so the
+ * publication history does not have to be searched. A parent bus that does not
+ * extend this class is treated like any other event bus: this bus registers
+ * itself as a listener of the parent and GLOBAL events are passed on by
+ * publishing them on the parent.<p>The deliveries of an event can be tracked
+ * by publishing it using {@link #publishEventAsync(net.pkhsolutions.ceres.eventbus.Event)
+ * }. Subclasses that deliver events asynchronously report their deliveries
+ * through {@link #deliveryScheduled(net.pkhsolutions.ceres.eventbus.Event)}
+ * and {@link #deliveryCompleted(net.pkhsolutions.ceres.eventbus.Event, java.lang.Throwable)
+ * }.<p>Metrics can be
+ * collected by setting an {@link EventBusMetrics} implementation. By default,
+ * no metrics are collected.<p>This class has been
+ * specifically designed to act as a super class for {@link SynchronousEventBus},
+ * {@link AsynchronousEventBus} and {@link RingBufferEventBus} and may not be
+ * that useful for other event bus implementations.
  *
  * @see SynchronousEventBus
  * @see AsynchronousEventBus
+ * @see RingBufferEventBus
  *
  * @author Petter Holmström
  * @since 1.0
  */
-public abstract class AbstractEventBus implements EventBus {
+public abstract class AbstractEventBus implements BatchEventBus {
 
-    private EventBus parentBus;
+    private volatile EventBus parentBus;
     private final Logger logger = LoggerFactory.getLogger(getClass());
-    private final WeakHashMap<Object, EventListener> listeners = new WeakHashMap<Object, EventListener>();
+    private final AtomicReference<ListenerRegistry> registry = new AtomicReference<ListenerRegistry>(ListenerRegistry.EMPTY);
+    private volatile EventBusMetrics metrics = NoEventBusMetrics.INSTANCE;
+    private final AtomicReference<ChildBus[]> childBuses = new AtomicReference<ChildBus[]>(ChildBus.NONE);
+    private final ReferenceQueue<Object> collectedListeners = new ReferenceQueue<Object>();
+    private final AtomicLong reclaimedListenerCount = new AtomicLong();
 
     /**
-     * Event listener method that is called when a new event is published on the
-     * parent bus. If the event has not been published on this particular bus
-     * before, it is published. Otherwise nothing happens.
+     * Event listener method that is called when a new event is published on a
+     * parent bus that does not extend this class. If the event has not been
+     * published on this particular bus before, it is published on this bus and
+     * its descendants. Otherwise nothing happens.
      *
      * @see EventListenerMethod
-     * @see Event#getPublicationHistory()
+     * @see Event#hasVisited(net.pkhsolutions.ceres.eventbus.EventBus)
      *
      * @param event the published event, must not be null.
      */
     @EventListenerMethod
     protected void handleParentEvent(Event<Object> event) {
         assert event != null : "event must not be null";
-        if (!event.getPublicationHistory().contains(this)) {
-            logger.debug("Received event {} from parent, publishing it", event);
-            event.addEventBusToPublicationHistory(this);
-            doPublishEvent(event);
+        final SinglePropagation propagation = new SinglePropagation(event, true);
+        if (propagation.deliverTo(this)) {
+            logger.debug("Received event {} from parent, published it", event);
+            propagation.propagateDown(this, null);
         }
     }
 
     @Override
     public EventBus getParentBus() {
-        synchronized (this) {
-            return parentBus;
-        }
+        return parentBus;
+    }
+
+    /**
+     * Gets the metrics implementation that this event bus reports to.
+     *
+     * @return the metrics, never null.
+     */
+    public EventBusMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics implementation that this event bus reports to. The
+     * metrics of the parent and child buses are not affected.
+     *
+     * @param metrics the metrics, or null to stop collecting metrics.
+     */
+    public void setMetrics(EventBusMetrics metrics) {
+        this.metrics = metrics == null ? NoEventBusMetrics.INSTANCE : metrics;
     }
 
     @Override
     public void registerEventListener(Object listener) {
+        registerEventListener(listener, null);
+    }
+
+    /**
+     * Registers the specified listener with a routing key. The listener
+     * methods that do not declare a {@link EventListenerMethod#routingKey()
+     * routing key} of their own only receive events with an equal
+     * {@link Event#getRoutingKey() routing key}. Otherwise, this method works
+     * like {@link #registerEventListener(java.lang.Object) }.
+     *
+     * @see Routable
+     *
+     * @param listener the listener to register, may be null.
+     * @param routingKey the routing key, or null to let the listener methods
+     * without a routing key of their own receive all events.
+     */
+    public void registerEventListener(Object listener, String routingKey) {
         if (listener == null) {
             return;
         }
-        EventListener eventListener = new EventListener(listener);
-        synchronized (this) {
-            listeners.put(listener, eventListener);
+        final EventListener eventListener = new EventListener(listener, routingKey, collectedListeners);
+        updateRegistry(pollCollectedListeners(), eventListener, listener);
+    }
+
+    /**
+     * Removes all registered listeners that have been garbage collected since
+     * the last time they were reclaimed. This happens automatically whenever a
+     * listener is registered or unregistered, but applications that rarely do
+     * that may want to call this method periodically.
+     *
+     * @return the number of reclaimed listeners.
+     */
+    public int reclaimListeners() {
+        final Set<EventListener> collected = pollCollectedListeners();
+        return collected.isEmpty() ? 0 : updateRegistry(collected, null, null);
+    }
+
+    /**
+     * Gets the number of registered listeners that have not been garbage
+     * collected.
+     *
+     * @return the number of live listeners.
+     */
+    public int getLiveListenerCount() {
+        int count = 0;
+        for (EventListener eventListener : registry.get().listeners) {
+            if (eventListener.isAlive()) {
+                ++count;
+            }
         }
+        return count;
     }
 
+    /**
+     * Gets the total number of listeners that have been removed from this bus
+     * because they were garbage collected without being unregistered.
+     *
+     * @return the number of reclaimed listeners.
+     */
+    public long getReclaimedListenerCount() {
+        return reclaimedListenerCount.get();
+    }
+
+    private Set<EventListener> pollCollectedListeners() {
+        Reference<?> reference = collectedListeners.poll();
+        if (reference == null) {
+            return Collections.emptySet();
+        }
+        final Set<EventListener> collected = Collections.newSetFromMap(new IdentityHashMap<EventListener, Boolean>());
+        do {
+            collected.add(((ListenerReference) reference).eventListener);
+            reference = collectedListeners.poll();
+        } while (reference != null);
+        return collected;
+    }
+
+    /**
+     * Replaces the registry snapshot with one where the collected listeners
+     * and any listener equal to {@code listener} are removed, and
+     * {@code addedListener} is added.
+     *
+     * @return the number of reclaimed listeners.
+     */
+    private int updateRegistry(Set<EventListener> collected, EventListener addedListener, Object listener) {
+        ListenerRegistry current;
+        ListenerRegistry updated;
+        do {
+            current = registry.get();
+            updated = current.update(collected, addedListener, listener);
+        } while (updated != current && !registry.compareAndSet(current, updated));
+        final int reclaimed = updated == current ? 0 : updated.reclaimedCount;
+        if (reclaimed > 0) {
+            logger.debug("Reclaimed {} garbage collected listeners", reclaimed);
+            reclaimedListenerCount.addAndGet(reclaimed);
+            metrics.listenersReclaimed(this, reclaimed);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if {@code parentBus} is this bus or one
+     * of its descendants.
+     */
     @Override
     public void setParentBus(EventBus parentBus) {
         synchronized (this) {
-            if (this.parentBus != null) {
+            for (EventBus ancestor = parentBus; ancestor instanceof AbstractEventBus; ancestor = ancestor.getParentBus()) {
+                if (ancestor == this) {
+                    throw new IllegalArgumentException("An event bus cannot be its own ancestor");
+                }
+            }
+            if (this.parentBus instanceof AbstractEventBus) {
+                ((AbstractEventBus) this.parentBus).removeChildBus(this);
+            } else if (this.parentBus != null) {
                 this.parentBus.unregisterEventListener(this);
             }
             this.parentBus = parentBus;
-            if (this.parentBus != null) {
-                this.parentBus.registerEventListener(this);
+            if (parentBus instanceof AbstractEventBus) {
+                ((AbstractEventBus) parentBus).addChildBus(this);
+            } else if (parentBus != null) {
+                parentBus.registerEventListener(this);
             }
             logger.debug("Using parent {}", parentBus);
         }
     }
 
+    private void addChildBus(AbstractEventBus childBus) {
+        ChildBus[] current;
+        ChildBus[] updated;
+        do {
+            current = childBuses.get();
+            updated = ChildBus.without(current, childBus, 1);
+            updated[updated.length - 1] = new ChildBus(childBus);
+        } while (!childBuses.compareAndSet(current, updated));
+    }
+
+    private void removeChildBus(AbstractEventBus childBus) {
+        ChildBus[] current;
+        do {
+            current = childBuses.get();
+        } while (!childBuses.compareAndSet(current, ChildBus.without(current, childBus, 0)));
+    }
+
     @Override
     public void unregisterEventListener(Object listener) {
         if (listener == null) {
             return;
         }
-        synchronized (this) {
-            listeners.remove(listener);
-        }
+        updateRegistry(pollCollectedListeners(), null, listener);
     }
 
     @Override
@@ -119,22 +298,184 @@ public abstract class AbstractEventBus implements EventBus {
             return;
         }
         logger.debug("Publishing event {}", event);
+        final SinglePropagation propagation = new SinglePropagation(event, isPublishedElsewhere(event));
         if (event.getOriginalEventBus() != this) {
             event.addEventBusToPublicationHistory(this);
         }
+        metrics.eventPublished(this, event);
         doPublishEvent(event);
-        /*
-         * Store a local reference to the parent bus in case another thread
-         * changes it in the middle of the execution of this method.
-         */
-        EventBus parentBusToPublishTo;
-        synchronized (this) {
-            parentBusToPublishTo = this.parentBus;
+        propagation.propagateDown(this, null);
+        if (event.getScope().equals(EventScope.GLOBAL)) {
+            propagation.propagateUp(this);
+        }
+    }
+
+    /**
+     * Publishes an event with the specified payload and scope, and returns a
+     * future that completes when every listener in the bus hierarchy has
+     * handled the event.
+     *
+     * @see #publishEventAsync(net.pkhsolutions.ceres.eventbus.Event)
+     *
+     * @param payload the event payload, must not be null.
+     * @param scope the scope of the event, must not be null.
+     * @return a future tracking the deliveries of the event, never null.
+     */
+    public <T> PublicationFuture<T> publishEventAsync(T payload, EventScope scope) {
+        assert payload != null : "payload must not be null";
+        assert scope != null : "scope must not be null";
+        return publishEventAsync(new Event<T>(payload, this, scope));
+    }
+
+    /**
+     * Publishes the specified event like {@link #publishEvent(net.pkhsolutions.ceres.eventbus.Event)
+     * }, and returns a future that completes when every listener in the bus
+     * hierarchy has handled the event. This includes the listeners of parent
+     * and child buses that extend this class, also when they are reached
+     * through a bus that does not. Deliveries on other event bus
+     * implementations are not tracked. An exception thrown by
+     * {@link #publishEvent(net.pkhsolutions.ceres.eventbus.Event)}, for
+     * example by a failing listener of a {@link SynchronousEventBus}, is
+     * reported by the future instead of being thrown, as are the failures of
+     * listeners that are notified asynchronously.
+     *
+     * @see PublicationFuture
+     *
+     * @param event the event to publish, must not be null.
+     * @return a future tracking the deliveries of the event, never null.
+     * @throws IllegalStateException if the deliveries of the event are already
+     * being tracked by another future.
+     */
+    public <T> PublicationFuture<T> publishEventAsync(Event<T> event) {
+        assert event != null : "event must not be null";
+        final PublicationFuture<T> future = new PublicationFuture<T>(event);
+        if (!event.startTracking(future)) {
+            throw new IllegalStateException("The deliveries of event " + event + " are already being tracked");
+        }
+        try {
+            publishEvent(event);
+        } catch (RuntimeException e) {
+            future.deliveryFailed(e);
+        } finally {
+            future.deliveryCompleted();
+        }
+        return future;
+    }
+
+    @Override
+    public void publishEvents(Collection<?> payloads, EventScope scope) {
+        assert payloads != null : "payloads must not be null";
+        assert scope != null : "scope must not be null";
+        final List<Event<?>> events = new ArrayList<Event<?>>(payloads.size());
+        for (Object payload : payloads) {
+            assert payload != null : "payloads must not contain null";
+            events.add(new Event<Object>(payload, this, scope));
+        }
+        publishEvents(events);
+    }
+
+    @Override
+    public void publishEvents(Collection<? extends Event<?>> events) {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        logger.debug("Publishing {} events", events.size());
+        final List<Event<?>> eventList = new ArrayList<Event<?>>(events.size());
+        List<Event<?>> globalEvents = null;
+        final EventBusMetrics currentMetrics = metrics;
+        boolean checkHistory = false;
+        for (Event<?> event : events) {
+            checkHistory |= isPublishedElsewhere(event);
+            if (event.getOriginalEventBus() != this) {
+                event.addEventBusToPublicationHistory(this);
+            }
+            currentMetrics.eventPublished(this, event);
+            eventList.add(event);
+            if (event.getScope().equals(EventScope.GLOBAL)) {
+                if (globalEvents == null) {
+                    globalEvents = new ArrayList<Event<?>>(events.size());
+                }
+                globalEvents.add(event);
+            }
+        }
+        doPublishEvents(eventList);
+        new BatchPropagation(eventList, checkHistory).propagateDown(this, null);
+        if (globalEvents != null) {
+            new BatchPropagation(globalEvents, checkHistory).propagateUp(this);
+        }
+    }
+
+    /**
+     * Publishes the events on the specified event bus as a batch if it is a
+     * {@link BatchEventBus}, and one at a time otherwise.
+     */
+    static void publishBatch(EventBus eventBus, Collection<? extends Event<?>> events) {
+        if (eventBus instanceof BatchEventBus) {
+            ((BatchEventBus) eventBus).publishEvents(events);
+        } else if (events != null) {
+            for (Event<?> event : events) {
+                eventBus.publishEvent(event);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the event may already have been published on buses in
+     * the hierarchy of this bus, in which case the publication history has to
+     * be checked before the event is published on another bus.
+     */
+    private boolean isPublishedElsewhere(Event<?> event) {
+        return event.getOriginalEventBus() != this || event.getPublicationHopCount() > 0;
+    }
+
+    /**
+     * Publishes the event on this bus as part of a propagation, without
+     * propagating it any further.
+     *
+     * @return true if the event was published, false if it had already been
+     * published on this bus.
+     */
+    private boolean receiveEvent(Event<?> event, boolean checkHistory) {
+        if (!checkHistory) {
+            event.addEventBusToPublicationHistory(this);
+        } else if (!event.addEventBusToPublicationHistoryIfAbsent(this)) {
+            return false;
+        }
+        metrics.eventPublished(this, event);
+        doPublishEvent(event);
+        return true;
+    }
+
+    /**
+     * Publishes the events on this bus as part of a propagation, without
+     * propagating them any further.
+     *
+     * @return true if at least one of the events was published, false if all
+     * of them had already been published on this bus.
+     */
+    private boolean receiveEvents(List<Event<?>> events, boolean checkHistory) {
+        List<Event<?>> eventsToPublish = events;
+        if (checkHistory) {
+            eventsToPublish = new ArrayList<Event<?>>(events.size());
+            for (Event<?> event : events) {
+                if (event.addEventBusToPublicationHistoryIfAbsent(this)) {
+                    eventsToPublish.add(event);
+                }
+            }
+            if (eventsToPublish.isEmpty()) {
+                return false;
+            }
+        } else {
+            for (Event<?> event : events) {
+                event.addEventBusToPublicationHistory(this);
+            }
         }
-        if (event.getScope().equals(EventScope.GLOBAL) && parentBusToPublishTo != null) {
-            logger.debug("Scope of {} is GLOBAL, publishing event on parent bus {}", event, parentBusToPublishTo);
-            parentBusToPublishTo.publishEvent(event);
+        final EventBusMetrics currentMetrics = metrics;
+        for (Event<?> event : eventsToPublish) {
+            currentMetrics.eventPublished(this, event);
         }
+        doPublishEvents(eventsToPublish);
+        return true;
     }
 
     /**
@@ -143,16 +484,57 @@ public abstract class AbstractEventBus implements EventBus {
      * @return a copy of the collection of event listeners, never null.
      */
     protected Collection<EventListener> getEventListeners() {
-        synchronized (this) {
-            return new HashSet<EventListener>(listeners.values());
+        final List<EventListener> eventListeners = new ArrayList<EventListener>();
+        for (EventListener eventListener : registry.get().listeners) {
+            if (eventListener.isAlive()) {
+                eventListeners.add(eventListener);
+            }
         }
+        return eventListeners;
+    }
+
+    /**
+     * Gets all registered event listeners that support events with the
+     * specified payload type. The result is cached in a dispatch table until
+     * the next time a listener is registered or unregistered, so the same array
+     * instance is returned for subsequent calls. Callers must not modify it.
+     * <p>This method never blocks. It reads an immutable snapshot of the
+     * registered listeners, which is replaced atomically whenever a listener is
+     * registered or unregistered.
+     *
+     * @see EventListener#supports(java.lang.Class)
+     *
+     * @param payloadType the payload type, must not be null.
+     * @return an array of event listeners, never null.
+     */
+    protected EventListener[] getEventListeners(Class<?> payloadType) {
+        assert payloadType != null : "payloadType must not be null";
+        return registry.get().getEventListeners(payloadType, null);
+    }
+
+    /**
+     * Gets all registered event listeners that support the specified event,
+     * taking both its payload type and its {@link Event#getRoutingKey() routing
+     * key} into account. Like {@link #getEventListeners(java.lang.Class) },
+     * this method never blocks and the result is cached, so callers must not
+     * modify it. Only the listeners that accept every routing key and the
+     * listeners subscribed to the routing key of the event are examined.
+     *
+     * @see EventListener#supports(net.pkhsolutions.ceres.eventbus.Event)
+     *
+     * @param event the event, must not be null.
+     * @return an array of event listeners, never null.
+     */
+    protected EventListener[] getEventListeners(Event<?> event) {
+        assert event != null : "event must not be null";
+        return registry.get().getEventListeners(event.getPayloadType(), event.getRoutingKey());
     }
 
     /**
      * Publishes the specified event on this bus, notifying the registered
      * listeners.
      *
-     * @see #getEventListeners()
+     * @see #getEventListeners(java.lang.Class)
      * @see EventListener#handleEvent(net.pkhsolutions.ceres.eventbus.Event)
      * @see EventListener#supports(net.pkhsolutions.ceres.eventbus.Event)
      *
@@ -161,116 +543,1221 @@ public abstract class AbstractEventBus implements EventBus {
     protected abstract void doPublishEvent(Event<?> event);
 
     /**
-     * This class is used to wrap real event listener objects. It contains
-     * methods for analyzing ad invoking event listener methods.
+     * Publishes the specified events on this bus, notifying the registered
+     * listeners. The default implementation calls {@link #doPublishEvent(net.pkhsolutions.ceres.eventbus.Event)
+     * } for each event, subclasses should override it to deliver the events to
+     * each listener in one go.
      *
-     * @see EventListenerMethod
+     * @see #groupByEventListener(java.util.List)
+     * @see EventListener#handleEvents(java.util.List)
      *
-     * @author Petter Holmström
-     * @since 1.0
+     * @param events the events to publish, must not be null or empty.
      */
-    protected static class EventListener {
+    protected void doPublishEvents(List<Event<?>> events) {
+        for (Event<?> event : events) {
+            doPublishEvent(event);
+        }
+    }
+
+    /**
+     * Groups the specified events by the event listeners that support them. The
+     * listeners are resolved once per payload type and routing key, and the events of each
+     * listener are kept in the order they appear in {@code events}.
+     *
+     * @param events the events to group, must not be null.
+     * @return a map of event listeners and their events, never null.
+     */
+    protected Map<EventListener, List<Event<?>>> groupByEventListener(List<Event<?>> events) {
+        final Map<EventListener, List<Event<?>>> eventsByListener = new LinkedHashMap<EventListener, List<Event<?>>>();
+        Class<?> payloadType = null;
+        String routingKey = null;
+        EventListener[] eventListeners = null;
+        for (Event<?> event : events) {
+            final String eventRoutingKey = event.getRoutingKey();
+            if (event.getPayloadType() != payloadType || (routingKey == null ? eventRoutingKey != null : !routingKey.equals(eventRoutingKey))) {
+                payloadType = event.getPayloadType();
+                routingKey = eventRoutingKey;
+                eventListeners = getEventListeners(event);
+            }
+            for (EventListener eventListener : eventListeners) {
+                List<Event<?>> listenerEvents = eventsByListener.get(eventListener);
+                if (listenerEvents == null) {
+                    listenerEvents = new ArrayList<Event<?>>();
+                    eventsByListener.put(eventListener, listenerEvents);
+                }
+                listenerEvents.add(event);
+            }
+        }
+        return eventsByListener;
+    }
+
+    /**
+     * Removes all events that are conflated by a later event in the specified
+     * list. The remaining events are kept in their original order, which means
+     * that the newest event of every conflation key stays where it was
+     * published. If no event can be removed, the list itself is returned.
+     *
+     * @see Event#isConflatedBy(net.pkhsolutions.ceres.eventbus.Event)
+     *
+     * @param events the events to conflate, must not be null.
+     * @return a list of events, never null.
+     */
+    protected static List<Event<?>> conflate(List<Event<?>> events) {
+        assert events != null : "events must not be null";
+        Set<ConflationKey> seenKeys = null;
+        boolean[] conflated = null;
+        int remaining = events.size();
+        for (int i = events.size() - 1; i >= 0; --i) {
+            final Event<?> event = events.get(i);
+            final Object key = event.getConflationKey();
+            if (key == null) {
+                continue;
+            }
+            if (seenKeys == null) {
+                seenKeys = new HashSet<ConflationKey>();
+            }
+            if (!seenKeys.add(new ConflationKey(event.getPayloadType(), key))) {
+                if (conflated == null) {
+                    conflated = new boolean[events.size()];
+                }
+                conflated[i] = true;
+                --remaining;
+            }
+        }
+        if (conflated == null) {
+            return events;
+        }
+        final List<Event<?>> result = new ArrayList<Event<?>>(remaining);
+        for (int i = 0; i < conflated.length; ++i) {
+            if (!conflated[i]) {
+                result.add(events.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Notifies the future tracking the deliveries of the event, if any, that
+     * another delivery has been scheduled. Subclasses that deliver events
+     * after {@link #doPublishEvent(net.pkhsolutions.ceres.eventbus.Event)} has
+     * returned must call this method before returning, and {@link #deliveryCompleted(net.pkhsolutions.ceres.eventbus.Event, java.lang.Throwable)
+     * } once the delivery has completed or been discarded.
+     *
+     * @see #publishEventAsync(net.pkhsolutions.ceres.eventbus.Event)
+     *
+     * @param event the event, must not be null.
+     */
+    protected static void deliveryScheduled(Event<?> event) {
+        final PublicationFuture<?> future = event.getPublicationFuture();
+        if (future != null) {
+            future.deliveryScheduled();
+        }
+    }
+
+    /**
+     * Calls {@link #deliveryScheduled(net.pkhsolutions.ceres.eventbus.Event)
+     * } for each of the specified events.
+     *
+     * @param events the events, must not be null.
+     */
+    protected static void deliveryScheduled(Collection<Event<?>> events) {
+        for (Event<?> event : events) {
+            deliveryScheduled(event);
+        }
+    }
+
+    /**
+     * Notifies the future tracking the deliveries of the event, if any, that
+     * a delivery has failed. This does not complete the delivery.
+     *
+     * @param event the event, must not be null.
+     * @param failure the failure, must not be null.
+     */
+    protected static void deliveryFailed(Event<?> event, Throwable failure) {
+        final PublicationFuture<?> future = event.getPublicationFuture();
+        if (future != null) {
+            future.deliveryFailed(failure);
+        }
+    }
+
+    /**
+     * Notifies the future tracking the deliveries of the event, if any, that
+     * a scheduled delivery has completed.
+     *
+     * @see #deliveryScheduled(net.pkhsolutions.ceres.eventbus.Event)
+     *
+     * @param event the event, must not be null.
+     * @param failure the failure of the delivery, or null if it succeeded or
+     * was discarded.
+     */
+    protected static void deliveryCompleted(Event<?> event, Throwable failure) {
+        final PublicationFuture<?> future = event.getPublicationFuture();
+        if (future != null) {
+            if (failure != null) {
+                future.deliveryFailed(failure);
+            }
+            future.deliveryCompleted();
+        }
+    }
+
+    /**
+     * Calls {@link #deliveryCompleted(net.pkhsolutions.ceres.eventbus.Event, java.lang.Throwable)
+     * } for each of the specified events.
+     *
+     * @param events the events, must not be null.
+     * @param failure the failure of the delivery, or null if it succeeded or
+     * was discarded.
+     */
+    protected static void deliveryCompleted(Collection<Event<?>> events, Throwable failure) {
+        for (Event<?> event : events) {
+            deliveryCompleted(event, failure);
+        }
+    }
+
+    /**
+     * Delivers an event or a batch of events to the buses of a hierarchy. The
+     * buses are visited iteratively, so deep hierarchies do not lead to deep
+     * call stacks. Unless the events may already have been published somewhere
+     * in the hierarchy, the publication history is extended without searching
+     * it, as every bus is visited exactly once.
+     */
+    private abstract static class Propagation {
 
-        private final WeakReference<Object> listenerRef;
-        private final Set<Method> listenerMethods;
+        final boolean checkHistory;
+
+        Propagation(boolean checkHistory) {
+            this.checkHistory = checkHistory;
+        }
 
         /**
-         * Creates a new
-         * <code>EventListener</code>.
+         * Publishes the events on the specified bus only.
          *
-         * @param listener the real event listener object, must not be null.
+         * @return true if the events should be propagated to the descendants
+         * of the bus, false otherwise.
          */
-        public EventListener(Object listener) {
-            assert listener != null : "listener must not be null";
-            listenerRef = new WeakReference<Object>(listener);
-            listenerMethods = Collections.unmodifiableSet(findListenerMethods(listener.getClass()));
-        }
+        abstract boolean deliverTo(AbstractEventBus eventBus);
 
         /**
-         * Checks if the event listener supports the specified event. That is,
-         * the wrapped event listener has at least one event listener method
-         * that takes the given event as a parameter.
-         *
-         * @see EventListenerMethod
-         *
-         * @param event the event to check, must not be null.
-         * @return true if the event listener supports the event, false
-         * otherwise.
+         * Publishes the events on a parent bus that does not extend
+         * {@link AbstractEventBus}, which takes care of the rest of the
+         * propagation.
          */
-        public boolean supports(Event<?> event) {
-            assert event != null : "event must not be null";
-            return !getListenerMethods(event.getPayloadType()).isEmpty();
-        }
+        abstract void publishOn(EventBus parentBus);
 
         /**
-         * Handles the specified event by invoking all event listener methods of
-         * the wrapped event listener that take the given event as a parameter.
-         * If the event is not supported by the listener, nothing happens.
-         *
-         * @see #supports(net.pkhsolutions.ceres.eventbus.Event)
-         * @see EventListenerMethod
+         * Delivers the events to all descendants of the specified bus, in depth
+         * first order. The bus itself is not visited.
          *
-         * @param event the event to handle, must not be null.
+         * @param eventBus the bus whose descendants to visit.
+         * @param excludedChild a child bus whose subtree is skipped, may be
+         * null.
          */
-        public void handleEvent(Event<?> event) {
-            assert event != null : "event must not be null";
-            final Set<Method> listenerMethodsToInvoke = getListenerMethods(event.getPayloadType());
-            if (listenerMethodsToInvoke.isEmpty()) {
+        void propagateDown(AbstractEventBus eventBus, AbstractEventBus excludedChild) {
+            final ChildBus[] children = eventBus.childBuses.get();
+            if (children.length == 0 || children.length == 1 && children[0].get() == excludedChild) {
                 return;
             }
-            final Object target = listenerRef.get();
-            if (target != null) {
-                for (Method listenerMethod : listenerMethodsToInvoke) {
-                    invokeMethod(listenerMethod, target, event);
+            final LinkedList<AbstractEventBus> pending = new LinkedList<AbstractEventBus>();
+            pushChildren(pending, children, excludedChild);
+            while (!pending.isEmpty()) {
+                final AbstractEventBus next = pending.removeFirst();
+                if (deliverTo(next)) {
+                    pushChildren(pending, next.childBuses.get(), null);
                 }
             }
         }
 
-        private static void invokeMethod(Method m, Object target, Object... args) {
-            final boolean oldAccessible = m.isAccessible();
-            try {
-                m.setAccessible(true);
-                m.invoke(target, args);
-            } catch (Exception e) {
-                throw new RuntimeException("Error invoking method " + m.getName(), e);
-            } finally {
-                m.setAccessible(oldAccessible);
+        /**
+         * Delivers the events to all ancestors of the specified bus and their
+         * descendants, except the subtree of the bus itself.
+         */
+        void propagateUp(AbstractEventBus eventBus) {
+            AbstractEventBus child = eventBus;
+            /*
+             * Parent buses are read once, in case another thread changes them
+             * in the middle of the propagation.
+             */
+            EventBus parent = child.parentBus;
+            while (parent instanceof AbstractEventBus) {
+                final AbstractEventBus ancestor = (AbstractEventBus) parent;
+                if (deliverTo(ancestor)) {
+                    propagateDown(ancestor, child);
+                }
+                child = ancestor;
+                parent = ancestor.parentBus;
+            }
+            if (parent != null) {
+                child.logger.debug("Publishing GLOBAL events on parent bus {}", parent);
+                publishOn(parent);
             }
         }
 
-        private Set<Method> getListenerMethods(Class<?> payloadType) {
-            HashSet<Method> methods = new HashSet<Method>();
-            for (Method listenerMethod : listenerMethods) {
-                ParameterizedType eventType = (ParameterizedType) listenerMethod.getGenericParameterTypes()[0];
-                Type acceptedPayloadType = eventType.getActualTypeArguments()[0];
-                if (acceptedPayloadType instanceof Class) {
-                    if (((Class<?>) acceptedPayloadType).isAssignableFrom(payloadType)) {
-                        methods.add(listenerMethod);
-                    }
+        private static void pushChildren(LinkedList<AbstractEventBus> pending, ChildBus[] children, AbstractEventBus excludedChild) {
+            for (int i = children.length - 1; i >= 0; --i) {
+                final AbstractEventBus child = children[i].get();
+                if (child != null && child != excludedChild) {
+                    pending.addFirst(child);
                 }
             }
-            return methods;
         }
+    }
 
-        private static Set<Method> findListenerMethods(Class<?> listenerClass) {
-            HashSet<Method> methods = new HashSet<Method>();
-            Class<?> classToInspect = listenerClass;
-            while (classToInspect != Object.class && classToInspect != null) {
-                for (Method m : classToInspect.getDeclaredMethods()) {
-                    if (m.isAnnotationPresent(EventListenerMethod.class)
-                            && m.getParameterTypes().length == 1
-                            && m.getParameterTypes()[0] == Event.class) {
-                        methods.add(m);
-                    }
-                }
-                if (!classToInspect.isInterface()) {
-                    for (Class<?> interfaceToInspect : classToInspect.getInterfaces()) {
-                        methods.addAll(findListenerMethods(interfaceToInspect));
-                    }
+    private static final class SinglePropagation extends Propagation {
+
+        private final Event<?> event;
+
+        SinglePropagation(Event<?> event, boolean checkHistory) {
+            super(checkHistory);
+            this.event = event;
+        }
+
+        @Override
+        boolean deliverTo(AbstractEventBus eventBus) {
+            return eventBus.receiveEvent(event, checkHistory);
+        }
+
+        @Override
+        void publishOn(EventBus parentBus) {
+            parentBus.publishEvent(event);
+        }
+    }
+
+    private static final class BatchPropagation extends Propagation {
+
+        private final List<Event<?>> events;
+
+        BatchPropagation(List<Event<?>> events, boolean checkHistory) {
+            super(checkHistory);
+            this.events = events;
+        }
+
+        @Override
+        boolean deliverTo(AbstractEventBus eventBus) {
+            return eventBus.receiveEvents(events, checkHistory);
+        }
+
+        @Override
+        void publishOn(EventBus parentBus) {
+            publishBatch(parentBus, events);
+        }
+    }
+
+    /**
+     * Weak reference to a child bus. Child buses are kept in an array that is
+     * replaced atomically whenever a child is added or removed, so propagating
+     * an event never blocks. Children that have been garbage collected are
+     * removed the next time the array is replaced.
+     */
+    private static final class ChildBus extends WeakReference<AbstractEventBus> {
+
+        static final ChildBus[] NONE = new ChildBus[0];
+
+        ChildBus(AbstractEventBus childBus) {
+            super(childBus);
+        }
+
+        /**
+         * Copies the child buses, leaving out the specified bus and the buses
+         * that have been garbage collected.
+         *
+         * @param extraSlots the number of empty slots to add to the end.
+         */
+        static ChildBus[] without(ChildBus[] childBuses, AbstractEventBus childBus, int extraSlots) {
+            final List<ChildBus> remaining = new ArrayList<ChildBus>(childBuses.length + extraSlots);
+            for (ChildBus existing : childBuses) {
+                final AbstractEventBus existingBus = existing.get();
+                if (existingBus != null && existingBus != childBus) {
+                    remaining.add(existing);
                 }
-                classToInspect = classToInspect.getSuperclass();
+            }
+            return remaining.toArray(new ChildBus[remaining.size() + extraSlots]);
+        }
+    }
+
+    /**
+     * The payload type and routing key of an event, used as the key of the
+     * dispatch table for routed events.
+     */
+    private static final class RouteKey {
+
+        private final Class<?> payloadType;
+        private final String routingKey;
+
+        RouteKey(Class<?> payloadType, String routingKey) {
+            this.payloadType = payloadType;
+            this.routingKey = routingKey;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RouteKey)) {
+                return false;
+            }
+            final RouteKey other = (RouteKey) obj;
+            return payloadType == other.payloadType && routingKey.equals(other.routingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return payloadType.hashCode() * 31 + routingKey.hashCode();
+        }
+    }
+
+    /**
+     * The payload type and conflation key of an event, used to find the events
+     * that replace each other.
+     */
+    private static final class ConflationKey {
+
+        private final Class<?> payloadType;
+        private final Object key;
+
+        ConflationKey(Class<?> payloadType, Object key) {
+            this.payloadType = payloadType;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ConflationKey)) {
+                return false;
+            }
+            final ConflationKey other = (ConflationKey) obj;
+            return payloadType == other.payloadType && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * payloadType.hashCode() + key.hashCode();
+        }
+    }
+
+    /**
+     * Immutable snapshot of the registered event listeners, together with a
+     * dispatch table that caches the listeners supporting each payload type.
+     * The listeners are also indexed by routing key when the snapshot is
+     * created; listeners whose methods all have routing keys are only
+     * considered for events with one of those keys. The dispatch tables are
+     * computed from the snapshot only and can therefore never become outdated.
+     */
+    private static final class ListenerRegistry {
+
+        private static final int[] NO_POSITIONS = new int[0];
+        static final ListenerRegistry EMPTY = new ListenerRegistry(new EventListener[0], 0);
+        final EventListener[] listeners;
+        /**
+         * The number of collected listeners that were left out when this
+         * snapshot was created.
+         */
+        final int reclaimedCount;
+        /**
+         * The positions of the listeners that have methods accepting every
+         * routing key.
+         */
+        private final int[] unroutedPositions;
+        /**
+         * The positions of the listeners that have methods with each routing
+         * key.
+         */
+        private final Map<String, int[]> routedPositions;
+        private final ConcurrentMap<Class<?>, EventListener[]> dispatchTable = new ConcurrentHashMap<Class<?>, EventListener[]>();
+        private final ConcurrentMap<RouteKey, EventListener[]> routedDispatchTable = new ConcurrentHashMap<RouteKey, EventListener[]>();
+
+        ListenerRegistry(EventListener[] listeners, int reclaimedCount) {
+            this.listeners = listeners;
+            this.reclaimedCount = reclaimedCount;
+            final List<Integer> unrouted = new ArrayList<Integer>(listeners.length);
+            final Map<String, List<Integer>> routed = new HashMap<String, List<Integer>>();
+            for (int i = 0; i < listeners.length; ++i) {
+                if (listeners[i].acceptsAnyRoutingKey()) {
+                    unrouted.add(i);
+                }
+                for (String routingKey : listeners[i].getRoutingKeys()) {
+                    List<Integer> positions = routed.get(routingKey);
+                    if (positions == null) {
+                        positions = new ArrayList<Integer>();
+                        routed.put(routingKey, positions);
+                    }
+                    positions.add(i);
+                }
+            }
+            unroutedPositions = toArray(unrouted);
+            if (routed.isEmpty()) {
+                routedPositions = Collections.emptyMap();
+            } else {
+                routedPositions = new HashMap<String, int[]>(routed.size() * 2);
+                for (Map.Entry<String, List<Integer>> entry : routed.entrySet()) {
+                    routedPositions.put(entry.getKey(), toArray(entry.getValue()));
+                }
+            }
+        }
+
+        private static int[] toArray(List<Integer> positions) {
+            if (positions.isEmpty()) {
+                return NO_POSITIONS;
+            }
+            final int[] array = new int[positions.size()];
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = positions.get(i);
+            }
+            return array;
+        }
+
+        EventListener[] getEventListeners(Class<?> payloadType, String routingKey) {
+            final int[] routed = routingKey == null ? null : routedPositions.get(routingKey);
+            if (routed == null) {
+                EventListener[] eventListeners = dispatchTable.get(payloadType);
+                if (eventListeners == null) {
+                    eventListeners = findEventListeners(payloadType, null, unroutedPositions, NO_POSITIONS);
+                    dispatchTable.put(payloadType, eventListeners);
+                }
+                return eventListeners;
+            }
+            final RouteKey routeKey = new RouteKey(payloadType, routingKey);
+            EventListener[] eventListeners = routedDispatchTable.get(routeKey);
+            if (eventListeners == null) {
+                eventListeners = findEventListeners(payloadType, routingKey, unroutedPositions, routed);
+                routedDispatchTable.put(routeKey, eventListeners);
+            }
+            return eventListeners;
+        }
+
+        /**
+         * Finds the listeners at the specified positions that support the
+         * payload type and routing key. Both position arrays are sorted, and
+         * they are merged so that the listeners stay in registration order.
+         */
+        private EventListener[] findEventListeners(Class<?> payloadType, String routingKey, int[] positions1, int[] positions2) {
+            final List<EventListener> supportingListeners = new ArrayList<EventListener>();
+            int i = 0;
+            int j = 0;
+            while (i < positions1.length || j < positions2.length) {
+                final int position;
+                if (j == positions2.length || i < positions1.length && positions1[i] < positions2[j]) {
+                    position = positions1[i++];
+                } else if (i == positions1.length || positions2[j] < positions1[i]) {
+                    position = positions2[j++];
+                } else {
+                    position = positions1[i++];
+                    ++j;
+                }
+                if (listeners[position].supports(payloadType, routingKey)) {
+                    supportingListeners.add(listeners[position]);
+                }
+            }
+            return supportingListeners.toArray(new EventListener[supportingListeners.size()]);
+        }
+
+        /**
+         * Creates a new snapshot without the collected listeners and the
+         * listeners wrapping {@code listener}, and with {@code addedListener}
+         * appended. If nothing changes, this snapshot is returned.
+         */
+        ListenerRegistry update(Set<EventListener> collected, EventListener addedListener, Object listener) {
+            final List<EventListener> newListeners = new ArrayList<EventListener>(listeners.length + 1);
+            int reclaimed = 0;
+            for (EventListener existing : listeners) {
+                if (collected.contains(existing)) {
+                    ++reclaimed;
+                } else if (listener == null || !existing.wraps(listener)) {
+                    newListeners.add(existing);
+                }
+            }
+            if (addedListener != null) {
+                newListeners.add(addedListener);
+            } else if (newListeners.size() == listeners.length) {
+                return this;
+            }
+            return new ListenerRegistry(newListeners.toArray(new EventListener[newListeners.size()]), reclaimed);
+        }
+    }
+
+    /**
+     * This class is used to wrap real event listener objects. It contains
+     * methods for analyzing ad invoking event listener methods.
+     *
+     * @see EventListenerMethod
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    protected static class EventListener {
+
+        private static final ListenerMethod[] NO_METHODS = new ListenerMethod[0];
+        private final ListenerReference listenerRef;
+        private final ListenerMethod[] listenerMethods;
+        private final Set<String> routingKeys;
+        private final boolean acceptsAnyRoutingKey;
+        private final ConcurrentMap<Class<?>, ListenerMethod[]> listenerMethodsByPayloadType = new ConcurrentHashMap<Class<?>, ListenerMethod[]>();
+
+        /**
+         * Creates a new
+         * <code>EventListener</code>.
+         *
+         * @param listener the real event listener object, must not be null.
+         */
+        public EventListener(Object listener) {
+            this(listener, null);
+        }
+
+        /**
+         * Creates a new
+         * <code>EventListener</code> that is enqueued on the specified
+         * reference queue when the real event listener object has been garbage
+         * collected. The references that appear on the queue are instances of
+         * {@link ListenerReference}.
+         *
+         * @param listener the real event listener object, must not be null.
+         * @param queue the reference queue, may be null.
+         */
+        public EventListener(Object listener, ReferenceQueue<Object> queue) {
+            this(listener, null, queue);
+        }
+
+        /**
+         * Creates a new
+         * <code>EventListener</code> with a routing key, which applies to all
+         * event listener methods that do not declare a routing key of their
+         * own.
+         *
+         * @see EventListenerMethod#routingKey()
+         *
+         * @param listener the real event listener object, must not be null.
+         * @param routingKey the routing key, may be null.
+         * @param queue the reference queue, may be null.
+         */
+        public EventListener(Object listener, String routingKey, ReferenceQueue<Object> queue) {
+            assert listener != null : "listener must not be null";
+            listenerRef = new ListenerReference(listener, queue, this);
+            listenerMethods = findListenerMethods(listener.getClass(), routingKey);
+            final Set<String> keys = new HashSet<String>();
+            boolean anyKey = false;
+            for (ListenerMethod listenerMethod : listenerMethods) {
+                if (listenerMethod.getRoutingKey() == null) {
+                    anyKey = true;
+                } else {
+                    keys.add(listenerMethod.getRoutingKey());
+                }
+            }
+            routingKeys = keys.isEmpty() ? Collections.<String>emptySet() : Collections.unmodifiableSet(keys);
+            acceptsAnyRoutingKey = anyKey;
+        }
+
+        /**
+         * Gets the wrapped event listener object.
+         *
+         * @return the listener, or null if it has been garbage collected.
+         */
+        public Object getListener() {
+            return listenerRef.get();
+        }
+
+        /**
+         * Checks if the wrapped event listener object is still available, i.e.
+         * it has not been garbage collected.
+         *
+         * @return true if the listener is available, false otherwise.
+         */
+        public boolean isAlive() {
+            return listenerRef.get() != null;
+        }
+
+        /**
+         * Checks if this event listener wraps the specified listener object.
+         * The comparison is made using
+         * {@link Object#equals(java.lang.Object)}.
+         *
+         * @param listener the listener object to check, may be null.
+         * @return true if this event listener wraps {@code listener}, false
+         * otherwise.
+         */
+        public boolean wraps(Object listener) {
+            final Object target = listenerRef.get();
+            return target != null && target.equals(listener);
+        }
+
+        /**
+         * Checks if the event listener supports the specified event. That is,
+         * the wrapped event listener has at least one event listener method
+         * that takes the given event as a parameter.
+         *
+         * @see EventListenerMethod
+         *
+         * @param event the event to check, must not be null.
+         * @return true if the event listener supports the event, false
+         * otherwise.
+         */
+        public boolean supports(Event<?> event) {
+            assert event != null : "event must not be null";
+            return supports(event.getPayloadType(), event.getRoutingKey());
+        }
+
+        /**
+         * Checks if the event listener supports events with the specified
+         * payload type and no routing key.
+         *
+         * @see #supports(net.pkhsolutions.ceres.eventbus.Event)
+         *
+         * @param payloadType the payload type to check, must not be null.
+         * @return true if the event listener supports the payload type, false
+         * otherwise.
+         */
+        public boolean supports(Class<?> payloadType) {
+            return supports(payloadType, null);
+        }
+
+        /**
+         * Checks if the event listener supports events with the specified
+         * payload type and routing key.
+         *
+         * @see #supports(net.pkhsolutions.ceres.eventbus.Event)
+         *
+         * @param payloadType the payload type to check, must not be null.
+         * @param routingKey the routing key to check, may be null.
+         * @return true if the event listener supports the payload type and
+         * routing key, false otherwise.
+         */
+        public boolean supports(Class<?> payloadType, String routingKey) {
+            assert payloadType != null : "payloadType must not be null";
+            for (ListenerMethod listenerMethod : getListenerMethods(payloadType)) {
+                if (listenerMethod.acceptsRoutingKey(routingKey)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets the routing keys declared by the event listener methods,
+         * including the routing key the listener was registered with.
+         *
+         * @see EventListenerMethod#routingKey()
+         *
+         * @return an unmodifiable set of routing keys, never null.
+         */
+        public Set<String> getRoutingKeys() {
+            return routingKeys;
+        }
+
+        /**
+         * Checks if the event listener has methods that accept events
+         * regardless of their routing keys.
+         *
+         * @return true if at least one event listener method has no routing
+         * key, false otherwise.
+         */
+        public boolean acceptsAnyRoutingKey() {
+            return acceptsAnyRoutingKey;
+        }
+
+        /**
+         * Handles the specified event by invoking all event listener methods of
+         * the wrapped event listener that take the given event as a parameter.
+         * If the event is not supported by the listener, nothing happens.
+         *
+         * @see #supports(net.pkhsolutions.ceres.eventbus.Event)
+         * @see EventListenerMethod
+         *
+         * @param event the event to handle, must not be null.
+         */
+        public void handleEvent(Event<?> event) {
+            handleEvent(event, NoEventBusMetrics.INSTANCE);
+        }
+
+        /**
+         * Handles the specified event like {@link #handleEvent(net.pkhsolutions.ceres.eventbus.Event)
+         * }, reporting the duration of every listener method invocation to the
+         * specified metrics.
+         *
+         * @param event the event to handle, must not be null.
+         * @param metrics the metrics to report to, must not be null.
+         */
+        public void handleEvent(Event<?> event, EventBusMetrics metrics) {
+            assert event != null : "event must not be null";
+            assert metrics != null : "metrics must not be null";
+            final ListenerMethod[] listenerMethodsToInvoke = getListenerMethods(event.getPayloadType());
+            if (listenerMethodsToInvoke.length == 0) {
+                return;
+            }
+            final Object target = listenerRef.get();
+            if (target != null) {
+                final String routingKey = routingKeys.isEmpty() ? null : event.getRoutingKey();
+                for (ListenerMethod listenerMethod : listenerMethodsToInvoke) {
+                    if (listenerMethod.acceptsRoutingKey(routingKey)) {
+                        listenerMethod.invoke(target, event, metrics);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Handles the specified events. Event listener methods that accept
+         * single events are invoked once for every supported event, in order.
+         * Event listener methods that accept lists of events are invoked once,
+         * with all the supported events in a single list.
+         *
+         * @see #handleEvent(net.pkhsolutions.ceres.eventbus.Event)
+         * @see EventListenerMethod
+         *
+         * @param events the events to handle, must not be null.
+         */
+        public void handleEvents(List<Event<?>> events) {
+            handleEvents(events, NoEventBusMetrics.INSTANCE);
+        }
+
+        /**
+         * Handles the specified events like {@link #handleEvents(java.util.List)
+         * }, reporting the duration of every listener method invocation to the
+         * specified metrics.
+         *
+         * @param events the events to handle, must not be null.
+         * @param metrics the metrics to report to, must not be null.
+         */
+        public void handleEvents(List<Event<?>> events, EventBusMetrics metrics) {
+            assert events != null : "events must not be null";
+            assert metrics != null : "metrics must not be null";
+            if (events.size() == 1) {
+                handleEvent(events.get(0), metrics);
+                return;
+            }
+            final Object target = listenerRef.get();
+            if (target == null) {
+                return;
+            }
+            Map<ListenerMethod, List<Event<?>>> batches = null;
+            for (Event<?> event : events) {
+                final String routingKey = routingKeys.isEmpty() ? null : event.getRoutingKey();
+                for (ListenerMethod listenerMethod : getListenerMethods(event.getPayloadType())) {
+                    if (!listenerMethod.acceptsRoutingKey(routingKey)) {
+                        continue;
+                    }
+                    if (listenerMethod.isBatch()) {
+                        if (batches == null) {
+                            batches = new LinkedHashMap<ListenerMethod, List<Event<?>>>();
+                        }
+                        List<Event<?>> batch = batches.get(listenerMethod);
+                        if (batch == null) {
+                            batch = new ArrayList<Event<?>>();
+                            batches.put(listenerMethod, batch);
+                        }
+                        batch.add(event);
+                    } else {
+                        listenerMethod.invoke(target, event, metrics);
+                    }
+                }
+            }
+            if (batches != null) {
+                for (Map.Entry<ListenerMethod, List<Event<?>>> batch : batches.entrySet()) {
+                    batch.getKey().invoke(target, batch.getValue(), metrics);
+                }
+            }
+        }
+
+        /**
+         * Gets the highest {@link EventListenerMethod#priority() priority} of
+         * the event listener methods that the specified event would be
+         * delivered to, taking both its payload type and its routing key into
+         * account.
+         *
+         * @param event the event, must not be null.
+         * @return the priority, or 0 if no method accepts the event.
+         */
+        public int getPriority(Event<?> event) {
+            final String routingKey = routingKeys.isEmpty() ? null : event.getRoutingKey();
+            boolean accepted = false;
+            int priority = Integer.MIN_VALUE;
+            for (ListenerMethod listenerMethod : getListenerMethods(event.getPayloadType())) {
+                if (listenerMethod.acceptsRoutingKey(routingKey)) {
+                    accepted = true;
+                    priority = Math.max(priority, listenerMethod.getPriority());
+                }
+            }
+            return accepted ? priority : 0;
+        }
+
+        /**
+         * Gets the shortest {@link EventListenerMethod#deadline() deadline} of
+         * the event listener methods that the specified event would be
+         * delivered to, taking both its payload type and its routing key into
+         * account.
+         *
+         * @param event the event, must not be null.
+         * @return the deadline in milliseconds, or 0 if none of the methods has
+         * a deadline.
+         */
+        public long getDeadline(Event<?> event) {
+            final String routingKey = routingKeys.isEmpty() ? null : event.getRoutingKey();
+            long deadline = 0;
+            for (ListenerMethod listenerMethod : getListenerMethods(event.getPayloadType())) {
+                final long methodDeadline = listenerMethod.getDeadline();
+                if (methodDeadline > 0 && (deadline == 0 || methodDeadline < deadline) && listenerMethod.acceptsRoutingKey(routingKey)) {
+                    deadline = methodDeadline;
+                }
+            }
+            return deadline;
+        }
+
+        private ListenerMethod[] getListenerMethods(Class<?> payloadType) {
+            ListenerMethod[] methods = listenerMethodsByPayloadType.get(payloadType);
+            if (methods == null) {
+                final List<ListenerMethod> methodList = new ArrayList<ListenerMethod>(listenerMethods.length);
+                for (ListenerMethod listenerMethod : listenerMethods) {
+                    if (listenerMethod.accepts(payloadType)) {
+                        methodList.add(listenerMethod);
+                    }
+                }
+                methods = methodList.isEmpty() ? NO_METHODS : methodList.toArray(new ListenerMethod[methodList.size()]);
+                listenerMethodsByPayloadType.put(payloadType, methods);
             }
             return methods;
         }
+
+        private static ListenerMethod[] findListenerMethods(Class<?> listenerClass, String routingKey) {
+            final Set<Method> methods = new HashSet<Method>();
+            findListenerMethods(listenerClass, methods);
+            final List<ListenerMethod> listenerMethods = new ArrayList<ListenerMethod>(methods.size());
+            for (Method m : methods) {
+                final boolean batch = m.getParameterTypes()[0] == List.class;
+                Type eventType = m.getGenericParameterTypes()[0];
+                if (batch) {
+                    eventType = eventType instanceof ParameterizedType ? ((ParameterizedType) eventType).getActualTypeArguments()[0] : null;
+                    if (!(eventType instanceof ParameterizedType) || ((ParameterizedType) eventType).getRawType() != Event.class) {
+                        continue;
+                    }
+                }
+                if (eventType instanceof ParameterizedType) {
+                    final Type acceptedPayloadType = ((ParameterizedType) eventType).getActualTypeArguments()[0];
+                    if (acceptedPayloadType instanceof Class) {
+                        listenerMethods.add(new ListenerMethod(m, (Class<?>) acceptedPayloadType, batch, routingKey));
+                    }
+                }
+            }
+            return listenerMethods.toArray(new ListenerMethod[listenerMethods.size()]);
+        }
+
+        private static void findListenerMethods(Class<?> listenerClass, Set<Method> methods) {
+            Class<?> classToInspect = listenerClass;
+            while (classToInspect != Object.class && classToInspect != null) {
+                for (Method m : classToInspect.getDeclaredMethods()) {
+                    if (m.isAnnotationPresent(EventListenerMethod.class)
+                            && m.getParameterTypes().length == 1
+                            && (m.getParameterTypes()[0] == Event.class || m.getParameterTypes()[0] == List.class)) {
+                        methods.add(m);
+                    }
+                }
+                if (!classToInspect.isInterface()) {
+                    for (Class<?> interfaceToInspect : classToInspect.getInterfaces()) {
+                        findListenerMethods(interfaceToInspect, methods);
+                    }
+                }
+                classToInspect = classToInspect.getSuperclass();
+            }
+        }
+    }
+
+    /**
+     * Weak reference to a real event listener object that knows which
+     * {@link EventListener} it belongs to, so that the event listener can be
+     * removed once the reference has been enqueued.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    protected static final class ListenerReference extends WeakReference<Object> {
+
+        final EventListener eventListener;
+
+        ListenerReference(Object listener, ReferenceQueue<Object> queue, EventListener eventListener) {
+            super(listener, queue);
+            this.eventListener = eventListener;
+        }
+
+        /**
+         * Gets the event listener that wraps the referenced listener object.
+         *
+         * @return the event listener, never null.
+         */
+        public EventListener getEventListener() {
+            return eventListener;
+        }
+    }
+
+    /**
+     * This class represents a single event listener method together with the
+     * payload type it accepts. The payload type is resolved from the generic
+     * parameter type once, when the method is discovered. If the annotation
+     * processor has generated an {@link EventListenerInvoker} for the method,
+     * it is used to invoke the method. Otherwise, the method is invoked using
+     * reflection. Batch methods, i.e. methods that accept a list of events, are
+     * always invoked using reflection.
+     *
+     * @see EventListenerMethod
+     * @see EventListenerInvokerProvider
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    protected static final class ListenerMethod {
+
+        private static final Map<Class<?>, WeakReference<EventListenerInvokerProvider>> invokerProviders = new WeakHashMap<Class<?>, WeakReference<EventListenerInvokerProvider>>();
+        private static final WeakReference<EventListenerInvokerProvider> NO_INVOKER_PROVIDER = new WeakReference<EventListenerInvokerProvider>(null);
+        private final Method method;
+        private final Class<?> acceptedPayloadType;
+        private final boolean batch;
+        private final EventListenerInvoker invoker;
+        private final int priority;
+        private final long deadline;
+        private final String routingKey;
+
+        ListenerMethod(Method method, Class<?> acceptedPayloadType, boolean batch, String defaultRoutingKey) {
+            this.method = method;
+            this.acceptedPayloadType = acceptedPayloadType;
+            this.batch = batch;
+            final EventListenerMethod annotation = method.getAnnotation(EventListenerMethod.class);
+            this.priority = annotation.priority();
+            this.deadline = Math.max(annotation.deadline(), 0L);
+            this.routingKey = annotation.routingKey().length() > 0 ? annotation.routingKey() : defaultRoutingKey;
+            final EventListenerInvoker generatedInvoker = batch ? null : findGeneratedInvoker(method, acceptedPayloadType);
+            this.invoker = generatedInvoker == null ? new ReflectiveInvoker(method) : generatedInvoker;
+        }
+
+        /**
+         * Gets the annotated method.
+         *
+         * @return the method, never null.
+         */
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the payload type accepted by the method.
+         *
+         * @return the payload type, never null.
+         */
+        public Class<?> getAcceptedPayloadType() {
+            return acceptedPayloadType;
+        }
+
+        /**
+         * Checks if the method accepts a list of events instead of a single
+         * event.
+         *
+         * @return true if the method is a batch method, false otherwise.
+         */
+        public boolean isBatch() {
+            return batch;
+        }
+
+        /**
+         * Gets the priority declared by the method.
+         *
+         * @see EventListenerMethod#priority()
+         *
+         * @return the priority.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Gets the deadline declared by the method.
+         *
+         * @see EventListenerMethod#deadline()
+         *
+         * @return the deadline in milliseconds, or 0 if there is none.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Gets the routing key of the method, which is either declared by the
+         * method or the routing key the listener was registered with.
+         *
+         * @see EventListenerMethod#routingKey()
+         *
+         * @return the routing key, or null if the method accepts events
+         * regardless of their routing keys.
+         */
+        public String getRoutingKey() {
+            return routingKey;
+        }
+
+        /**
+         * Gets the invoker that is used to invoke the method.
+         *
+         * @return the invoker, never null.
+         */
+        public EventListenerInvoker getInvoker() {
+            return invoker;
+        }
+
+        /**
+         * Checks if the method accepts events with the specified payload type.
+         *
+         * @param payloadType the payload type to check, must not be null.
+         * @return true if the method accepts the payload type, false otherwise.
+         */
+        public boolean accepts(Class<?> payloadType) {
+            return acceptedPayloadType.isAssignableFrom(payloadType);
+        }
+
+        /**
+         * Checks if the method accepts events with the specified routing key.
+         *
+         * @param routingKey the routing key of the event, may be null.
+         * @return true if the method has no routing key or its routing key is
+         * equal to {@code routingKey}, false otherwise.
+         */
+        public boolean acceptsRoutingKey(String routingKey) {
+            return this.routingKey == null || this.routingKey.equals(routingKey);
+        }
+
+        /**
+         * Invokes the method on the specified target, passing in the specified
+         * event.
+         *
+         * @param target the object to invoke the method on, must not be null.
+         * @param event the event to pass to the method, must not be null.
+         */
+        public void invoke(Object target, Event<?> event) {
+            if (batch) {
+                invoke(target, Collections.<Event<?>>singletonList(event));
+                return;
+            }
+            try {
+                invoker.invoke(target, event);
+            } catch (Exception e) {
+                throw new RuntimeException("Error invoking method " + method.getName(), e);
+            }
+        }
+
+        /**
+         * Invokes the method on the specified target, passing in the specified
+         * events. If the method is not a batch method, it is invoked once for
+         * each event.
+         *
+         * @param target the object to invoke the method on, must not be null.
+         * @param events the events to pass to the method, must not be null.
+         */
+        public void invoke(Object target, List<Event<?>> events) {
+            if (!batch) {
+                for (Event<?> event : events) {
+                    invoke(target, event);
+                }
+                return;
+            }
+            try {
+                method.invoke(target, events);
+            } catch (Exception e) {
+                throw new RuntimeException("Error invoking method " + method.getName(), e);
+            }
+        }
+
+        /**
+         * Invokes the method like {@link #invoke(java.lang.Object, net.pkhsolutions.ceres.eventbus.Event)
+         * }, reporting the duration of the invocation to the specified metrics.
+         * The duration is only measured if metrics are being collected.
+         *
+         * @param target the object to invoke the method on, must not be null.
+         * @param event the event to pass to the method, must not be null.
+         * @param metrics the metrics to report to, must not be null.
+         */
+        public void invoke(Object target, Event<?> event, EventBusMetrics metrics) {
+            if (metrics == NoEventBusMetrics.INSTANCE) {
+                invoke(target, event);
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                invoke(target, event);
+            } finally {
+                metrics.listenerInvoked(method, 1, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Invokes the method like {@link #invoke(java.lang.Object, java.util.List)
+         * }, reporting the duration of the invocation to the specified metrics.
+         * The duration is only measured if metrics are being collected.
+         *
+         * @param target the object to invoke the method on, must not be null.
+         * @param events the events to pass to the method, must not be null.
+         * @param metrics the metrics to report to, must not be null.
+         */
+        public void invoke(Object target, List<Event<?>> events, EventBusMetrics metrics) {
+            if (metrics == NoEventBusMetrics.INSTANCE) {
+                invoke(target, events);
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                invoke(target, events);
+            } finally {
+                metrics.listenerInvoked(method, events.size(), System.nanoTime() - start);
+            }
+        }
+
+        private static EventListenerInvoker findGeneratedInvoker(Method method, Class<?> acceptedPayloadType) {
+            final EventListenerInvokerProvider provider = findInvokerProvider(method.getDeclaringClass());
+            return provider == null ? null : provider.getInvoker(method.getName() + "(" + acceptedPayloadType.getName() + ")");
+        }
+
+        private static EventListenerInvokerProvider findInvokerProvider(Class<?> listenerType) {
+            synchronized (invokerProviders) {
+                final WeakReference<EventListenerInvokerProvider> providerRef = invokerProviders.get(listenerType);
+                if (providerRef == NO_INVOKER_PROVIDER) {
+                    return null;
+                }
+                EventListenerInvokerProvider provider = providerRef == null ? null : providerRef.get();
+                if (provider == null) {
+                    provider = loadInvokerProvider(listenerType);
+                    invokerProviders.put(listenerType, provider == null ? NO_INVOKER_PROVIDER : new WeakReference<EventListenerInvokerProvider>(provider));
+                }
+                return provider;
+            }
+        }
+
+        private static EventListenerInvokerProvider loadInvokerProvider(Class<?> listenerType) {
+            final String typeName = listenerType.getName();
+            final int packageEnd = typeName.lastIndexOf('.') + 1;
+            final String providerName = typeName.substring(0, packageEnd)
+                    + typeName.substring(packageEnd).replace('$', '_')
+                    + EventListenerInvokerProvider.CLASS_NAME_SUFFIX;
+            try {
+                final Class<?> providerClass = Class.forName(providerName, true, listenerType.getClassLoader());
+                return (EventListenerInvokerProvider) providerClass.newInstance();
+            } catch (ClassNotFoundException e) {
+                return null;
+            } catch (Exception e) {
+                LoggerFactory.getLogger(AbstractEventBus.class).warn("Could not load event listener invokers " + providerName + ", using reflection instead", e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Event listener invoker that invokes the method using reflection. The
+     * method is made accessible once, when the invoker is created, and is never
+     * reset.
+     */
+    private static final class ReflectiveInvoker implements EventListenerInvoker {
+
+        private final Method method;
+
+        ReflectiveInvoker(Method method) {
+            this.method = method;
+            try {
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                LoggerFactory.getLogger(AbstractEventBus.class).warn("Could not make method {} accessible", method);
+            }
+        }
+
+        @Override
+        public void invoke(Object listener, Event<?> event) throws Exception {
+            method.invoke(listener, event);
+        }
     }
 }
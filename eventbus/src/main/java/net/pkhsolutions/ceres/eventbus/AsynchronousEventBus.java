@@ -15,15 +15,47 @@
  */
 package net.pkhsolutions.ceres.eventbus;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pkhsolutions.ceres.common.holder.ContextHolderStrategy;
+import net.pkhsolutions.ceres.common.holder.HolderContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An asynchronous implementation of {@link EventBus} that invokes the listeners
- * using an {@link ExecutorService}. Every listener invocation is submitted as a
- * separate job. By default, a cached thread pool is used to execute the jobs.
- * Subclasses can change this by overriding {@link #createExecutorService() }.
- * <p> <b>Note!</b> When using this event bus, make sure that the listeners are
+ * using an {@link ExecutorService}. <p> By default, every listener invocation is
+ * submitted as a separate job, which means that a listener may receive events
+ * out of order and even concurrently. If the bus is created with
+ * {@link DeliveryOrder#ORDERED_PER_LISTENER}, every listener instead gets a
+ * mailbox of its own. Events are delivered from the mailbox one at a time and
+ * in the order they were published, while different listeners are still
+ * notified in parallel. With {@link DeliveryOrder#PRIORITIZED}, waiting
+ * listener invocations are performed in the order of the
+ * {@link EventListenerMethod#priority() priorities} and
+ * {@link EventListenerMethod#deadline() deadlines} of the listener methods,
+ * and invocations that miss their deadlines are reported. <p> Events with a {@link Conflatable} payload, or
+ * more generally a non-null {@link Event#getConflationKey() conflation key},
+ * are conflated while they wait for a listener: if a newer event with the same
+ * payload type and key is published before the listener has been notified of
+ * the older one, the listener only receives the newer event. <p> The executor service is created the first time an event is
+ * published and is then reused for the entire lifetime of the event bus. By
+ * default, a thread pool with a fixed maximum number of daemon threads and a
+ * bounded work queue is used. When the queue is full, the rejected execution
+ * handler decides what happens; the default handler runs the listener in the
+ * publishing thread, which slows down publishers until the pool catches up.
+ * Subclasses can change the executor service by overriding {@link #createExecutorService()
+ * } and the way listeners are invoked by overriding
+ * {@link #notifyListener(AbstractEventBus.EventListener, Event, EventBusMetrics) notifyListener}
+ * ; see {@link VirtualThreadEventBus} for an example. The number of deliveries waiting for a thread is reported to the
+ * {@link EventBusMetrics} of the bus. <p> Holders that use a
+ * {@link ContextHolderStrategy} are captured in a {@link HolderContext} once
+ * per publication and installed for every delivery, so listeners see the
+ * holder objects of the publishing thread. A mailbox delivers a whole batch of events in the
+ * context of the publisher that scheduled the batch. <p> Call {@link #shutdown()} when the event bus is no longer needed. <p>
+ * <b>Note!</b> When using this event bus, make sure that the listeners are
  * thread safe!
  *
  * @author Petter Holmström
@@ -31,29 +63,794 @@ import java.util.concurrent.Executors;
  */
 public class AsynchronousEventBus extends AbstractEventBus {
 
+    /**
+     * The default maximum number of threads used to notify listeners, which is
+     * twice the number of available processors.
+     */
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    /**
+     * The default maximum number of listener invocations waiting for a thread.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(AsynchronousEventBus.class);
+    private final int poolSize;
+    private final int queueCapacity;
+    private final RejectedExecutionHandler rejectedExecutionHandler;
+    private final Object executorServiceLock = new Object();
+    private final DeliveryOrder deliveryOrder;
+    private final ConcurrentMap<EventListener, Mailbox> mailboxes = new ConcurrentHashMap<EventListener, Mailbox>();
+    private final ConcurrentMap<PendingKey, Event<?>> pendingConflatableEvents = new ConcurrentHashMap<PendingKey, Event<?>>();
+    private final AtomicLong deliverySequence = new AtomicLong();
+    private volatile ExecutorService executorService;
+    private volatile boolean shutdown;
+
+    /**
+     * Enumeration of the orders in which events can be delivered to the
+     * listeners.
+     */
+    public enum DeliveryOrder {
+
+        /**
+         * Every listener invocation is a separate job. A listener may receive
+         * events in any order and may be invoked by several threads at the
+         * same time.
+         */
+        UNORDERED,
+        /**
+         * Every listener receives its events one at a time, in the order they
+         * were published on the bus. Different listeners may still be invoked
+         * at the same time. The queue capacity applies to every listener
+         * separately; when the mailbox of a listener is full, the publishing
+         * thread waits until there is room.
+         */
+        ORDERED_PER_LISTENER,
+        /**
+         * Every listener invocation is a separate job, like with
+         * {@link #UNORDERED}. Jobs waiting for a thread are ordered by the
+         * priority of the listener methods, then by their deadlines and
+         * finally by the order they were published in. Jobs that complete after
+         * their deadline are logged and reported to the
+         * {@link EventBusMetrics} of the bus. This only applies to the default
+         * executor service.
+         */
+        PRIORITIZED
+    }
+
+    /**
+     * Creates a new
+     * <code>AsynchronousEventBus</code> with the default pool size and queue
+     * capacity.
+     *
+     * @see #DEFAULT_POOL_SIZE
+     * @see #DEFAULT_QUEUE_CAPACITY
+     */
+    public AsynchronousEventBus() {
+        this(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a new
+     * <code>AsynchronousEventBus</code> that runs listeners in the publishing
+     * thread when the queue is full.
+     *
+     * @param poolSize the maximum number of threads, must be greater than 0.
+     * @param queueCapacity the maximum number of listener invocations waiting
+     * for a thread, must be greater than 0.
+     */
+    public AsynchronousEventBus(int poolSize, int queueCapacity) {
+        this(poolSize, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Creates a new
+     * <code>AsynchronousEventBus</code> with the default pool size and queue
+     * capacity and the specified delivery order.
+     *
+     * @param deliveryOrder the delivery order, must not be null.
+     */
+    public AsynchronousEventBus(DeliveryOrder deliveryOrder) {
+        this(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.CallerRunsPolicy(), deliveryOrder);
+    }
+
+    /**
+     * Creates a new
+     * <code>AsynchronousEventBus</code>.
+     *
+     * @param poolSize the maximum number of threads, must be greater than 0.
+     * @param queueCapacity the maximum number of listener invocations waiting
+     * for a thread, must be greater than 0.
+     * @param rejectedExecutionHandler the handler to use when the queue is
+     * full, must not be null.
+     */
+    public AsynchronousEventBus(int poolSize, int queueCapacity, RejectedExecutionHandler rejectedExecutionHandler) {
+        this(poolSize, queueCapacity, rejectedExecutionHandler, DeliveryOrder.UNORDERED);
+    }
+
+    /**
+     * Creates a new
+     * <code>AsynchronousEventBus</code>.
+     *
+     * @param poolSize the maximum number of threads, must be greater than 0.
+     * @param queueCapacity the maximum number of listener invocations waiting
+     * for a thread, must be greater than 0.
+     * @param rejectedExecutionHandler the handler to use when the queue is
+     * full, must not be null.
+     * @param deliveryOrder the delivery order, must not be null.
+     */
+    public AsynchronousEventBus(int poolSize, int queueCapacity, RejectedExecutionHandler rejectedExecutionHandler, DeliveryOrder deliveryOrder) {
+        if (poolSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Pool size and queue capacity must be greater than 0");
+        }
+        assert rejectedExecutionHandler != null : "rejectedExecutionHandler must not be null";
+        assert deliveryOrder != null : "deliveryOrder must not be null";
+        this.poolSize = poolSize;
+        this.queueCapacity = queueCapacity;
+        this.rejectedExecutionHandler = rejectedExecutionHandler;
+        this.deliveryOrder = deliveryOrder;
+    }
+
+    /**
+     * Gets the order in which events are delivered to the listeners.
+     *
+     * @return the delivery order, never null.
+     */
+    public DeliveryOrder getDeliveryOrder() {
+        return deliveryOrder;
+    }
+
     @Override
     protected void doPublishEvent(final Event<?> event) {
-        final ExecutorService execService = createExecutorService();
-        for (final EventListener listener : getEventListeners()) {
-            if (listener.supports(event)) {
-                execService.submit(new Runnable() {
+        final ExecutorService execService;
+        try {
+            execService = getExecutorService();
+        } catch (RejectedExecutionException e) {
+            logger.warn("Event bus has been shut down, ignoring event {}", event);
+            deliveryFailed(event, e);
+            return;
+        }
+        if (shutdown) {
+            logger.warn("Event bus has been shut down, ignoring event {}", event);
+            deliveryFailed(event, new RejectedExecutionException("Event bus has been shut down"));
+            return;
+        }
+        final HolderContext context = HolderContext.capture();
+        if (deliveryOrder == DeliveryOrder.ORDERED_PER_LISTENER) {
+            final List<Event<?>> events = Collections.<Event<?>>singletonList(event);
+            for (EventListener listener : getEventListeners(event)) {
+                postToMailbox(execService, listener, events, context);
+            }
+            return;
+        }
+        final Object conflationKey = event.getConflationKey();
+        final EventBusMetrics metrics = getMetrics();
+        for (final EventListener listener : getEventListeners(event)) {
+            if (conflationKey != null) {
+                executeConflatable(execService, listener, event, conflationKey, context);
+                continue;
+            }
+            metrics.deliveriesQueued(this, 1);
+            deliveryScheduled(event);
+            try {
+                schedule(execService, listener, event, context, new Runnable() {
 
                     @Override
                     public void run() {
-                        listener.handleEvent(event);
+                        metrics.deliveriesDequeued(AsynchronousEventBus.this, 1);
+                        RuntimeException failure = null;
+                        try {
+                            notifyListener(listener, event, metrics);
+                        } catch (RuntimeException e) {
+                            logger.error("Error notifying listener of event " + event, e);
+                            failure = e;
+                        } finally {
+                            deliveryCompleted(event, failure);
+                        }
                     }
                 });
+            } catch (RejectedExecutionException e) {
+                metrics.deliveriesDequeued(this, 1);
+                deliveryCompleted(event, e);
+                rejected(e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc} <p> Every listener is notified of all its events by a
+     * single job, or through a single post to its mailbox if the events are
+     * delivered in order.
+     */
+    @Override
+    protected void doPublishEvents(List<Event<?>> events) {
+        final ExecutorService execService;
+        try {
+            execService = getExecutorService();
+        } catch (RejectedExecutionException e) {
+            logger.warn("Event bus has been shut down, ignoring {} events", events.size());
+            deliveriesFailed(events, e);
+            return;
+        }
+        if (shutdown) {
+            logger.warn("Event bus has been shut down, ignoring {} events", events.size());
+            deliveriesFailed(events, new RejectedExecutionException("Event bus has been shut down"));
+            return;
+        }
+        final EventBusMetrics metrics = getMetrics();
+        final HolderContext context = HolderContext.capture();
+        for (Map.Entry<EventListener, List<Event<?>>> entry : groupByEventListener(events).entrySet()) {
+            final EventListener listener = entry.getKey();
+            final List<Event<?>> listenerEvents = conflate(entry.getValue());
+            if (deliveryOrder == DeliveryOrder.ORDERED_PER_LISTENER) {
+                postToMailbox(execService, listener, listenerEvents, context);
+            } else {
+                metrics.deliveriesQueued(this, listenerEvents.size());
+                deliveryScheduled(listenerEvents);
+                try {
+                    schedule(execService, listener, listenerEvents, context, new Runnable() {
+
+                        @Override
+                        public void run() {
+                            metrics.deliveriesDequeued(AsynchronousEventBus.this, listenerEvents.size());
+                            RuntimeException failure = null;
+                            try {
+                                notifyListener(listener, listenerEvents, metrics);
+                            } catch (RuntimeException e) {
+                                logger.error("Error notifying listener of " + listenerEvents.size() + " events", e);
+                                failure = e;
+                            } finally {
+                                deliveryCompleted(listenerEvents, failure);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    metrics.deliveriesDequeued(this, listenerEvents.size());
+                    deliveryCompleted(listenerEvents, e);
+                    rejected(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the delivery of a conflatable event to the listener. If an
+     * earlier event with the same payload type and conflation key is still
+     * waiting for the listener, the event replaces it and no new job is
+     * submitted.
+     */
+    private void executeConflatable(ExecutorService execService, final EventListener listener, final Event<?> event, Object conflationKey,
+            HolderContext context) {
+        final PendingKey pendingKey = new PendingKey(listener, event.getPayloadType(), conflationKey);
+        deliveryScheduled(event);
+        final Event<?> replacedEvent = pendingConflatableEvents.put(pendingKey, event);
+        if (replacedEvent != null) {
+            deliveryCompleted(replacedEvent, null);
+            return;
+        }
+        final EventBusMetrics metrics = getMetrics();
+        metrics.deliveriesQueued(this, 1);
+        try {
+            schedule(execService, listener, event, context, new Runnable() {
+
+                @Override
+                public void run() {
+                    metrics.deliveriesDequeued(AsynchronousEventBus.this, 1);
+                    final Event<?> latestEvent = pendingConflatableEvents.remove(pendingKey);
+                    if (latestEvent == null) {
+                        return;
+                    }
+                    RuntimeException failure = null;
+                    try {
+                        notifyListener(listener, latestEvent, metrics);
+                    } catch (RuntimeException e) {
+                        logger.error("Error notifying listener of event " + latestEvent, e);
+                        failure = e;
+                    } finally {
+                        deliveryCompleted(latestEvent, failure);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            final Event<?> discardedEvent = pendingConflatableEvents.remove(pendingKey);
+            if (discardedEvent != null) {
+                deliveryCompleted(discardedEvent, e);
+            }
+            metrics.deliveriesDequeued(this, 1);
+            rejected(e);
+        }
+    }
+
+    /**
+     * Handles a job that the executor service has rejected after its delivery
+     * has been completed with the failure. If the event bus has been shut
+     * down while the event was being published, the event is ignored like any
+     * other event published after the shutdown. Otherwise, the exception is
+     * rethrown to the publisher.
+     */
+    private void rejected(RejectedExecutionException e) {
+        if (!shutdown) {
+            throw e;
+        }
+        logger.warn("Event bus was shut down while publishing, ignoring delivery");
+    }
+
+    private static void deliveriesFailed(List<Event<?>> events, Throwable failure) {
+        for (Event<?> event : events) {
+            deliveryFailed(event, failure);
+        }
+    }
+
+    /**
+     * Notifies the listener of the event. This method is called by the threads
+     * of the executor service. The default implementation simply lets the
+     * listener handle the event; subclasses may override to control how the
+     * listeners are invoked.
+     *
+     * @param listener the listener to notify, never null.
+     * @param event the event, never null.
+     * @param metrics the metrics to report listener invocations to, never
+     * null.
+     */
+    protected void notifyListener(EventListener listener, Event<?> event, EventBusMetrics metrics) {
+        listener.handleEvent(event, metrics);
+    }
+
+    /**
+     * Notifies the listener of the events. This method is called by the
+     * threads of the executor service. The default implementation simply lets
+     * the listener handle the events; subclasses may override to control how
+     * the listeners are invoked.
+     *
+     * @param listener the listener to notify, never null.
+     * @param events the events, never null or empty.
+     * @param metrics the metrics to report listener invocations to, never
+     * null.
+     */
+    protected void notifyListener(EventListener listener, List<Event<?>> events, EventBusMetrics metrics) {
+        listener.handleEvents(events, metrics);
+    }
+
+    /**
+     * Submits the job that notifies the listener of the event, wrapping it in
+     * a {@link PrioritizedJob} if the deliveries are prioritized. The job runs
+     * in the context captured once for the whole publication.
+     */
+    private void schedule(ExecutorService execService, EventListener listener, Event<?> event, HolderContext context, Runnable job) {
+        if (deliveryOrder != DeliveryOrder.PRIORITIZED) {
+            execService.execute(context.wrap(job));
+            return;
+        }
+        final Class<?> payloadType = event.getPayloadType();
+        final long deadline = listener.getDeadline(event);
+        execService.execute(new PrioritizedJob(context.wrap(job), listener, payloadType, listener.getPriority(event),
+                deadline == 0 ? PrioritizedJob.NO_DEADLINE : event.getTimestamp() + deadline));
+    }
+
+    /**
+     * Submits the job that notifies the listener of the events. If the
+     * deliveries are prioritized, the highest priority and earliest deadline
+     * of the events apply.
+     */
+    private void schedule(ExecutorService execService, EventListener listener, List<Event<?>> events, HolderContext context, Runnable job) {
+        if (deliveryOrder != DeliveryOrder.PRIORITIZED || events.size() == 1) {
+            schedule(execService, listener, events.get(0), context, job);
+            return;
+        }
+        int priority = Integer.MIN_VALUE;
+        long dueTime = PrioritizedJob.NO_DEADLINE;
+        Class<?> dueTimePayloadType = events.get(0).getPayloadType();
+        for (Event<?> event : events) {
+            priority = Math.max(priority, listener.getPriority(event));
+            final long deadline = listener.getDeadline(event);
+            if (deadline > 0 && event.getTimestamp() + deadline < dueTime) {
+                dueTime = event.getTimestamp() + deadline;
+                dueTimePayloadType = event.getPayloadType();
+            }
+        }
+        execService.execute(new PrioritizedJob(context.wrap(job), listener, dueTimePayloadType, priority, dueTime));
+    }
+
+    private void postToMailbox(ExecutorService execService, EventListener listener, List<Event<?>> events, HolderContext context) {
+        while (true) {
+            Mailbox mailbox = mailboxes.get(listener);
+            if (mailbox == null) {
+                final Mailbox newMailbox = new Mailbox(listener);
+                mailbox = mailboxes.putIfAbsent(listener, newMailbox);
+                if (mailbox == null) {
+                    mailbox = newMailbox;
+                }
+            }
+            if (mailbox.post(execService, events, context)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the executor service, creating it if it does not exist yet.
+     *
+     * @see #createExecutorService()
+     *
+     * @return the executor service, never null.
+     * @throws RejectedExecutionException if the event bus has been shut down.
+     */
+    protected ExecutorService getExecutorService() {
+        ExecutorService execService = executorService;
+        if (execService == null) {
+            synchronized (executorServiceLock) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Event bus has been shut down");
+                }
+                execService = executorService;
+                if (execService == null) {
+                    execService = createExecutorService();
+                    executorService = execService;
+                }
             }
         }
-        execService.shutdown();
+        return execService;
     }
 
     /**
      * Creates the executor service to use when notifying the event listeners.
-     * The default implementation calls {@link Executors#newCachedThreadPool()
-     * }, subclasses may override.
+     * This method is called once, the first time an event is published. The
+     * default implementation creates a {@link ThreadPoolExecutor} with the pool
+     * size, queue capacity and rejected execution handler passed to the
+     * constructor. Idle threads are terminated after one minute. Jobs that are
+     * rejected because the executor has been shut down always cause a
+     * {@link RejectedExecutionException}, whatever the handler, so that their
+     * deliveries can be completed. Subclasses may override, but must make sure
+     * that their executor service does the same.
      */
     protected ExecutorService createExecutorService() {
-        return Executors.newCachedThreadPool();
+        final BlockingQueue<Runnable> workQueue = deliveryOrder == DeliveryOrder.PRIORITIZED
+                ? new BoundedPriorityQueue(queueCapacity)
+                : new ArrayBlockingQueue<Runnable>(queueCapacity);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                60L, TimeUnit.SECONDS,
+                workQueue,
+                new EventBusThreadFactory(),
+                new ShutdownAwareRejectedExecutionHandler(rejectedExecutionHandler));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Shuts down the event bus. Listener invocations that have already been
+     * submitted are still executed, but events published after this method has
+     * been called are ignored.
+     *
+     * @see #awaitTermination(long, java.util.concurrent.TimeUnit)
+     */
+    public void shutdown() {
+        synchronized (executorServiceLock) {
+            shutdown = true;
+            if (executorService != null) {
+                executorService.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the event bus has been shut down.
+     *
+     * @return true if {@link #shutdown()} has been called, false otherwise.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Blocks until all listener invocations have completed after a shutdown
+     * request, or the timeout occurs, or the current thread is interrupted,
+     * whichever happens first.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the time unit of the timeout argument, must not be null.
+     * @return true if all listener invocations have completed, false if the
+     * timeout elapsed first.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if the event bus has not been shut down.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final ExecutorService execService;
+        synchronized (executorServiceLock) {
+            if (!shutdown) {
+                throw new IllegalStateException("Event bus has not been shut down");
+            }
+            execService = executorService;
+        }
+        return execService == null || execService.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Serial queue of events waiting to be delivered to a single listener. The
+     * mailbox is submitted to the executor service when the first event is
+     * posted and is then drained by one thread at a time. All events that are
+     * waiting when the mailbox is drained are handed over to the listener as
+     * one batch. A waiting event is discarded when a newer event that conflates
+     * it is posted. Once the mailbox is empty, it is closed and removed, and the next event posted to the
+     * listener gets a new mailbox.
+     */
+    private final class Mailbox implements Runnable {
+
+        private final EventListener listener;
+        private final LinkedList<Event<?>> events = new LinkedList<Event<?>>();
+        private boolean scheduled;
+        private boolean closed;
+        private Thread drainingThread;
+
+        Mailbox(EventListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Posts the events to the mailbox, scheduling the mailbox for draining
+         * in the context of the publisher if needed.
+         *
+         * @return true if the events were posted, false if the mailbox has
+         * been closed and a new one must be used.
+         */
+        boolean post(ExecutorService execService, List<Event<?>> newEvents, HolderContext context) {
+            int queued = 0;
+            synchronized (this) {
+                /*
+                 * A listener that publishes events to itself must never wait
+                 * for its own mailbox to be drained.
+                 */
+                while (!closed && events.size() >= queueCapacity && drainingThread != Thread.currentThread()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (closed) {
+                    return false;
+                }
+                for (Event<?> newEvent : conflate(newEvents)) {
+                    if (newEvent.getConflationKey() != null) {
+                        for (Iterator<Event<?>> it = events.iterator(); it.hasNext();) {
+                            final Event<?> queuedEvent = it.next();
+                            if (queuedEvent.isConflatedBy(newEvent)) {
+                                it.remove();
+                                deliveryCompleted(queuedEvent, null);
+                                --queued;
+                            }
+                        }
+                    }
+                    deliveryScheduled(newEvent);
+                    events.add(newEvent);
+                    ++queued;
+                }
+                getMetrics().deliveriesQueued(AsynchronousEventBus.this, queued);
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            try {
+                execService.execute(context.wrap(this));
+            } catch (RejectedExecutionException e) {
+                logger.warn("Could not schedule delivery of {} events, discarding pending events", newEvents.size());
+                close(e);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                drainingThread = Thread.currentThread();
+            }
+            while (true) {
+                final List<Event<?>> batch;
+                synchronized (this) {
+                    if (events.isEmpty()) {
+                        close(null);
+                        return;
+                    }
+                    batch = new ArrayList<Event<?>>(events);
+                    events.clear();
+                    notifyAll();
+                }
+                final EventBusMetrics metrics = getMetrics();
+                metrics.deliveriesDequeued(AsynchronousEventBus.this, batch.size());
+                RuntimeException failure = null;
+                try {
+                    notifyListener(listener, batch, metrics);
+                } catch (RuntimeException e) {
+                    logger.error("Error notifying listener of " + batch.size() + " events", e);
+                    failure = e;
+                } finally {
+                    deliveryCompleted(batch, failure);
+                }
+            }
+        }
+
+        /**
+         * Closes the mailbox, discarding the pending events.
+         *
+         * @param failure the reason the pending events are discarded, or null
+         * if there are none.
+         */
+        private synchronized void close(Throwable failure) {
+            closed = true;
+            scheduled = false;
+            drainingThread = null;
+            if (!events.isEmpty()) {
+                getMetrics().deliveriesDequeued(AsynchronousEventBus.this, events.size());
+                deliveryCompleted(events, failure);
+                events.clear();
+            }
+            mailboxes.remove(listener, this);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Job that notifies a listener with a priority and a due time, which
+     * determine its position in a {@link BoundedPriorityQueue}. Jobs with equal
+     * priorities and due times are ordered by their sequence numbers, i.e. in
+     * the order they were submitted.
+     */
+    private final class PrioritizedJob implements Runnable, Comparable<PrioritizedJob> {
+
+        static final long NO_DEADLINE = Long.MAX_VALUE;
+        private final Runnable job;
+        private final EventListener listener;
+        private final Class<?> payloadType;
+        private final int priority;
+        private final long dueTime;
+        private final long sequence = deliverySequence.getAndIncrement();
+
+        PrioritizedJob(Runnable job, EventListener listener, Class<?> payloadType, int priority, long dueTime) {
+            this.job = job;
+            this.listener = listener;
+            this.payloadType = payloadType;
+            this.priority = priority;
+            this.dueTime = dueTime;
+        }
+
+        @Override
+        public void run() {
+            job.run();
+            if (dueTime != NO_DEADLINE) {
+                final long lateness = System.currentTimeMillis() - dueTime;
+                if (lateness > 0) {
+                    final Object target = listener.getListener();
+                    logger.warn("Listener {} handled event with payload type {} {} ms after its deadline",
+                            new Object[]{target, payloadType.getName(), lateness});
+                    getMetrics().deadlineMissed(AsynchronousEventBus.this, target, payloadType, lateness);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedJob other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            if (dueTime != other.dueTime) {
+                return dueTime < other.dueTime ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Priority queue with a maximum capacity, so that a full queue triggers
+     * the rejected execution handler just like an {@link ArrayBlockingQueue}
+     * does. Jobs that are not {@link PrioritizedJob}s are considered equal to
+     * all other jobs.
+     */
+    private static final class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+
+        private static final long serialVersionUID = 7893326979003443607L;
+        private static final Comparator<Runnable> JOB_ORDER = new Comparator<Runnable>() {
+
+            @Override
+            public int compare(Runnable job1, Runnable job2) {
+                if (job1 instanceof PrioritizedJob && job2 instanceof PrioritizedJob) {
+                    return ((PrioritizedJob) job1).compareTo((PrioritizedJob) job2);
+                }
+                return 0;
+            }
+        };
+        private final int capacity;
+
+        BoundedPriorityQueue(int capacity) {
+            super(Math.min(capacity, 64), JOB_ORDER);
+            this.capacity = capacity;
+        }
+
+        /**
+         * Offers are serialized so that concurrent publishers cannot exceed
+         * the capacity together. Taking jobs from the queue is not affected.
+         */
+        @Override
+        public synchronized boolean offer(Runnable job) {
+            return size() < capacity && super.offer(job);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(capacity - size(), 0);
+        }
+    }
+
+    /**
+     * Identifies the pending delivery of conflatable events with a specific
+     * payload type and conflation key to a specific listener.
+     */
+    private static final class PendingKey {
+
+        private final EventListener listener;
+        private final Class<?> payloadType;
+        private final Object conflationKey;
+
+        PendingKey(EventListener listener, Class<?> payloadType, Object conflationKey) {
+            this.listener = listener;
+            this.payloadType = payloadType;
+            this.conflationKey = conflationKey;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PendingKey)) {
+                return false;
+            }
+            final PendingKey other = (PendingKey) obj;
+            return listener == other.listener && payloadType == other.payloadType && conflationKey.equals(other.conflationKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(listener) + payloadType.hashCode()) * 31 + conflationKey.hashCode();
+        }
+    }
+
+    /**
+     * Rejected execution handler that throws a
+     * {@link RejectedExecutionException} when the executor has been shut down
+     * and otherwise delegates to the handler passed to the constructor of the
+     * event bus. Handlers such as
+     * {@link ThreadPoolExecutor.CallerRunsPolicy} silently discard jobs that
+     * are rejected because of a shutdown, which would leave their deliveries
+     * incomplete.
+     */
+    private static final class ShutdownAwareRejectedExecutionHandler implements RejectedExecutionHandler {
+
+        private final RejectedExecutionHandler handler;
+
+        ShutdownAwareRejectedExecutionHandler(RejectedExecutionHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable job, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Event bus has been shut down");
+            }
+            handler.rejectedExecution(job, executor);
+        }
+    }
+
+    /**
+     * Thread factory that creates named daemon threads, so that an event bus
+     * that has not been shut down does not prevent the JVM from exiting.
+     */
+    private static final class EventBusThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        private final String namePrefix = "AsynchronousEventBus-" + poolNumber.incrementAndGet() + "-thread-";
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
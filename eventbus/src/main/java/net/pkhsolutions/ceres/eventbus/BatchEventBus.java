@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.Collection;
+
+/**
+ * Event bus that can publish several events as a batch. This is a separate
+ * interface so that existing implementations of {@link EventBus} keep
+ * compiling; all event buses of this library implement it. When a batch
+ * propagates to a parent bus that does not implement this interface, the
+ * events are published on it one at a time.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface BatchEventBus extends EventBus {
+
+    /**
+     * Publishes one event for each of the specified payloads, all with the
+     * same scope. The events are published in the iteration order of the
+     * collection. Listeners are resolved once per payload type and listeners
+     * with batch methods receive all the events they support in one invocation.
+     *
+     * @see EventListenerMethod
+     * @see #publishEvent(java.lang.Object,
+     * net.pkhsolutions.ceres.eventbus.EventScope)
+     *
+     * @param payloads the event payloads, must not be null or contain null.
+     * @param scope the scope of the events, must not be null.
+     */
+    void publishEvents(Collection<?> payloads, EventScope scope);
+
+    /**
+     * Publishes the specified events as a batch. If the collection is null or
+     * empty, nothing happens. Global events are passed on to the parent bus
+     * in one batch.
+     *
+     * @see #publishEvents(java.util.Collection,
+     * net.pkhsolutions.ceres.eventbus.EventScope)
+     *
+     * @param events the events to publish, may be null.
+     */
+    void publishEvents(Collection<? extends Event<?>> events);
+}
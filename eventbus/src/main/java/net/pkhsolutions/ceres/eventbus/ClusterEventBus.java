@@ -0,0 +1,629 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An event bus that connects the bus hierarchies of several JVMs. The bus is
+ * intended to be the parent of the root bus of every node: GLOBAL events that
+ * reach it are forwarded to the cluster event buses of the other nodes, which
+ * publish them in their own hierarchies. Listeners registered directly on this
+ * bus are invoked synchronously, like with {@link SynchronousEventBus}. <p>
+ * Forwarded events are queued and sent in batches, either when the queue
+ * reaches the maximum batch size or when the flush interval has elapsed. A
+ * batch is encoded into a single binary message: a header with the node id, a
+ * sequence number and the number of events, followed by the timestamp and
+ * payload of every event. The payloads are encoded by an
+ * {@link EventJournal.PayloadCodec}, so they must be serializable by the
+ * codec. The messages are sent and received by a pluggable {@link Transport};
+ * {@link LoopbackTransport} connects buses in the same JVM and is mainly
+ * intended for testing. <p> Events received from another node are published
+ * with a {@link RemoteEventBus} representing that node as their original
+ * event bus. The publication history therefore tells that an event came from
+ * another node, and such events are never sent back to the cluster. Messages
+ * that are received twice, or that arrive after a newer message from the same
+ * node, are discarded. A node that has not sent any messages for
+ * {@link #NODE_TIMEOUT} milliseconds is forgotten. <p> The deliveries on other nodes cannot be tracked, so
+ * a {@link PublicationFuture} only covers the listeners of the local node. Call
+ * {@link #close()} when the event bus is no longer needed.
+ *
+ * @see LoopbackTransport
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class ClusterEventBus extends SynchronousEventBus implements Closeable {
+
+    /**
+     * The default maximum number of events sent in one message.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    /**
+     * The default time in milliseconds that an event may wait in the queue
+     * before it is sent.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 10;
+    /**
+     * The maximum size of a message in bytes.
+     */
+    public static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    /**
+     * The time in milliseconds after which a node that has not sent any
+     * messages is forgotten.
+     */
+    public static final long NODE_TIMEOUT = 5 * 60 * 1000;
+    /**
+     * The size of the message header: the node id, the sequence number and the
+     * number of events.
+     */
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+    /**
+     * The size of the header of every event: the length of the payload and the
+     * timestamp.
+     */
+    private static final int EVENT_HEADER_SIZE = 4 + 8;
+    private static final Logger logger = LoggerFactory.getLogger(ClusterEventBus.class);
+    private final long nodeId = UUID.randomUUID().getLeastSignificantBits();
+    private final Transport transport;
+    private final EventJournal.PayloadCodec codec;
+    private final int maxBatchSize;
+    private final Queue<Event<?>> outbox = new ConcurrentLinkedQueue<Event<?>>();
+    private final AtomicInteger outboxSize = new AtomicInteger();
+    private final ConcurrentMap<Long, RemoteEventBus> remoteEventBuses = new ConcurrentHashMap<Long, RemoteEventBus>();
+    private final ScheduledExecutorService flusher;
+    private final Runnable flushJob = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Runnable evictionJob = new Runnable() {
+        @Override
+        public void run() {
+            evictIdleNodes(System.currentTimeMillis());
+        }
+    };
+    /**
+     * The buffer that messages are encoded into. Guarded by this.
+     */
+    private final ByteBuffer messageBuffer = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+    /**
+     * The sequence number of the latest message. Guarded by this.
+     */
+    private long sequence;
+    private volatile boolean closed;
+
+    /**
+     * Transport that sends messages to and receives messages from the cluster
+     * event buses of the other nodes. Implementations decide how the nodes
+     * find each other. Messages from one node must be received by the other
+     * nodes in the order they were sent, but they may be received more than
+     * once.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public interface Transport extends Closeable {
+
+        /**
+         * Starts receiving messages, passing them to the specified handler.
+         * Messages sent by the bus itself may also be passed to the handler.
+         *
+         * @param handler the handler, never null.
+         * @throws IOException if the transport cannot be opened.
+         */
+        void open(MessageHandler handler) throws IOException;
+
+        /**
+         * Sends a message to all the other nodes.
+         *
+         * @param message the message, never null. The transport may keep a
+         * reference to the array.
+         * @throws IOException if the message could not be sent.
+         */
+        void send(byte[] message) throws IOException;
+    }
+
+    /**
+     * Handler of the messages received by a {@link Transport}.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public interface MessageHandler {
+
+        /**
+         * Called by the transport when a message has been received. The
+         * events of the message are published before this method returns.
+         *
+         * @param message the message, never null. The handler does not modify
+         * the array.
+         */
+        void messageReceived(byte[] message);
+    }
+
+    /**
+     * Creates a new
+     * <code>ClusterEventBus</code> with the default payload codec, batch size
+     * and flush interval, and opens the transport.
+     *
+     * @see EventJournal.DefaultPayloadCodec
+     * @see #DEFAULT_MAX_BATCH_SIZE
+     * @see #DEFAULT_FLUSH_INTERVAL
+     *
+     * @param transport the transport, must not be null.
+     * @throws IOException if the transport cannot be opened.
+     */
+    public ClusterEventBus(Transport transport) throws IOException {
+        this(transport, new EventJournal.DefaultPayloadCodec(), DEFAULT_MAX_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Creates a new
+     * <code>ClusterEventBus</code> and opens the transport.
+     *
+     * @param transport the transport, must not be null.
+     * @param codec the payload codec, must not be null. All nodes must use the
+     * same codec.
+     * @param maxBatchSize the maximum number of events sent in one message,
+     * must be greater than 0.
+     * @param flushInterval the time in milliseconds that an event may wait in
+     * the queue before it is sent, or 0 to only send events when the batch is
+     * full or {@link #flush()} is called.
+     * @throws IOException if the transport cannot be opened.
+     */
+    public ClusterEventBus(Transport transport, EventJournal.PayloadCodec codec, int maxBatchSize, long flushInterval) throws IOException {
+        assert transport != null : "transport must not be null";
+        assert codec != null : "codec must not be null";
+        if (maxBatchSize < 1 || flushInterval < 0) {
+            throw new IllegalArgumentException("Batch size must be greater than 0 and flush interval must not be negative");
+        }
+        this.transport = transport;
+        this.codec = codec;
+        this.maxBatchSize = maxBatchSize;
+        flusher = new ScheduledThreadPoolExecutor(1, new FlusherThreadFactory());
+        if (flushInterval > 0) {
+            flusher.scheduleWithFixedDelay(flushJob, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        flusher.scheduleWithFixedDelay(evictionJob, NODE_TIMEOUT, NODE_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            transport.open(new MessageHandler() {
+                @Override
+                public void messageReceived(byte[] message) {
+                    receiveMessage(message);
+                }
+            });
+        } catch (IOException e) {
+            flusher.shutdown();
+            throw e;
+        }
+        logger.debug("Joined cluster as node {}", nodeId);
+    }
+
+    /**
+     * Gets the id of the node, which is chosen randomly when the bus is
+     * created.
+     *
+     * @return the node id.
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the number of events waiting to be sent.
+     *
+     * @return the number of queued events.
+     */
+    public int getQueuedEventCount() {
+        return outboxSize.get();
+    }
+
+    /**
+     * Gets the number of other nodes that have sent messages to this bus and
+     * have not been forgotten yet.
+     *
+     * @return the number of known remote nodes.
+     */
+    public int getRemoteNodeCount() {
+        return remoteEventBuses.size();
+    }
+
+    @Override
+    protected void doPublishEvent(Event<?> event) {
+        super.doPublishEvent(event);
+        if (isForwarded(event)) {
+            enqueue(event);
+        }
+    }
+
+    @Override
+    protected void doPublishEvents(List<Event<?>> events) {
+        super.doPublishEvents(events);
+        for (Event<?> event : events) {
+            if (isForwarded(event)) {
+                enqueue(event);
+            }
+        }
+    }
+
+    private static boolean isForwarded(Event<?> event) {
+        return event.getScope().equals(EventScope.GLOBAL) && !(event.getOriginalEventBus() instanceof RemoteEventBus);
+    }
+
+    private void enqueue(Event<?> event) {
+        if (closed) {
+            logger.debug("Closed, not forwarding event {}", event);
+            return;
+        }
+        outbox.add(event);
+        if (outboxSize.incrementAndGet() % maxBatchSize == 0) {
+            try {
+                flusher.execute(flushJob);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Closed while forwarding event {}", event);
+            }
+        }
+    }
+
+    /**
+     * Sends all queued events to the other nodes, in as few messages as
+     * possible. Events whose payloads cannot be encoded are logged and
+     * discarded.
+     */
+    public synchronized void flush() {
+        resetMessageBuffer();
+        int eventCount = 0;
+        Event<?> event;
+        while ((event = outbox.poll()) != null) {
+            outboxSize.decrementAndGet();
+            try {
+                if (!encode(event)) {
+                    if (eventCount > 0) {
+                        send(eventCount);
+                        eventCount = 0;
+                    }
+                    if (!encode(event)) {
+                        logger.error("Event {} does not fit in a message, not forwarding it", event);
+                        continue;
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Could not encode event " + event + ", not forwarding it", e);
+                continue;
+            }
+            if (++eventCount == maxBatchSize) {
+                send(eventCount);
+                eventCount = 0;
+            }
+        }
+        if (eventCount > 0) {
+            send(eventCount);
+        }
+    }
+
+    private void resetMessageBuffer() {
+        messageBuffer.clear();
+        messageBuffer.position(HEADER_SIZE);
+    }
+
+    /**
+     * Appends the event to the message buffer. If the event cannot be
+     * appended, the buffer is left as it was.
+     *
+     * @return true if the event was appended, false if it did not fit in the
+     * remaining space of the buffer.
+     */
+    private boolean encode(Event<?> event) throws IOException {
+        final int start = messageBuffer.position();
+        if (messageBuffer.remaining() < EVENT_HEADER_SIZE) {
+            return false;
+        }
+        messageBuffer.position(start + EVENT_HEADER_SIZE);
+        boolean encoded = false;
+        try {
+            codec.encode(event.getPayload(), messageBuffer);
+            encoded = true;
+        } catch (BufferOverflowException e) {
+            return false;
+        } finally {
+            if (!encoded) {
+                messageBuffer.position(start);
+            }
+        }
+        messageBuffer.putInt(start, messageBuffer.position() - start - EVENT_HEADER_SIZE);
+        messageBuffer.putLong(start + 4, event.getTimestamp());
+        return true;
+    }
+
+    private void send(int eventCount) {
+        messageBuffer.putLong(0, nodeId);
+        messageBuffer.putLong(8, ++sequence);
+        messageBuffer.putInt(16, eventCount);
+        final byte[] message = Arrays.copyOf(messageBuffer.array(), messageBuffer.position());
+        resetMessageBuffer();
+        try {
+            transport.send(message);
+            logger.debug("Sent {} events in {} bytes", eventCount, message.length);
+        } catch (IOException e) {
+            logger.error("Could not send " + eventCount + " events", e);
+        }
+    }
+
+    private void receiveMessage(byte[] message) {
+        if (closed) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(message);
+        final List<Event<?>> events;
+        try {
+            final long senderId = buffer.getLong();
+            if (senderId == nodeId) {
+                return;
+            }
+            final RemoteEventBus sender = getRemoteEventBus(senderId);
+            final long sequence = buffer.getLong();
+            if (!sender.isNewSequence(sequence)) {
+                logger.debug("Discarded duplicate message from node {}", senderId);
+                return;
+            }
+            events = decode(buffer, sender);
+            /*
+             * The sequence number is only accepted once the message has been
+             * decoded, so that a corrupt message does not cause a valid
+             * retransmission to be discarded as a duplicate.
+             */
+            if (!sender.acceptSequence(sequence, System.currentTimeMillis())) {
+                logger.debug("Discarded duplicate message from node {}", senderId);
+                return;
+            }
+        } catch (BufferUnderflowException e) {
+            logger.error("Discarded corrupt message of {} bytes", message.length);
+            return;
+        } catch (IOException e) {
+            logger.error("Discarded message that could not be decoded", e);
+            return;
+        } catch (RuntimeException e) {
+            logger.error("Discarded message that could not be decoded", e);
+            return;
+        }
+        publishEvents(events);
+    }
+
+    private RemoteEventBus getRemoteEventBus(long senderId) {
+        RemoteEventBus remoteEventBus = remoteEventBuses.get(senderId);
+        if (remoteEventBus == null) {
+            final RemoteEventBus newRemoteEventBus = new RemoteEventBus(senderId);
+            remoteEventBus = remoteEventBuses.putIfAbsent(senderId, newRemoteEventBus);
+            if (remoteEventBus == null) {
+                logger.debug("Node {} joined the cluster", senderId);
+                remoteEventBus = newRemoteEventBus;
+            }
+        }
+        return remoteEventBus;
+    }
+
+    /**
+     * Forgets the nodes that have not sent any messages within
+     * {@link #NODE_TIMEOUT} milliseconds of the specified time. If a forgotten
+     * node sends another message, it joins the cluster again.
+     */
+    void evictIdleNodes(long now) {
+        for (Iterator<RemoteEventBus> it = remoteEventBuses.values().iterator(); it.hasNext();) {
+            final RemoteEventBus remoteEventBus = it.next();
+            if (now - remoteEventBus.latestMessageTime >= NODE_TIMEOUT) {
+                it.remove();
+                logger.debug("Node {} timed out", remoteEventBus.nodeId);
+            }
+        }
+    }
+
+    private List<Event<?>> decode(ByteBuffer buffer, RemoteEventBus sender) throws IOException {
+        final int eventCount = buffer.getInt();
+        if (eventCount < 0) {
+            throw new BufferUnderflowException();
+        }
+        final List<Event<?>> events = new ArrayList<Event<?>>(Math.min(eventCount, maxBatchSize));
+        for (int i = 0; i < eventCount; ++i) {
+            final int length = buffer.getInt();
+            final long timestamp = buffer.getLong();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            final ByteBuffer payloadBuffer = buffer.slice();
+            payloadBuffer.limit(length);
+            buffer.position(buffer.position() + length);
+            events.add(new Event<Object>(codec.decode(payloadBuffer), sender, EventScope.GLOBAL, timestamp));
+        }
+        return events;
+    }
+
+    /**
+     * Sends the queued events, stops forwarding events and closes the
+     * transport. Events published on this bus are still delivered to the local
+     * listeners and child buses.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flush();
+        flusher.shutdown();
+        remoteEventBuses.clear();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.warn("Could not close transport " + transport, e);
+        }
+        logger.debug("Node {} left the cluster", nodeId);
+    }
+
+    /**
+     * Checks whether this bus has been closed.
+     *
+     * @return true if {@link #close()} has been called, false otherwise.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The original event bus of events received from another node. Events
+     * cannot be published on a remote event bus and it cannot have listeners
+     * or a parent; such calls are logged and otherwise ignored, so that a
+     * listener replying to the original event bus of an event does not fail.
+     * Publish replies with scope GLOBAL on a local event bus instead.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public static final class RemoteEventBus implements BatchEventBus {
+
+        private final long nodeId;
+        private final AtomicLong latestSequence = new AtomicLong();
+        private volatile long latestMessageTime = System.currentTimeMillis();
+
+        RemoteEventBus(long nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        /**
+         * Gets the id of the node that published the event.
+         *
+         * @see ClusterEventBus#getNodeId()
+         *
+         * @return the node id.
+         */
+        public long getNodeId() {
+            return nodeId;
+        }
+
+        /**
+         * Checks whether the sequence number of a message is newer than that
+         * of the latest accepted message, without accepting it.
+         */
+        boolean isNewSequence(long sequence) {
+            return sequence > latestSequence.get();
+        }
+
+        /**
+         * Checks that the sequence number of a message is newer than that of
+         * the latest accepted message, and accepts it if it is.
+         */
+        boolean acceptSequence(long sequence, long now) {
+            long latest;
+            do {
+                latest = latestSequence.get();
+                if (sequence <= latest) {
+                    return false;
+                }
+            } while (!latestSequence.compareAndSet(latest, sequence));
+            latestMessageTime = now;
+            return true;
+        }
+
+        /**
+         * Remote event buses have no parent, so this method always returns
+         * null.
+         */
+        @Override
+        public EventBus getParentBus() {
+            return null;
+        }
+
+        @Override
+        public void setParentBus(EventBus parentBus) {
+            logger.warn("A remote event bus cannot have a parent, ignoring parent {}", parentBus);
+        }
+
+        @Override
+        public <T> void publishEvent(T payload, EventScope scope) {
+            logger.warn("Events cannot be published on {}, ignoring payload {}", this, payload);
+        }
+
+        @Override
+        public void publishEvent(Event<?> event) {
+            logger.warn("Events cannot be published on {}, ignoring event {}", this, event);
+        }
+
+        @Override
+        public void publishEvents(Collection<?> payloads, EventScope scope) {
+            logger.warn("Events cannot be published on {}, ignoring {} payloads", this, payloads.size());
+        }
+
+        @Override
+        public void publishEvents(Collection<? extends Event<?>> events) {
+            logger.warn("Events cannot be published on {}, ignoring {} events", this, events.size());
+        }
+
+        @Override
+        public void registerEventListener(Object listener) {
+            logger.warn("A remote event bus cannot have listeners, ignoring listener {}", listener);
+        }
+
+        @Override
+        public void unregisterEventListener(Object listener) {
+        }
+
+        @Override
+        public String toString() {
+            return "RemoteEventBus[nodeId=" + nodeId + "]";
+        }
+    }
+
+    /**
+     * Thread factory that creates a named daemon thread for sending the queued
+     * events, so that a bus that has not been closed does not prevent the JVM
+     * from exiting.
+     */
+    private static final class FlusherThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger busNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "ClusterEventBus-" + busNumber.incrementAndGet() + "-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
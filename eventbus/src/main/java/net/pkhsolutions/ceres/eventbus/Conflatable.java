@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+/**
+ * Interface to be implemented by event payloads that are only interesting in
+ * their latest state, such as progress updates or selection changes. When an
+ * event bus queues events before delivering them, a queued event whose payload
+ * is conflatable is replaced by a newer event with a payload of the same type
+ * and an equal conflation key, as long as the queued event has not yet been
+ * delivered to the listener. Event buses that deliver events immediately, such
+ * as {@link SynchronousEventBus}, never conflate events.
+ *
+ * @see Event#getConflationKey()
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface Conflatable {
+
+    /**
+     * Gets the key that identifies which events replace each other. Events
+     * with payloads of the same type and equal keys are conflated.
+     *
+     * @return the conflation key, never null.
+     */
+    Object getConflationKey();
+}
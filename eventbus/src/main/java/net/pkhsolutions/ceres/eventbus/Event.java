@@ -17,11 +17,15 @@ package net.pkhsolutions.ceres.eventbus;
 
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * This class represents an event published on an event bus. The event has a
  * payload that can be any object. An event listener must know which payload
- * type to listen for by declaring the {@link EventListenerMethod} properly.
+ * type to listen for by declaring the {@link EventListenerMethod} properly. <p>
+ * The publication history is stored as an immutable chain of entries that is
+ * extended using compare-and-set, so recording a new event bus costs one small
+ * allocation and checking the history never requires locking or copying.
  *
  * @see EventListenerMethod
  *
@@ -34,7 +38,15 @@ public class Event<T> {
     private final EventScope scope;
     private final long timestamp;
     private final Class<T> payloadType;
-    private final Queue<EventBus> publicationHistory = new LinkedList<EventBus>();
+    private final EventBus originalEventBus;
+    private volatile HistoryEntry latestHistoryEntry;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Event, HistoryEntry> latestHistoryEntryUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Event.class, HistoryEntry.class, "latestHistoryEntry");
+    private volatile PublicationFuture<?> publicationFuture;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Event, PublicationFuture> publicationFutureUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Event.class, PublicationFuture.class, "publicationFuture");
 
     /**
      * Creates a new
@@ -46,14 +58,30 @@ public class Event<T> {
      * @param scope the scope of the event, must not be null.
      */
     public Event(T payload, EventBus originalEventBus, EventScope scope) {
+        this(payload, originalEventBus, scope, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a new
+     * <code>Event</code> with the specified timestamp. This constructor is
+     * intended for recreating events that have been stored, for example in an
+     * {@link EventJournal}.
+     *
+     * @param payload the payload of the event, must not be null.
+     * @param originalEventBus the event bus that originally published the
+     * event, must not be null.
+     * @param scope the scope of the event, must not be null.
+     * @param timestamp the timestamp of the event in milliseconds.
+     */
+    public Event(T payload, EventBus originalEventBus, EventScope scope, long timestamp) {
         assert payload != null : "payload must not be null";
         assert originalEventBus != null : "originalEventBus must not be null";
         assert scope != null : "scope must not be null";
 
         this.payload = payload;
-        publicationHistory.add(originalEventBus);
+        this.originalEventBus = originalEventBus;
         this.scope = scope;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
         payloadType = (Class<T>) payload.getClass();
     }
 
@@ -82,8 +110,8 @@ public class Event<T> {
      *
      * @return the event bus, never null.
      */
-    public synchronized EventBus getOriginalEventBus() {
-        return publicationHistory.peek();
+    public EventBus getOriginalEventBus() {
+        return originalEventBus;
     }
 
     /**
@@ -97,8 +125,58 @@ public class Event<T> {
      *
      * @return a queue of event buses, never null.
      */
-    public synchronized Queue<EventBus> getPublicationHistory() {
-        return new LinkedList<EventBus>(publicationHistory);
+    public Queue<EventBus> getPublicationHistory() {
+        final HistoryEntry latest = latestHistoryEntry;
+        final EventBus[] eventBuses = new EventBus[latest == null ? 1 : latest.size + 1];
+        eventBuses[0] = originalEventBus;
+        for (HistoryEntry entry = latest; entry != null; entry = entry.previous) {
+            eventBuses[entry.size] = entry.eventBus;
+        }
+        final Queue<EventBus> history = new LinkedList<EventBus>();
+        for (EventBus eventBus : eventBuses) {
+            history.add(eventBus);
+        }
+        return history;
+    }
+
+    /**
+     * Gets the number of times the event has been propagated from one event
+     * bus to another, i.e. the size of the publication history minus one. This
+     * method neither locks nor copies the history.
+     *
+     * @see #getPublicationHistory()
+     *
+     * @return the hop count, 0 if the event has only been published on the
+     * original event bus.
+     */
+    public int getPublicationHopCount() {
+        final HistoryEntry latest = latestHistoryEntry;
+        return latest == null ? 0 : latest.size;
+    }
+
+    /**
+     * Checks whether the event has been published on the specified event bus,
+     * i.e. whether the bus is part of the publication history. The buses are
+     * compared by identity. This method neither locks nor copies the history.
+     *
+     * @see #getPublicationHistory()
+     *
+     * @param eventBus the event bus to look for, must not be null.
+     * @return true if the event has been published on the event bus, false
+     * otherwise.
+     */
+    public boolean hasVisited(EventBus eventBus) {
+        assert eventBus != null : "eventBus must not be null";
+        return eventBus == originalEventBus || findHistoryEntry(latestHistoryEntry, eventBus);
+    }
+
+    private static boolean findHistoryEntry(HistoryEntry latest, EventBus eventBus) {
+        for (HistoryEntry entry = latest; entry != null; entry = entry.previous) {
+            if (entry.eventBus == eventBus) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -109,9 +187,90 @@ public class Event<T> {
      *
      * @param eventBus the event bus to add, must not be null.
      */
-    protected synchronized void addEventBusToPublicationHistory(EventBus eventBus) {
+    protected void addEventBusToPublicationHistory(EventBus eventBus) {
+        assert eventBus != null : "eventBus must not be null";
+        HistoryEntry latest;
+        do {
+            latest = latestHistoryEntry;
+        } while (!latestHistoryEntryUpdater.compareAndSet(this, latest, new HistoryEntry(eventBus, latest)));
+    }
+
+    /**
+     * Adds the specified event bus to the publication history queue, unless it
+     * is already there. The check and the addition are performed atomically,
+     * so an event bus that is notified of the same event concurrently through
+     * several paths will only publish it once.
+     *
+     * @see #hasVisited(net.pkhsolutions.ceres.eventbus.EventBus)
+     *
+     * @param eventBus the event bus to add, must not be null.
+     * @return true if the event bus was added, false if it was already in the
+     * publication history.
+     */
+    protected boolean addEventBusToPublicationHistoryIfAbsent(EventBus eventBus) {
         assert eventBus != null : "eventBus must not be null";
-        publicationHistory.add(eventBus);
+        if (eventBus == originalEventBus) {
+            return false;
+        }
+        HistoryEntry latest;
+        do {
+            latest = latestHistoryEntry;
+            if (findHistoryEntry(latest, eventBus)) {
+                return false;
+            }
+        } while (!latestHistoryEntryUpdater.compareAndSet(this, latest, new HistoryEntry(eventBus, latest)));
+        return true;
+    }
+
+    /**
+     * Gets the key used to conflate this event with other events of the same
+     * payload type. The default implementation returns the conflation key of
+     * the payload if it implements {@link Conflatable}, and null otherwise.
+     * Subclasses may override to make other events conflatable.
+     *
+     * @see Conflatable
+     * @see #isConflatedBy(net.pkhsolutions.ceres.eventbus.Event)
+     *
+     * @return the conflation key, or null if the event must never be conflated.
+     */
+    public Object getConflationKey() {
+        return payload instanceof Conflatable ? ((Conflatable) payload).getConflationKey() : null;
+    }
+
+    /**
+     * Gets the key used to route this event to the listeners that have
+     * subscribed to it. The default implementation returns the routing key of
+     * the payload if it implements {@link Routable}, and null otherwise.
+     * Subclasses may override to route other events.
+     *
+     * @see Routable
+     * @see EventListenerMethod#routingKey()
+     *
+     * @return the routing key, or null if the event should only be delivered
+     * to listeners that accept every routing key.
+     */
+    public String getRoutingKey() {
+        return payload instanceof Routable ? ((Routable) payload).getRoutingKey() : null;
+    }
+
+    /**
+     * Checks whether this event can be replaced by the specified newer event,
+     * i.e. whether both events have the same payload type and equal, non-null
+     * conflation keys.
+     *
+     * @see #getConflationKey()
+     *
+     * @param newerEvent the newer event, must not be null.
+     * @return true if this event can be discarded in favor of the newer event,
+     * false otherwise.
+     */
+    public boolean isConflatedBy(Event<?> newerEvent) {
+        assert newerEvent != null : "newerEvent must not be null";
+        if (payloadType != newerEvent.getPayloadType()) {
+            return false;
+        }
+        final Object conflationKey = getConflationKey();
+        return conflationKey != null && conflationKey.equals(newerEvent.getConflationKey());
     }
 
     /**
@@ -132,4 +291,52 @@ public class Event<T> {
     public long getTimestamp() {
         return timestamp;
     }
+
+    /**
+     * Gets the future that tracks the deliveries of this event, if it was
+     * published using {@link AbstractEventBus#publishEventAsync(net.pkhsolutions.ceres.eventbus.Event)
+     * } and not all deliveries have completed yet.
+     *
+     * @return the future, or null if the deliveries are not tracked.
+     */
+    PublicationFuture<?> getPublicationFuture() {
+        return publicationFuture;
+    }
+
+    /**
+     * Starts tracking the deliveries of this event using the specified
+     * future.
+     *
+     * @return true if the tracking was started, false if the deliveries are
+     * already tracked by another future.
+     */
+    boolean startTracking(PublicationFuture<?> future) {
+        return publicationFutureUpdater.compareAndSet(this, null, future);
+    }
+
+    /**
+     * Stops tracking the deliveries of this event, provided that they are
+     * tracked by the specified future.
+     */
+    void stopTracking(PublicationFuture<?> future) {
+        publicationFutureUpdater.compareAndSet(this, future, null);
+    }
+
+    /**
+     * Immutable link in the publication history chain. The entries point
+     * backwards, from the most recently added event bus towards the original
+     * one, which is not stored in the chain at all.
+     */
+    private static final class HistoryEntry {
+
+        final EventBus eventBus;
+        final HistoryEntry previous;
+        final int size;
+
+        HistoryEntry(EventBus eventBus, HistoryEntry previous) {
+            this.eventBus = eventBus;
+            this.previous = previous;
+            this.size = previous == null ? 1 : previous.size + 1;
+        }
+    }
 }
@@ -23,6 +23,8 @@ package net.pkhsolutions.ceres.eventbus;
  * the {@link EventListenerMethod} annotation can register itself as a listener
  * of the event bus.
  *
+ * @see BatchEventBus
+ *
  * @author Petter Holmström
  * @since 1.0
  */
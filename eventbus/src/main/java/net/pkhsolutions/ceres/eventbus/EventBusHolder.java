@@ -31,6 +31,8 @@ import net.pkhsolutions.ceres.common.holder.Holder;
  */
 public class EventBusHolder extends Holder<EventBus> {
 
+    private static final StrategyReference<EventBus> strategy = getStrategyReference(EventBusHolder.class);
+
     private EventBusHolder() {
     }
 
@@ -40,7 +42,7 @@ public class EventBusHolder extends Holder<EventBus> {
      * @return the event bus instance, or null if none has been set.
      */
     public static EventBus getEventBus() {
-        return getStrategy(EventBusHolder.class).get();
+        return strategy.get().get();
     }
 
     /**
@@ -49,6 +51,6 @@ public class EventBusHolder extends Holder<EventBus> {
      * @param eventBus the event bus instance, may be null.
      */
     public static void setEventBus(EventBus eventBus) {
-        getStrategy(EventBusHolder.class).set(eventBus);
+        strategy.get().set(eventBus);
     }
 }
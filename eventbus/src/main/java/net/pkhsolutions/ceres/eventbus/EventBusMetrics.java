@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.lang.reflect.Method;
+
+/**
+ * Service provider interface for collecting metrics from event buses that
+ * extend {@link AbstractEventBus}. The event bus calls the methods of this
+ * interface from the threads that publish and deliver events, so
+ * implementations must be thread safe and fast. They must also never throw
+ * exceptions. <p> By default, event buses use
+ * {@link NoEventBusMetrics#INSTANCE}, which ignores everything. The event buses
+ * recognize it and skip measuring listener invocation times altogether, so
+ * metrics that are disabled add no allocations or time measurements to the
+ * publishing and delivery paths.
+ *
+ * @see AbstractEventBus#setMetrics(net.pkhsolutions.ceres.eventbus.EventBusMetrics)
+ * @see InMemoryEventBusMetrics
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface EventBusMetrics {
+
+    /**
+     * Called when an event is published on an event bus, either directly or
+     * because it was propagated from a child or parent bus.
+     *
+     * @see Event#getPublicationHopCount()
+     *
+     * @param eventBus the event bus on which the event was published, never
+     * null.
+     * @param event the event, never null.
+     */
+    void eventPublished(EventBus eventBus, Event<?> event);
+
+    /**
+     * Called after an event listener method has been invoked, whether it
+     * completed normally or threw an exception.
+     *
+     * @param listenerMethod the invoked event listener method, never null.
+     * @param eventCount the number of events passed to the method, which is
+     * greater than 1 only for methods that accept lists of events.
+     * @param durationNanos the time the invocation took, in nanoseconds.
+     */
+    void listenerInvoked(Method listenerMethod, int eventCount, long durationNanos);
+
+    /**
+     * Called when an asynchronous event bus queues deliveries that will be
+     * performed later by another thread.
+     *
+     * @param eventBus the event bus, never null.
+     * @param count the number of queued deliveries.
+     */
+    void deliveriesQueued(EventBus eventBus, int count);
+
+    /**
+     * Called when an asynchronous event bus removes deliveries from its queue,
+     * because they are about to be performed or because they have been
+     * discarded.
+     *
+     * @param eventBus the event bus, never null.
+     * @param count the number of removed deliveries.
+     */
+    void deliveriesDequeued(EventBus eventBus, int count);
+
+    /**
+     * Called when an event bus removes listeners that were garbage collected
+     * without being unregistered.
+     *
+     * @param eventBus the event bus, never null.
+     * @param count the number of removed listeners.
+     */
+    void listenersReclaimed(EventBus eventBus, int count);
+
+    /**
+     * Called when an event bus that schedules its deliveries has notified a
+     * listener of an event later than the
+     * {@link EventListenerMethod#deadline() deadline} of the listener method.
+     *
+     * @param eventBus the event bus, never null.
+     * @param listener the notified listener, or null if it has been garbage
+     * collected.
+     * @param payloadType the payload type of the event, never null.
+     * @param latenessMillis the number of milliseconds the deadline was
+     * missed by.
+     */
+    void deadlineMissed(EventBus eventBus, Object listener, Class<?> payloadType, long latenessMillis);
+
+    /**
+     * Called when an event bus gives up notifying a listener because the
+     * delivering thread was interrupted while waiting to invoke the listener.
+     * The deliveries are completed with a failure.
+     *
+     * @param eventBus the event bus, never null.
+     * @param listener the listener that was not notified, or null if it has
+     * been garbage collected.
+     * @param count the number of events the listener was not notified of.
+     */
+    void deliveriesInterrupted(EventBus eventBus, Object listener, int count);
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Exception thrown by {@link PublicationFuture#get()} when one or more
+ * listeners failed to handle the published event. The first failure is used as
+ * the cause of the exception and all failures are available through
+ * {@link #getFailures()}.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class EventDeliveryException extends ExecutionException {
+
+    private static final long serialVersionUID = 1L;
+    private final List<Throwable> failures;
+
+    /**
+     * Creates a new
+     * <code>EventDeliveryException</code>.
+     *
+     * @param event the event whose delivery failed, must not be null.
+     * @param failures the failures, must not be null or empty.
+     */
+    public EventDeliveryException(Event<?> event, List<Throwable> failures) {
+        super(failures.size() + " deliveries of event " + event + " failed", failures.get(0));
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * Gets all the failures, in the order they were reported.
+     *
+     * @return an unmodifiable list of failures, never null or empty.
+     */
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,624 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of events, stored in memory-mapped segment files in a
+ * directory. Every record contains the timestamp, scope and payload of an
+ * event. The payload is encoded by a {@link PayloadCodec} directly into the
+ * mapped file, and decoded directly from it when the journal is replayed. <p>
+ * Every record is identified by its offset, which is the number of bytes
+ * written to the journal before it. The offsets remain valid when the journal
+ * is closed and reopened. When a record does not fit in the current segment, a
+ * new segment is started; the segment files are named after the offset of
+ * their first record. Segments that only contain records older than a given
+ * offset can be deleted using {@link #compact(long)}. <p> A record is made
+ * visible by writing its length after the rest of the record, so readers and
+ * a journal reopened after the JVM has exited, normally or not, never see
+ * partially written records. Written records are flushed to the storage
+ * device by the operating system, which may write the pages of a segment in
+ * any order. If the operating system crashes or the power is lost, a record
+ * whose length reached the device before its payload may therefore be torn,
+ * and replaying it fails with an {@link IOException}. Records appended before
+ * a call to {@link #force()} are never torn. <p> The journal is serializable. Only its
+ * configuration is serialized; the segment files are reopened when the journal
+ * is deserialized, which means they must be accessible from the deserializing
+ * JVM. <p> This class is thread safe. Records are appended one at a time, but
+ * can be replayed concurrently.
+ *
+ * @see SerializableEventBus#setEventJournal(net.pkhsolutions.ceres.eventbus.EventJournal)
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class EventJournal implements Closeable, Serializable {
+
+    private static final long serialVersionUID = 3081766012527624781L;
+    /**
+     * The default size of a segment file in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /**
+     * The suffix of the names of the segment files.
+     */
+    public static final String SEGMENT_FILE_SUFFIX = ".journal";
+    /**
+     * The size of the record header: the length of the rest of the record, the
+     * timestamp and the scope.
+     */
+    private static final int HEADER_SIZE = 4 + 8 + 1;
+    private static final EventScope[] SCOPES = EventScope.values();
+    private static final Segment[] NO_SEGMENTS = new Segment[0];
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    /**
+     * Codec that writes event payloads to and reads them from the journal.
+     * Codecs must be stateless and serializable.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public interface PayloadCodec extends Serializable {
+
+        /**
+         * Encodes the payload into the buffer, starting at its current
+         * position.
+         *
+         * @param payload the payload, never null.
+         * @param buffer the buffer to write to, never null.
+         * @throws BufferOverflowException if the payload does not fit in the
+         * remaining space of the buffer.
+         * @throws IOException if the payload cannot be encoded.
+         */
+        void encode(Object payload, ByteBuffer buffer) throws IOException;
+
+        /**
+         * Decodes a payload from the buffer. The remaining bytes of the buffer
+         * are exactly the bytes written by {@link #encode(java.lang.Object, java.nio.ByteBuffer)
+         * }.
+         *
+         * @param buffer the buffer to read from, never null.
+         * @return the payload, never null.
+         * @throws IOException if the payload cannot be decoded.
+         */
+        Object decode(ByteBuffer buffer) throws IOException;
+    }
+    private final File directory;
+    private final int segmentSize;
+    private final PayloadCodec codec;
+    /**
+     * The segments in offset order. The array is replaced whenever a segment
+     * is added or removed, so readers never need to lock it.
+     */
+    private transient volatile Segment[] segments;
+    /**
+     * The offset just after the last complete record.
+     */
+    private transient volatile long endOffset;
+    private transient volatile boolean closed;
+
+    /**
+     * Creates a new
+     * <code>EventJournal</code> with the default segment size and payload
+     * codec, opening the segment files that already exist in the directory.
+     *
+     * @see #DEFAULT_SEGMENT_SIZE
+     * @see DefaultPayloadCodec
+     *
+     * @param directory the directory of the segment files, must not be null.
+     * It is created if it does not exist.
+     * @throws IOException if the segment files cannot be opened.
+     */
+    public EventJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, new DefaultPayloadCodec());
+    }
+
+    /**
+     * Creates a new
+     * <code>EventJournal</code>, opening the segment files that already exist
+     * in the directory.
+     *
+     * @param directory the directory of the segment files, must not be null.
+     * It is created if it does not exist.
+     * @param segmentSize the size of new segment files in bytes, must be
+     * greater than the size of the largest record.
+     * @param codec the payload codec, must not be null.
+     * @throws IOException if the segment files cannot be opened.
+     */
+    public EventJournal(File directory, int segmentSize, PayloadCodec codec) throws IOException {
+        assert directory != null : "directory must not be null";
+        assert codec != null : "codec must not be null";
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + HEADER_SIZE);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+        open();
+    }
+
+    private void readObject(ObjectInputStream is) throws ClassNotFoundException, IOException {
+        is.defaultReadObject();
+        open();
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        final File[] files = directory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+        final long[] baseOffsets = new long[files.length];
+        for (int i = 0; i < files.length; ++i) {
+            final String name = files[i].getName();
+            try {
+                baseOffsets[i] = Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid journal segment file name " + files[i]);
+            }
+        }
+        Arrays.sort(baseOffsets);
+        final List<Segment> openedSegments = new ArrayList<Segment>(baseOffsets.length + 1);
+        for (int i = 0; i < baseOffsets.length; ++i) {
+            final File file = getSegmentFile(baseOffsets[i]);
+            final boolean last = i == baseOffsets.length - 1;
+            openedSegments.add(new Segment(baseOffsets[i], file, last ? Math.max(file.length(), segmentSize) : file.length()));
+        }
+        if (openedSegments.isEmpty()) {
+            openedSegments.add(new Segment(0, getSegmentFile(0), segmentSize));
+        }
+        final Segment activeSegment = openedSegments.get(openedSegments.size() - 1);
+        activeSegment.writePosition = activeSegment.findEnd();
+        segments = openedSegments.toArray(new Segment[openedSegments.size()]);
+        endOffset = activeSegment.baseOffset + activeSegment.writePosition;
+        logger.debug("Opened journal {} with {} segments, end offset {}", new Object[]{directory, segments.length, endOffset});
+    }
+
+    private File getSegmentFile(long baseOffset) {
+        return new File(directory, String.format("%020d", baseOffset) + SEGMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * Gets the directory of the segment files.
+     *
+     * @return the directory, never null.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the offset of the oldest record that has not been compacted away.
+     *
+     * @see #compact(long)
+     *
+     * @return the start offset.
+     */
+    public long getStartOffset() {
+        final Segment[] currentSegments = segments;
+        return currentSegments.length == 0 ? endOffset : currentSegments[0].baseOffset;
+    }
+
+    /**
+     * Gets the offset that the next appended record will get, unless a new
+     * segment has to be started for it.
+     *
+     * @return the end offset.
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Appends the specified event to the journal. Only the timestamp, scope
+     * and payload of the event are stored.
+     *
+     * @param event the event to append, must not be null.
+     * @return the offset of the record.
+     * @throws IOException if the payload cannot be encoded, if it does not fit
+     * in an empty segment, or if the journal has been closed.
+     */
+    public synchronized long append(Event<?> event) throws IOException {
+        assert event != null : "event must not be null";
+        if (closed) {
+            throw new IOException("Event journal has been closed");
+        }
+        Segment segment = segments[segments.length - 1];
+        long offset = segment.append(event, codec);
+        if (offset < 0) {
+            if (segment.writePosition == 0) {
+                throw new IOException("Event " + event + " does not fit in a journal segment of " + segmentSize + " bytes");
+            }
+            segment = roll(segment);
+            offset = segment.append(event, codec);
+            if (offset < 0) {
+                throw new IOException("Event " + event + " does not fit in a journal segment of " + segmentSize + " bytes");
+            }
+        }
+        endOffset = segment.baseOffset + segment.writePosition;
+        return offset;
+    }
+
+    private Segment roll(Segment activeSegment) throws IOException {
+        activeSegment.buffer.force();
+        final long baseOffset = activeSegment.baseOffset + activeSegment.writePosition;
+        final Segment newSegment = new Segment(baseOffset, getSegmentFile(baseOffset), segmentSize);
+        final Segment[] newSegments = Arrays.copyOf(segments, segments.length + 1);
+        newSegments[newSegments.length - 1] = newSegment;
+        segments = newSegments;
+        logger.debug("Started journal segment {}", newSegment.file);
+        return newSegment;
+    }
+
+    /**
+     * Publishes all events recorded from the specified offset on the specified
+     * event bus, in the order they were appended. The events are recreated
+     * with their original timestamps and scopes, with {@code eventBus} as
+     * their original event bus.
+     *
+     * @param fromOffset the offset of the first record to replay, which must
+     * be the offset of a record or the end offset.
+     * @param eventBus the event bus to publish the events on, must not be
+     * null.
+     * @return the offset after the last replayed record, from which a later
+     * replay can continue.
+     * @throws IOException if a payload cannot be decoded or the journal has
+     * been closed.
+     * @throws IllegalArgumentException if the offset is outside the journal.
+     */
+    public long replay(long fromOffset, EventBus eventBus) throws IOException {
+        assert eventBus != null : "eventBus must not be null";
+        if (closed) {
+            throw new IOException("Event journal has been closed");
+        }
+        final long end = endOffset;
+        final Segment[] currentSegments = segments;
+        if (fromOffset < currentSegments[0].baseOffset || fromOffset > end) {
+            throw new IllegalArgumentException("Offset " + fromOffset + " is outside the journal");
+        }
+        long offset = fromOffset;
+        int segmentIndex = currentSegments.length - 1;
+        while (currentSegments[segmentIndex].baseOffset > offset) {
+            --segmentIndex;
+        }
+        while (offset < end) {
+            if (segmentIndex + 1 < currentSegments.length && currentSegments[segmentIndex + 1].baseOffset <= offset) {
+                ++segmentIndex;
+            }
+            final Segment segment = currentSegments[segmentIndex];
+            final int position = (int) (offset - segment.baseOffset);
+            final int length = segment.getRecordLength(position);
+            if (length == 0) {
+                break;
+            }
+            eventBus.publishEvent(segment.readEvent(position, length, offset, eventBus, codec));
+            offset += 4 + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Deletes the segment files that only contain records with offsets lower
+     * than the specified offset. The segment that records are currently
+     * appended to is never deleted.
+     *
+     * @param offset the offset of the oldest record that must be kept.
+     * @return the number of deleted segment files.
+     */
+    public synchronized int compact(long offset) {
+        int removed = 0;
+        while (removed < segments.length - 1 && segments[removed + 1].baseOffset <= offset) {
+            ++removed;
+        }
+        if (removed == 0) {
+            return 0;
+        }
+        final Segment[] removedSegments = Arrays.copyOf(segments, removed);
+        segments = Arrays.copyOfRange(segments, removed, segments.length);
+        for (Segment segment : removedSegments) {
+            segment.close();
+            if (!segment.file.delete()) {
+                logger.warn("Could not delete journal segment {}", segment.file);
+            }
+        }
+        logger.debug("Compacted {} journal segments", removed);
+        return removed;
+    }
+
+    /**
+     * Forces all appended records to be written to the storage device.
+     */
+    public synchronized void force() {
+        if (!closed) {
+            segments[segments.length - 1].buffer.force();
+        }
+    }
+
+    /**
+     * Forces all appended records to be written to the storage device and
+     * closes the segment files. The journal cannot be used after it has been
+     * closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        force();
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments = NO_SEGMENTS;
+    }
+
+    /**
+     * Segment file that is mapped into memory in its entirety. The file is
+     * zero-filled when it is created, so the first record length of zero
+     * marks the end of the records.
+     */
+    private static final class Segment {
+
+        final long baseOffset;
+        final File file;
+        final MappedByteBuffer buffer;
+        private final RandomAccessFile randomAccessFile;
+        /**
+         * The position after the last complete record. Only used for the
+         * segment that records are appended to, guarded by the journal.
+         */
+        int writePosition;
+
+        Segment(long baseOffset, File file, long size) throws IOException {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+        }
+
+        int findEnd() {
+            int position = 0;
+            int length;
+            while ((length = getRecordLength(position)) > 0) {
+                position += 4 + length;
+            }
+            return position;
+        }
+
+        int getRecordLength(int position) {
+            if (position + HEADER_SIZE > buffer.capacity()) {
+                return 0;
+            }
+            final int length = buffer.getInt(position);
+            return length >= HEADER_SIZE - 4 && position + 4 + length <= buffer.capacity() ? length : 0;
+        }
+
+        /**
+         * Writes the event after the last complete record. The record length
+         * after the new record is zeroed before the record is made visible,
+         * as the segment may contain the remains of a longer record that was
+         * never completed.
+         *
+         * @return the offset of the record, or -1 if it does not fit in the
+         * segment.
+         */
+        long append(Event<?> event, PayloadCodec codec) throws IOException {
+            final int start = writePosition;
+            if (start + HEADER_SIZE > buffer.capacity()) {
+                return -1;
+            }
+            final ByteBuffer payloadBuffer = buffer.duplicate();
+            payloadBuffer.position(start + HEADER_SIZE);
+            boolean encoded = false;
+            try {
+                codec.encode(event.getPayload(), payloadBuffer);
+                encoded = true;
+            } catch (BufferOverflowException e) {
+                return -1;
+            } finally {
+                if (!encoded) {
+                    clear(start + HEADER_SIZE, payloadBuffer.position());
+                }
+            }
+            final int end = payloadBuffer.position();
+            if (end + 4 <= buffer.capacity()) {
+                // Bytes left by a torn write may follow a shorter record
+                buffer.putInt(end, 0);
+            }
+            buffer.putLong(start + 4, event.getTimestamp());
+            buffer.put(start + 12, (byte) event.getScope().ordinal());
+            buffer.putInt(start, end - start - 4);
+            writePosition = end;
+            return baseOffset + start;
+        }
+
+        /**
+         * Zeroes the bytes left by a record that could not be written, so that
+         * they are not mistaken for a record length later.
+         */
+        private void clear(int from, int to) {
+            for (int position = from; position < to; ++position) {
+                buffer.put(position, (byte) 0);
+            }
+        }
+
+        Event<Object> readEvent(int position, int length, long offset, EventBus eventBus, PayloadCodec codec) throws IOException {
+            final long timestamp = buffer.getLong(position + 4);
+            final int scope = buffer.get(position + 12);
+            if (scope < 0 || scope >= SCOPES.length) {
+                throw new IOException("Corrupt journal record at offset " + offset);
+            }
+            final ByteBuffer payloadBuffer = buffer.duplicate();
+            payloadBuffer.limit(position + 4 + length);
+            payloadBuffer.position(position + HEADER_SIZE);
+            final Object payload;
+            try {
+                payload = codec.decode(payloadBuffer.slice());
+            } catch (RuntimeException e) {
+                // Thrown by codecs reading a torn record
+                throw new IOException("Corrupt journal record at offset " + offset, e);
+            }
+            return new Event<Object>(payload, eventBus, SCOPES[scope], timestamp);
+        }
+
+        void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                logger.warn("Could not close journal segment " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Payload codec that stores strings, integers, longs and booleans in a
+     * compact form and all other payloads using Java serialization. Every
+     * payload is prefixed with a one byte type tag.
+     *
+     * @author Petter Holmström
+     * @since 1.0
+     */
+    public static class DefaultPayloadCodec implements PayloadCodec {
+
+        private static final long serialVersionUID = -2177338036117640386L;
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+        private static final byte SERIALIZED = 0;
+        private static final byte STRING = 1;
+        private static final byte INTEGER = 2;
+        private static final byte LONG = 3;
+        private static final byte BOOLEAN = 4;
+
+        @Override
+        public void encode(Object payload, ByteBuffer buffer) throws IOException {
+            if (payload instanceof String) {
+                buffer.put(STRING);
+                buffer.put(((String) payload).getBytes(UTF8));
+            } else if (payload instanceof Integer) {
+                buffer.put(INTEGER);
+                buffer.putInt((Integer) payload);
+            } else if (payload instanceof Long) {
+                buffer.put(LONG);
+                buffer.putLong((Long) payload);
+            } else if (payload instanceof Boolean) {
+                buffer.put(BOOLEAN);
+                buffer.put((byte) ((Boolean) payload ? 1 : 0));
+            } else if (!(payload instanceof Serializable)) {
+                throw new NotSerializableException(payload.getClass().getName());
+            } else {
+                buffer.put(SERIALIZED);
+                final ObjectOutputStream os = new ObjectOutputStream(new ByteBufferOutputStream(buffer));
+                os.writeObject(payload);
+                os.flush();
+            }
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) throws IOException {
+            final byte type = buffer.get();
+            switch (type) {
+                case STRING:
+                    return UTF8.decode(buffer).toString();
+                case INTEGER:
+                    return buffer.getInt();
+                case LONG:
+                    return buffer.getLong();
+                case BOOLEAN:
+                    return buffer.get() != 0;
+                case SERIALIZED:
+                    try {
+                        return new ObjectInputStream(new ByteBufferInputStream(buffer)).readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("Could not decode payload: " + e.getMessage());
+                    }
+                default:
+                    throw new IOException("Unknown payload type " + type);
+            }
+        }
+    }
+
+    private static final class ByteBufferOutputStream extends OutputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+/**
+ * An event listener invoker invokes a single event listener method directly,
+ * without using reflection. Implementations of this interface are generated by
+ * the event bus annotation processor for every listener type that declares
+ * accessible (i.e. non-private) event listener methods. If no invoker is
+ * available for a method, the event bus falls back to invoking the method
+ * using reflection.
+ *
+ * @see EventListenerInvokerProvider
+ * @see EventListenerMethod
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface EventListenerInvoker {
+
+    /**
+     * Invokes the event listener method on the specified listener, passing in
+     * the specified event.
+     *
+     * @param listener the listener to invoke the method on, must not be null.
+     * @param event the event to pass to the method, must not be null.
+     * @throws Exception if the event listener method throws an exception.
+     */
+    void invoke(Object listener, Event<?> event) throws Exception;
+}
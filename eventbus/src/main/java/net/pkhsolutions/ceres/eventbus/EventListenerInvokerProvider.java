@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+/**
+ * Provider of {@link EventListenerInvoker}s for the event listener methods
+ * declared by a particular listener type. Implementations are generated by the
+ * event bus annotation processor and are named after the listener type: the
+ * provider of
+ * <code>com.example.MyListener</code> is called
+ * <code>com.example.MyListenerEventListenerInvokers</code> and the provider of
+ * the nested type
+ * <code>com.example.Outer.Inner</code> is called
+ * <code>com.example.Outer_InnerEventListenerInvokers</code>. Invokers are
+ * looked up by a key made of the name of the method and the binary name of its
+ * payload type, so that overloaded methods get invokers of their own: the key
+ * of <code>void onEvent(Event&lt;com.example.Outer.Inner&gt; event)</code> is
+ * <code>onEvent(com.example.Outer$Inner)</code>. Clients should never need to
+ * implement this interface themselves.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface EventListenerInvokerProvider {
+
+    /**
+     * The suffix that is appended to the name of the listener type to get the
+     * name of the provider.
+     */
+    String CLASS_NAME_SUFFIX = "EventListenerInvokers";
+
+    /**
+     * Gets the invoker for the event listener method with the specified key.
+     *
+     * @param methodKey the name of the event listener method followed by the
+     * binary name of its payload type in parentheses, must not be null.
+     * @return the invoker, or null if no invoker is available for the method.
+     */
+    EventListenerInvoker getInvoker(String methodKey);
+}
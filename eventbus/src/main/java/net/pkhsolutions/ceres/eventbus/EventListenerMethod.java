@@ -33,8 +33,25 @@ import java.lang.annotation.*;
  * <p> Wildcards may <b>not</b> be used in the parameter. For example, the
  * following <b>will not work</b>: <p>
  * <code>@EventListenerMethod illegalEventHandler(Event&lt;?&gt; event)</code>
+ * <p> A method can also accept a
+ * <code>java.util.List</code> of events, in which case it receives all the
+ * supported events of a batch published using {@link BatchEventBus#publishEvents(java.util.Collection, EventScope)
+ * } in a single invocation. When single events are published, such a method
+ * receives a list containing only one event: <p>
+ * <code>@EventListenerMethod handleStringEvents(List&lt;Event&lt;String&gt;&gt; events)</code>
  * <p> If the annotated method does not conform to these specifications, it will
- * be ignored by the event bus.
+ * be ignored by the event bus. <p> By default, the event bus invokes the
+ * annotated methods using reflection. If the event bus annotation processor is
+ * on the class path when the listener is compiled, it generates an
+ * {@link EventListenerInvoker} for every non-private annotated method and the
+ * event bus will use it instead. <p> The optional {@link #priority()} and
+ * {@link #deadline()} attributes are used by event buses that schedule their
+ * deliveries, such as {@link AsynchronousEventBus} with
+ * {@link AsynchronousEventBus.DeliveryOrder#PRIORITIZED}. Other event buses
+ * ignore them. <p> A method that declares a {@link #routingKey()} only
+ * receives events whose {@link Event#getRoutingKey() routing key} is equal to
+ * it. This lets a listener subscribe to the events of, for example, a single
+ * aggregate without receiving and filtering all events of the payload type.
  *
  * @author Petter Holmström
  * @since 1.0
@@ -43,4 +60,31 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
 public @interface EventListenerMethod {
+
+    /**
+     * The priority of the method. When deliveries are waiting for a thread,
+     * deliveries to methods with a higher priority are performed first. If a
+     * listener has several methods that accept the same event, the highest
+     * priority applies.
+     */
+    int priority() default 0;
+
+    /**
+     * The maximum number of milliseconds between the publication of an event
+     * and the moment the method has handled it. Deliveries with an earlier
+     * deadline are performed first among deliveries with the same priority,
+     * and deliveries that complete too late are reported. If a listener has
+     * several methods that accept the same event, the shortest deadline
+     * applies. 0 means that the method has no deadline.
+     */
+    long deadline() default 0;
+
+    /**
+     * The routing key of the method. If the key is not empty, the method only
+     * receives events with an equal {@link Event#getRoutingKey() routing key}.
+     * If it is empty, the method receives events regardless of their routing
+     * keys, unless the listener was registered with a routing key using {@link AbstractEventBus#registerEventListener(java.lang.Object, java.lang.String)
+     * }, in which case that key applies.
+     */
+    String routingKey() default "";
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Implementation of {@link EventBusMetrics} that keeps all metrics in memory,
+ * to be read periodically by a monitoring system. The same instance can be
+ * shared by several event buses, in which case the metrics are aggregated.
+ * <p> Durations and hop counts are recorded in {@link Histogram}s with one
+ * bucket for every power of two. Recording a value never allocates memory once
+ * the payload type or listener method has been seen for the first time.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class InMemoryEventBusMetrics implements EventBusMetrics {
+
+    private final ConcurrentMap<Class<?>, AtomicLong> publishCounts = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    private final ConcurrentMap<Method, HistogramRecorder> listenerDurations = new ConcurrentHashMap<Method, HistogramRecorder>();
+    private final HistogramRecorder hopCounts = new HistogramRecorder();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong reclaimedListeners = new AtomicLong();
+    private final ConcurrentMap<Class<?>, AtomicLong> missedDeadlines = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    private final AtomicLong interruptedDeliveries = new AtomicLong();
+
+    @Override
+    public void eventPublished(EventBus eventBus, Event<?> event) {
+        increment(publishCounts, event.getPayloadType());
+        hopCounts.record(event.getPublicationHopCount());
+    }
+
+    private static void increment(ConcurrentMap<Class<?>, AtomicLong> counts, Class<?> type) {
+        AtomicLong count = counts.get(type);
+        if (count == null) {
+            final AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(type, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static Map<Class<?>, Long> snapshot(ConcurrentMap<Class<?>, AtomicLong> counts) {
+        final Map<Class<?>, Long> snapshot = new HashMap<Class<?>, Long>();
+        for (Map.Entry<Class<?>, AtomicLong> entry : counts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void listenerInvoked(Method listenerMethod, int eventCount, long durationNanos) {
+        HistogramRecorder durations = listenerDurations.get(listenerMethod);
+        if (durations == null) {
+            final HistogramRecorder newDurations = new HistogramRecorder();
+            durations = listenerDurations.putIfAbsent(listenerMethod, newDurations);
+            if (durations == null) {
+                durations = newDurations;
+            }
+        }
+        durations.record(durationNanos);
+    }
+
+    @Override
+    public void deliveriesQueued(EventBus eventBus, int count) {
+        final int depth = queueDepth.addAndGet(count);
+        int max;
+        do {
+            max = maxQueueDepth.get();
+        } while (depth > max && !maxQueueDepth.compareAndSet(max, depth));
+    }
+
+    @Override
+    public void deliveriesDequeued(EventBus eventBus, int count) {
+        queueDepth.addAndGet(-count);
+    }
+
+    @Override
+    public void listenersReclaimed(EventBus eventBus, int count) {
+        reclaimedListeners.addAndGet(count);
+    }
+
+    @Override
+    public void deadlineMissed(EventBus eventBus, Object listener, Class<?> payloadType, long latenessMillis) {
+        if (listener != null) {
+            increment(missedDeadlines, listener.getClass());
+        }
+    }
+
+    @Override
+    public void deliveriesInterrupted(EventBus eventBus, Object listener, int count) {
+        interruptedDeliveries.addAndGet(count);
+    }
+
+    /**
+     * Gets the number of published events per payload type. Events that are
+     * propagated between event buses are counted once for every bus.
+     *
+     * @return a snapshot of the counts, never null.
+     */
+    public Map<Class<?>, Long> getPublishCounts() {
+        return snapshot(publishCounts);
+    }
+
+    /**
+     * Gets the invocation durations of every event listener method, in
+     * nanoseconds.
+     *
+     * @return a snapshot of the histograms, never null.
+     */
+    public Map<Method, Histogram> getListenerDurations() {
+        final Map<Method, Histogram> durations = new HashMap<Method, Histogram>();
+        for (Map.Entry<Method, HistogramRecorder> entry : listenerDurations.entrySet()) {
+            durations.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return durations;
+    }
+
+    /**
+     * Gets the number of times published events had been propagated between
+     * event buses, where 0 means that the event was published on its original
+     * event bus.
+     *
+     * @see Event#getPublicationHopCount()
+     *
+     * @return a snapshot of the histogram, never null.
+     */
+    public Histogram getHopCounts() {
+        return hopCounts.snapshot();
+    }
+
+    /**
+     * Gets the number of deliveries currently waiting in the queues of
+     * asynchronous event buses.
+     *
+     * @return the queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Gets the highest queue depth seen since this object was created or
+     * {@link #reset()} was last called.
+     *
+     * @return the maximum queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Gets the number of listeners that event buses have removed because they
+     * were garbage collected without being unregistered.
+     *
+     * @return the number of reclaimed listeners.
+     */
+    public long getReclaimedListeners() {
+        return reclaimedListeners.get();
+    }
+
+    /**
+     * Gets the number of deliveries that completed after their deadline, per
+     * listener class.
+     *
+     * @see EventListenerMethod#deadline()
+     *
+     * @return a snapshot of the counts, never null.
+     */
+    public Map<Class<?>, Long> getMissedDeadlines() {
+        return snapshot(missedDeadlines);
+    }
+
+    /**
+     * Gets the number of deliveries that failed because the delivering thread
+     * was interrupted before the listener could be notified.
+     *
+     * @return the number of interrupted deliveries.
+     */
+    public long getInterruptedDeliveries() {
+        return interruptedDeliveries.get();
+    }
+
+    /**
+     * Clears all metrics, except the current queue depth.
+     */
+    public void reset() {
+        reclaimedListeners.set(0L);
+        missedDeadlines.clear();
+        interruptedDeliveries.set(0L);
+        publishCounts.clear();
+        listenerDurations.clear();
+        hopCounts.reset();
+        maxQueueDepth.set(queueDepth.get());
+    }
+
+    /**
+     * Records values into buckets without locking. Bucket 0 counts the value
+     * 0, and bucket {@code n} counts the values from {@code 2^(n-1)} to
+     * {@code 2^n - 1}.
+     */
+    private static final class HistogramRecorder {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(Histogram.BUCKET_COUNT);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            final long nonNegativeValue = Math.max(value, 0L);
+            buckets.incrementAndGet(Histogram.bucketOf(nonNegativeValue));
+            sum.addAndGet(nonNegativeValue);
+            long currentMax;
+            do {
+                currentMax = max.get();
+            } while (nonNegativeValue > currentMax && !max.compareAndSet(currentMax, nonNegativeValue));
+        }
+
+        void reset() {
+            for (int i = 0; i < Histogram.BUCKET_COUNT; ++i) {
+                buckets.set(i, 0L);
+            }
+            sum.set(0L);
+            max.set(0L);
+        }
+
+        Histogram snapshot() {
+            final long[] counts = new long[Histogram.BUCKET_COUNT];
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = buckets.get(i);
+            }
+            return new Histogram(counts, sum.get(), max.get());
+        }
+    }
+
+    /**
+     * Immutable snapshot of a histogram with one bucket for every power of
+     * two.
+     */
+    public static final class Histogram {
+
+        static final int BUCKET_COUNT = 64;
+        private final long[] bucketCounts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Histogram(long[] bucketCounts, long sum, long max) {
+            this.bucketCounts = bucketCounts;
+            long total = 0;
+            for (long bucketCount : bucketCounts) {
+                total += bucketCount;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        static int bucketOf(long value) {
+            return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+        }
+
+        /**
+         * Gets the number of recorded values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the sum of the recorded values.
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Gets the largest recorded value.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Gets the mean of the recorded values.
+         *
+         * @return the mean, or 0 if no values have been recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * Gets an upper bound of the specified percentile, i.e. the upper limit
+         * of the bucket that contains it.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the upper bound, or 0 if no values have been recorded.
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0.0 || percentile > 100.0) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            }
+            final long rank = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; ++i) {
+                seen += bucketCounts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0L : (1L << i) - 1, max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Gets the number of values in the specified bucket. Bucket 0 counts
+         * the value 0, and bucket {@code n} counts the values from
+         * {@code 2^(n-1)} to {@code 2^n - 1}.
+         *
+         * @param bucket the bucket index, between 0 and 63.
+         * @return the number of values.
+         */
+        public long getBucketCount(int bucket) {
+            return bucketCounts[bucket];
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ClusterEventBus.Transport} that connects cluster event buses in the
+ * same JVM. Every transport belongs to a network, and a message sent by one
+ * transport is passed to the handlers of all the other open transports of the
+ * network, in the sending thread and before {@link #send(byte[])} returns.
+ * This makes the transport useful for testing, but also for connecting
+ * separate bus hierarchies within one JVM.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class LoopbackTransport implements ClusterEventBus.Transport {
+
+    private final List<LoopbackTransport> network;
+    private final AtomicLong sentMessageCount = new AtomicLong();
+    private volatile ClusterEventBus.MessageHandler handler;
+
+    /**
+     * Creates a new
+     * <code>LoopbackTransport</code> that belongs to a network of its own.
+     */
+    public LoopbackTransport() {
+        network = new CopyOnWriteArrayList<LoopbackTransport>();
+    }
+
+    /**
+     * Creates a new
+     * <code>LoopbackTransport</code> that belongs to the same network as the
+     * specified transport.
+     *
+     * @param peer a transport of the network to join, must not be null.
+     */
+    public LoopbackTransport(LoopbackTransport peer) {
+        assert peer != null : "peer must not be null";
+        network = peer.network;
+    }
+
+    @Override
+    public void open(ClusterEventBus.MessageHandler handler) throws IOException {
+        assert handler != null : "handler must not be null";
+        if (this.handler != null) {
+            throw new IOException("Transport is already open");
+        }
+        this.handler = handler;
+        network.add(this);
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        assert message != null : "message must not be null";
+        if (handler == null) {
+            throw new IOException("Transport is not open");
+        }
+        sentMessageCount.incrementAndGet();
+        for (LoopbackTransport peer : network) {
+            final ClusterEventBus.MessageHandler peerHandler = peer.handler;
+            if (peer != this && peerHandler != null) {
+                peerHandler.messageReceived(message);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of messages sent by this transport.
+     *
+     * @return the number of sent messages.
+     */
+    public long getSentMessageCount() {
+        return sentMessageCount.get();
+    }
+
+    @Override
+    public void close() {
+        network.remove(this);
+        handler = null;
+    }
+}
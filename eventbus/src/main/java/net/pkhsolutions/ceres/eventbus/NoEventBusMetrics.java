@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.lang.reflect.Method;
+
+/**
+ * Implementation of {@link EventBusMetrics} that ignores everything. This is
+ * the default for all event buses.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class NoEventBusMetrics implements EventBusMetrics {
+
+    /**
+     * The only instance of this class.
+     */
+    public static final NoEventBusMetrics INSTANCE = new NoEventBusMetrics();
+
+    private NoEventBusMetrics() {
+    }
+
+    @Override
+    public void eventPublished(EventBus eventBus, Event<?> event) {
+    }
+
+    @Override
+    public void listenerInvoked(Method listenerMethod, int eventCount, long durationNanos) {
+    }
+
+    @Override
+    public void deliveriesQueued(EventBus eventBus, int count) {
+    }
+
+    @Override
+    public void deliveriesDequeued(EventBus eventBus, int count) {
+    }
+
+    @Override
+    public void listenersReclaimed(EventBus eventBus, int count) {
+    }
+
+    @Override
+    public void deadlineMissed(EventBus eventBus, Object listener, Class<?> payloadType, long latenessMillis) {
+    }
+
+    @Override
+    public void deliveriesInterrupted(EventBus eventBus, Object listener, int count) {
+    }
+}
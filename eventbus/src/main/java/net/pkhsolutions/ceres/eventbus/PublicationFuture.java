@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Future that completes when every listener in the bus hierarchy has handled a
+ * published event. The future keeps count of the deliveries that have been
+ * scheduled but not yet completed; the publication itself counts as one
+ * delivery until the event has been propagated to all affected buses. Once the
+ * count drops to zero, the future is done. <p> Listener failures do not stop
+ * the other deliveries. They are collected and reported by {@link #get()} as
+ * a single {@link EventDeliveryException}. Deliveries cannot be cancelled. <p>
+ * Instead of blocking in {@link #get()}, callers can register callbacks that
+ * are executed when the future is done.
+ *
+ * @see AbstractEventBus#publishEventAsync(net.pkhsolutions.ceres.eventbus.Event)
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public final class PublicationFuture<T> implements Future<Event<T>> {
+
+    private final Event<T> event;
+    private final AtomicInteger pendingDeliveries = new AtomicInteger(1);
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    /**
+     * Callbacks waiting for the future to be done, or null once it is done.
+     * Guarded by this.
+     */
+    private List<Callback> callbacks = new ArrayList<Callback>();
+
+    PublicationFuture(Event<T> event) {
+        this.event = event;
+    }
+
+    /**
+     * Gets the event whose deliveries are tracked by this future.
+     *
+     * @return the event, never null.
+     */
+    public Event<T> getEvent() {
+        return event;
+    }
+
+    /**
+     * Gets the number of deliveries that have not completed yet.
+     *
+     * @return the number of pending deliveries, 0 if the future is done.
+     */
+    public int getPendingDeliveryCount() {
+        return Math.max(pendingDeliveries.get(), 0);
+    }
+
+    /**
+     * Gets the failures that have occurred so far, in the order they were
+     * reported.
+     *
+     * @return a list of failures, never null.
+     */
+    public List<Throwable> getFailures() {
+        return new ArrayList<Throwable>(failures);
+    }
+
+    /**
+     * Registers a callback that is executed using the specified executor when
+     * the future is done. If the future is already done, the callback is
+     * executed immediately. The callback can call {@link #get()} without
+     * blocking to find out whether any deliveries failed.
+     *
+     * @param callback the callback, must not be null.
+     * @param executor the executor to run the callback, must not be null.
+     */
+    public void addCallback(Runnable callback, Executor executor) {
+        assert callback != null : "callback must not be null";
+        assert executor != null : "executor must not be null";
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(new Callback(callback, executor));
+                return;
+            }
+        }
+        new Callback(callback, executor).execute();
+    }
+
+    /**
+     * Deliveries cannot be cancelled, so this method always returns false.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits until every listener has handled the event.
+     *
+     * @return the event.
+     * @throws EventDeliveryException if one or more listeners failed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public Event<T> get() throws InterruptedException, EventDeliveryException {
+        done.await();
+        return getResult();
+    }
+
+    /**
+     * Waits at most the specified time for every listener to handle the
+     * event.
+     *
+     * @return the event.
+     * @throws EventDeliveryException if one or more listeners failed.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws TimeoutException if the timeout elapsed before every listener
+     * had handled the event.
+     */
+    @Override
+    public Event<T> get(long timeout, TimeUnit unit) throws InterruptedException, EventDeliveryException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException(getPendingDeliveryCount() + " deliveries of event " + event + " still pending");
+        }
+        return getResult();
+    }
+
+    private Event<T> getResult() throws EventDeliveryException {
+        if (!failures.isEmpty()) {
+            throw new EventDeliveryException(event, getFailures());
+        }
+        return event;
+    }
+
+    void deliveryScheduled() {
+        pendingDeliveries.incrementAndGet();
+    }
+
+    void deliveryFailed(Throwable failure) {
+        failures.add(failure);
+    }
+
+    void deliveryCompleted() {
+        if (pendingDeliveries.decrementAndGet() == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        final List<Callback> callbacksToExecute;
+        synchronized (this) {
+            if (callbacks == null) {
+                return;
+            }
+            callbacksToExecute = callbacks;
+            callbacks = null;
+        }
+        event.stopTracking(this);
+        done.countDown();
+        for (Callback callback : callbacksToExecute) {
+            callback.execute();
+        }
+    }
+
+    private static final class Callback {
+
+        private final Runnable callback;
+        private final Executor executor;
+
+        Callback(Runnable callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        void execute() {
+            try {
+                executor.execute(callback);
+            } catch (RejectedExecutionException e) {
+                LoggerFactory.getLogger(PublicationFuture.class).warn("Could not execute callback " + callback, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An asynchronous implementation of {@link EventBus} that hands events over to
+ * a single consumer thread through a preallocated ring buffer. Publishers claim
+ * slots in the buffer using a sequence counter, store their events and mark
+ * the slots as published. The consumer thread processes all published slots in
+ * one batch and notifies the listeners in the order the slots were claimed.
+ * Apart from the event itself, publishing an event allocates nothing. <p> If
+ * the buffer is full, publishers wait for the consumer using the configured
+ * {@link WaitStrategy}. A listener that publishes events from the consumer
+ * thread never waits; if the buffer is full, its event is delivered
+ * immediately instead. The number of events waiting in the buffer is reported
+ * to the {@link EventBusMetrics} of the bus. <p> The consumer thread is started when the first event
+ * is published. Call {@link #shutdown()} when the event bus is no longer
+ * needed. <p> <b>Note!</b> Listeners are invoked by the consumer thread, so a
+ * slow listener delays all others.
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class RingBufferEventBus extends AbstractEventBus {
+
+    /**
+     * The default number of slots in the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferEventBus.class);
+    private static final AtomicInteger busNumber = new AtomicInteger();
+    /**
+     * Returned by {@link #claim(int)} when the consumer thread could not claim
+     * any slots.
+     */
+    private static final long NOT_CLAIMED = -1L;
+    /**
+     * Stored in {@link #claimSequence} once the consumer thread has stopped,
+     * after which nothing can be claimed.
+     */
+    private static final long CLOSED = Long.MIN_VALUE;
+    private final WaitStrategy waitStrategy;
+    private final int capacity;
+    private final int mask;
+    private final Event<?>[] slots;
+    /**
+     * The sequence number stored in each slot once the event in it has been
+     * published.
+     */
+    private final AtomicLongArray publishedSequences;
+    /**
+     * The next sequence number to claim, or {@link #CLOSED}.
+     */
+    private final AtomicLong claimSequence = new AtomicLong();
+    /**
+     * The next sequence number to consume. All slots with lower sequence
+     * numbers are free.
+     */
+    private final AtomicLong consumerSequence = new AtomicLong();
+    private final Object consumerLock = new Object();
+    private volatile Thread consumerThread;
+    private volatile boolean consumerWaiting;
+    private volatile boolean shutdown;
+
+    /**
+     * Enumeration of strategies for waiting on the ring buffer. The consumer
+     * uses the strategy when there are no events to process and publishers use
+     * it when the buffer is full.
+     */
+    public enum WaitStrategy {
+
+        /**
+         * Spin in a tight loop. This gives the lowest latency, but keeps one
+         * processor core busy at all times.
+         */
+        BUSY_SPIN {
+
+            @Override
+            void idle(RingBufferEventBus eventBus) {
+            }
+        },
+        /**
+         * Call {@link Thread#yield()} between attempts. This gives low latency
+         * while letting other threads run.
+         */
+        YIELD {
+
+            @Override
+            void idle(RingBufferEventBus eventBus) {
+                Thread.yield();
+            }
+        },
+        /**
+         * Park the waiting thread until it is woken up by another thread. This
+         * uses the least CPU, at the cost of a higher handoff latency.
+         */
+        PARK {
+
+            @Override
+            void idle(RingBufferEventBus eventBus) {
+                if (Thread.currentThread() == eventBus.consumerThread) {
+                    eventBus.consumerWaiting = true;
+                    if (!eventBus.hasPublishedEvents()) {
+                        LockSupport.parkNanos(eventBus, TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                    eventBus.consumerWaiting = false;
+                } else {
+                    LockSupport.parkNanos(eventBus, TimeUnit.MICROSECONDS.toNanos(50));
+                }
+            }
+        };
+
+        abstract void idle(RingBufferEventBus eventBus);
+    }
+
+    /**
+     * Creates a new
+     * <code>RingBufferEventBus</code> with the default capacity that parks
+     * waiting threads.
+     *
+     * @see #DEFAULT_CAPACITY
+     * @see WaitStrategy#PARK
+     */
+    public RingBufferEventBus() {
+        this(DEFAULT_CAPACITY, WaitStrategy.PARK);
+    }
+
+    /**
+     * Creates a new
+     * <code>RingBufferEventBus</code>.
+     *
+     * @param capacity the number of slots in the ring buffer, must be a power
+     * of two.
+     * @param waitStrategy the wait strategy, must not be null.
+     */
+    public RingBufferEventBus(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        assert waitStrategy != null : "waitStrategy must not be null";
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.slots = new Event<?>[capacity];
+        this.publishedSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            publishedSequences.set(i, -1L);
+        }
+    }
+
+    /**
+     * Gets the number of slots in the ring buffer.
+     *
+     * @return the capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the wait strategy of the ring buffer.
+     *
+     * @return the wait strategy, never null.
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    @Override
+    protected void doPublishEvent(Event<?> event) {
+        if (shutdown) {
+            ignore(event);
+            return;
+        }
+        ensureConsumerStarted();
+        final long sequence = claim(1);
+        if (sequence == CLOSED) {
+            ignore(event);
+            return;
+        } else if (sequence == NOT_CLAIMED) {
+            deliver(event);
+            return;
+        }
+        publish(sequence, event);
+        getMetrics().deliveriesQueued(this, 1);
+        signalConsumer();
+    }
+
+    /**
+     * {@inheritDoc} <p> The events are stored in consecutive slots that are
+     * claimed in as few steps as possible, at most {@link #getCapacity() } slots at
+     * a time.
+     */
+    @Override
+    protected void doPublishEvents(List<Event<?>> events) {
+        if (shutdown) {
+            ignore(events);
+            return;
+        }
+        ensureConsumerStarted();
+        int offset = 0;
+        while (offset < events.size()) {
+            final int count = Math.min(events.size() - offset, capacity);
+            final long sequence = claim(count);
+            if (sequence == CLOSED) {
+                ignore(events.subList(offset, events.size()));
+                return;
+            } else if (sequence == NOT_CLAIMED) {
+                deliver(events.subList(offset, events.size()));
+                return;
+            }
+            for (int i = 0; i < count; ++i) {
+                publish(sequence + i, events.get(offset + i));
+            }
+            offset += count;
+            getMetrics().deliveriesQueued(this, count);
+            signalConsumer();
+        }
+    }
+
+    private void ignore(Event<?> event) {
+        logger.warn("Event bus has been shut down, ignoring event {}", event);
+        deliveryFailed(event, new IllegalStateException("Event bus has been shut down"));
+    }
+
+    private void ignore(List<Event<?>> events) {
+        logger.warn("Event bus has been shut down, ignoring {} events", events.size());
+        final IllegalStateException failure = new IllegalStateException("Event bus has been shut down");
+        for (Event<?> event : events) {
+            deliveryFailed(event, failure);
+        }
+    }
+
+    /**
+     * Claims the specified number of consecutive slots, waiting for the
+     * consumer if there is not enough room in the buffer. If the calling thread
+     * is the consumer thread and there is not enough room, nothing is claimed.
+     * Once the consumer thread has stopped, nothing can be claimed either, and
+     * waiting publishers give up.
+     *
+     * @param count the number of slots to claim, at most the capacity.
+     * @return the sequence number of the first claimed slot, {@link #NOT_CLAIMED}
+     * if the consumer thread could not claim the slots, or {@link #CLOSED} if the
+     * consumer thread has stopped.
+     */
+    long claim(int count) {
+        assert count > 0 && count <= capacity : "count must be between 1 and the capacity";
+        while (true) {
+            final long current = claimSequence.get();
+            if (current == CLOSED) {
+                return CLOSED;
+            } else if (current + count - capacity > consumerSequence.get()) {
+                if (Thread.currentThread() == consumerThread) {
+                    return NOT_CLAIMED;
+                }
+                waitStrategy.idle(this);
+            } else if (claimSequence.compareAndSet(current, current + count)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Stores the event in the claimed slot with the specified sequence number
+     * and makes it available to the consumer. The delivery of the event is
+     * completed once the consumer has processed the batch containing the slot.
+     */
+    void publish(long sequence, Event<?> event) {
+        deliveryScheduled(event);
+        final int index = (int) sequence & mask;
+        slots[index] = event;
+        publishedSequences.set(index, sequence);
+    }
+
+    /**
+     * Wakes up the consumer thread if it is parked.
+     */
+    void signalConsumer() {
+        if (consumerWaiting) {
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    private boolean hasPublishedEvents() {
+        final long next = consumerSequence.get();
+        return publishedSequences.get((int) next & mask) == next;
+    }
+
+    private void deliver(Event<?> event) {
+        for (EventListener listener : getEventListeners(event)) {
+            try {
+                listener.handleEvent(event, getMetrics());
+            } catch (Throwable e) {
+                logger.error("Error notifying listener of event " + event, e);
+                deliveryFailed(event, e);
+            }
+        }
+    }
+
+    private void deliver(List<Event<?>> events) {
+        if (events.size() == 1) {
+            deliver(events.get(0));
+            return;
+        }
+        for (Map.Entry<EventListener, List<Event<?>>> entry : groupByEventListener(events).entrySet()) {
+            try {
+                entry.getKey().handleEvents(entry.getValue(), getMetrics());
+            } catch (Throwable e) {
+                logger.error("Error notifying listener of " + entry.getValue().size() + " events", e);
+                for (Event<?> event : entry.getValue()) {
+                    deliveryFailed(event, e);
+                }
+            }
+        }
+    }
+
+    private void ensureConsumerStarted() {
+        if (consumerThread == null) {
+            synchronized (consumerLock) {
+                if (consumerThread == null) {
+                    final Thread thread = new Thread(new Consumer(), "RingBufferEventBus-" + busNumber.incrementAndGet() + "-consumer");
+                    thread.setDaemon(true);
+                    consumerThread = thread;
+                    thread.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Shuts down the event bus. Events that have already been published are
+     * still delivered, but events published after this method has been called
+     * are ignored.
+     *
+     * @see #awaitTermination(long, java.util.concurrent.TimeUnit)
+     */
+    public void shutdown() {
+        synchronized (consumerLock) {
+            shutdown = true;
+            if (consumerThread != null) {
+                LockSupport.unpark(consumerThread);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the event bus has been shut down.
+     *
+     * @return true if {@link #shutdown()} has been called, false otherwise.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Blocks until all published events have been delivered after a shutdown
+     * request, or the timeout occurs, or the current thread is interrupted,
+     * whichever happens first.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the time unit of the timeout argument, must not be null.
+     * @return true if all events have been delivered, false if the timeout
+     * elapsed first.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if the event bus has not been shut down.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final Thread thread;
+        synchronized (consumerLock) {
+            if (!shutdown) {
+                throw new IllegalStateException("Event bus has not been shut down");
+            }
+            thread = consumerThread;
+        }
+        if (thread != null) {
+            unit.timedJoin(thread, timeout);
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    /**
+     * The consumer processes all slots that have been published since the
+     * last batch, then frees them at once. Events in the batch that are
+     * conflated by a later event of the same batch are dropped, and every
+     * listener is notified of the remaining events in one go. <p> After a
+     * shutdown, the consumer stops by closing {@link #claimSequence} when no
+     * more slots have been claimed, so a slot that is claimed concurrently is
+     * either delivered or never claimed at all. If the consumer stops for any
+     * other reason, the claim sequence is closed as well, so that publishers do
+     * not wait for it forever.
+     */
+    private final class Consumer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                consume();
+            } finally {
+                if (claimSequence.getAndSet(CLOSED) != CLOSED) {
+                    logger.error("Consumer thread stopped unexpectedly, shutting down event bus");
+                    shutdown = true;
+                }
+            }
+        }
+
+        private void consume() {
+            long next = consumerSequence.get();
+            while (true) {
+                long available = next;
+                while (publishedSequences.get((int) available & mask) == available) {
+                    ++available;
+                }
+                if (available == next) {
+                    if (shutdown && claimSequence.compareAndSet(next, CLOSED)) {
+                        return;
+                    }
+                    waitStrategy.idle(RingBufferEventBus.this);
+                    continue;
+                }
+                final List<Event<?>> batch = new ArrayList<Event<?>>((int) (available - next));
+                for (long sequence = next; sequence < available; ++sequence) {
+                    final int index = (int) sequence & mask;
+                    batch.add(slots[index]);
+                    slots[index] = null;
+                }
+                getMetrics().deliveriesDequeued(RingBufferEventBus.this, batch.size());
+                deliver(conflate(batch));
+                deliveryCompleted(batch, null);
+                next = available;
+                consumerSequence.set(next);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+/**
+ * Interface to be implemented by event payloads that only concern some of the
+ * listeners of their type, such as changes to a particular aggregate. Listener
+ * methods that declare a routing key, either through
+ * {@link EventListenerMethod#routingKey()} or when the listener is registered,
+ * only receive events with an equal routing key. The event buses that extend
+ * {@link AbstractEventBus} index the listeners by payload type and routing key,
+ * so publishing such an event only touches the listeners it is routed to.
+ *
+ * @see Event#getRoutingKey()
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public interface Routable {
+
+    /**
+     * Gets the key that decides which listeners receive the event.
+     *
+     * @return the routing key, or null to deliver the event only to listeners
+     * that accept every routing key.
+     */
+    String getRoutingKey();
+}
@@ -17,26 +17,40 @@ package net.pkhsolutions.ceres.eventbus;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This is a wrapper class that makes the wrapped {@link EventBus} serializable.
  * Any serializable listeners and/or serializable parent bus are retained.
  * Please note though, that the serializable listeners will be stored using
  * strong references even though the underlying implementation might use weak
- * references for storing them.
+ * references for storing them. <p> Optionally, the events published on the
+ * bus can be recorded in an {@link EventJournal}, so that events that were in
+ * flight when the bus was serialized or when a node failed can be replayed
+ * later. <p> The serialized form consists of the event bus factory, the
+ * serializable listeners, the parent bus and the event journal only. The
+ * collection holding the listeners is not serialized as such, and the wrapped
+ * event bus is recreated using the factory on deserialization.
  *
+ * @see #setEventJournal(net.pkhsolutions.ceres.eventbus.EventJournal)
  * @see #createAsynchronousSerializableEventBus()
  * @see #createSynchronousSerializableEventBus()
  *
  * @author Petter Holmström
  * @since 1.0
  */
-public class SerializableEventBus implements EventBus, Serializable {
+public class SerializableEventBus implements BatchEventBus, Serializable {
 
-    private static final long serialVersionUID = -5653511946728206137L;
+    private static final long serialVersionUID = 7316286398806187431L;
+    private static final Logger logger = LoggerFactory.getLogger(SerializableEventBus.class);
 
     /**
      * Factory interface to be used by {@link SerializableEventBus} to create
@@ -54,9 +68,10 @@ public class SerializableEventBus implements EventBus, Serializable {
          */
         EventBus createEventBus();
     }
-    private final EventBusFactory eventBusFactory;
-    private final Set<Serializable> serializableListeners = new HashSet<Serializable>();
-    private EventBus serializableParentBus;
+    private transient EventBusFactory eventBusFactory;
+    private transient Set<Serializable> serializableListeners = new HashSet<Serializable>();
+    private transient EventBus serializableParentBus;
+    private transient volatile EventJournal eventJournal;
     private transient EventBus wrappedEventBus;
 
     /**
@@ -72,8 +87,27 @@ public class SerializableEventBus implements EventBus, Serializable {
         wrappedEventBus = eventBusFactory.createEventBus();
     }
 
+    private synchronized void writeObject(ObjectOutputStream os) throws IOException {
+        os.defaultWriteObject();
+        os.writeObject(eventBusFactory);
+        os.writeInt(serializableListeners.size());
+        for (Serializable serializableListener : serializableListeners) {
+            os.writeObject(serializableListener);
+        }
+        os.writeObject(serializableParentBus);
+        os.writeObject(eventJournal);
+    }
+
     private void readObject(ObjectInputStream is) throws ClassNotFoundException, IOException {
         is.defaultReadObject();
+        eventBusFactory = (EventBusFactory) is.readObject();
+        final int listenerCount = is.readInt();
+        serializableListeners = new HashSet<Serializable>(Math.max(listenerCount * 2, 16));
+        for (int i = 0; i < listenerCount; ++i) {
+            serializableListeners.add((Serializable) is.readObject());
+        }
+        serializableParentBus = (EventBus) is.readObject();
+        eventJournal = (EventJournal) is.readObject();
         wrappedEventBus = eventBusFactory.createEventBus();
         for (Object serializableListener : serializableListeners) {
             wrappedEventBus.registerEventListener(serializableListener);
@@ -105,16 +139,100 @@ public class SerializableEventBus implements EventBus, Serializable {
         }
     }
 
+    /**
+     * Gets the journal that the published events are recorded in.
+     *
+     * @return the event journal, or null if events are not recorded.
+     */
+    public EventJournal getEventJournal() {
+        return eventJournal;
+    }
+
+    /**
+     * Sets the journal to record the published events in. Only events
+     * published directly on this bus are recorded, not events that are
+     * propagated to it from other buses. The journal is serialized together
+     * with the bus, but it is not closed by it.
+     *
+     * @param eventJournal the event journal, or null to stop recording events.
+     */
+    public void setEventJournal(EventJournal eventJournal) {
+        this.eventJournal = eventJournal;
+    }
+
+    /**
+     * Publishes the events recorded in the event journal from the specified
+     * offset on the wrapped event bus. The replayed events are not recorded
+     * again.
+     *
+     * @see EventJournal#replay(long, net.pkhsolutions.ceres.eventbus.EventBus)
+     *
+     * @param fromOffset the offset of the first record to replay.
+     * @return the offset after the last replayed record.
+     * @throws IOException if the events cannot be read from the journal.
+     * @throws IllegalStateException if there is no event journal.
+     */
+    public long replayEventJournal(long fromOffset) throws IOException {
+        final EventJournal journal = eventJournal;
+        if (journal == null) {
+            throw new IllegalStateException("No event journal");
+        }
+        return journal.replay(fromOffset, getWrappedEventBus());
+    }
+
+    private void record(Event<?> event) {
+        final EventJournal journal = eventJournal;
+        if (journal != null) {
+            try {
+                journal.append(event);
+            } catch (IOException e) {
+                logger.error("Could not record event " + event + " in the event journal", e);
+            }
+        }
+    }
+
     @Override
     public <T> void publishEvent(T payload, EventScope scope) {
-        getWrappedEventBus().publishEvent(payload, scope);
+        if (eventJournal == null) {
+            getWrappedEventBus().publishEvent(payload, scope);
+        } else {
+            final EventBus eventBus = getWrappedEventBus();
+            publishEvent(new Event<T>(payload, eventBus, scope));
+        }
     }
 
     @Override
     public void publishEvent(Event<?> event) {
+        if (event != null) {
+            record(event);
+        }
         getWrappedEventBus().publishEvent(event);
     }
 
+    @Override
+    public void publishEvents(Collection<?> payloads, EventScope scope) {
+        final EventBus eventBus = getWrappedEventBus();
+        if (eventJournal == null && eventBus instanceof BatchEventBus) {
+            ((BatchEventBus) eventBus).publishEvents(payloads, scope);
+        } else {
+            final List<Event<?>> events = new ArrayList<Event<?>>(payloads.size());
+            for (Object payload : payloads) {
+                events.add(new Event<Object>(payload, eventBus, scope));
+            }
+            publishEvents(events);
+        }
+    }
+
+    @Override
+    public void publishEvents(Collection<? extends Event<?>> events) {
+        if (events != null) {
+            for (Event<?> event : events) {
+                record(event);
+            }
+        }
+        AbstractEventBus.publishBatch(getWrappedEventBus(), events);
+    }
+
     /**
      * <b>Note! In this implementation, if the listener is serializable, a
      * strong reference will be used to store it!</b> In other words, remember
@@ -143,15 +261,7 @@ public class SerializableEventBus implements EventBus, Serializable {
      * @return a new event bus instance, never null.
      */
     public static SerializableEventBus createSynchronousSerializableEventBus() {
-        return new SerializableEventBus(new EventBusFactory() {
-
-            private static final long serialVersionUID = 8651545956045591819L;
-
-            @Override
-            public EventBus createEventBus() {
-                return new SynchronousEventBus();
-            }
-        });
+        return new SerializableEventBus(StandardEventBusFactory.SYNCHRONOUS);
     }
 
     /**
@@ -160,14 +270,28 @@ public class SerializableEventBus implements EventBus, Serializable {
      * @return a new event bus instance, never null.
      */
     public static SerializableEventBus createAsynchronousSerializableEventBus() {
-        return new SerializableEventBus(new EventBusFactory() {
+        return new SerializableEventBus(StandardEventBusFactory.ASYNCHRONOUS);
+    }
+
+    /**
+     * The factories of the event buses created by the static factory methods.
+     * Being constants, they are serialized by name only.
+     */
+    private enum StandardEventBusFactory implements EventBusFactory {
 
-            private static final long serialVersionUID = 8651545956045591819L;
+        SYNCHRONOUS {
+
+            @Override
+            public EventBus createEventBus() {
+                return new SynchronousEventBus();
+            }
+        },
+        ASYNCHRONOUS {
 
             @Override
             public EventBus createEventBus() {
                 return new AsynchronousEventBus();
             }
-        });
+        }
     }
 }
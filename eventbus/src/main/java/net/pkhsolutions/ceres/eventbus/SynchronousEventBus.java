@@ -15,6 +15,9 @@
  */
 package net.pkhsolutions.ceres.eventbus;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * A synchronous implementation of {@link EventBus} that invokes the listeners
  * in the same thread that published the event, immediately after the event is
@@ -27,10 +30,15 @@ public class SynchronousEventBus extends AbstractEventBus {
 
     @Override
     protected void doPublishEvent(Event<?> event) {
-        for (EventListener listener : getEventListeners()) {
-            if (listener.supports(event)) {
-                listener.handleEvent(event);
-            }
+        for (EventListener listener : getEventListeners(event)) {
+            listener.handleEvent(event, getMetrics());
+        }
+    }
+
+    @Override
+    protected void doPublishEvents(List<Event<?>> events) {
+        for (Map.Entry<EventListener, List<Event<?>>> entry : groupByEventListener(events).entrySet()) {
+            entry.getKey().handleEvents(entry.getValue(), getMetrics());
         }
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous event bus that notifies every listener in a virtual thread of
+ * its own, which makes it suitable for listeners that block, for example on
+ * I/O. Whether virtual threads are available is checked at runtime; if the JVM
+ * does not support them, the event bus falls back to the thread pool of {@link AsynchronousEventBus}
+ * with the default pool size and queue capacity. <p> As virtual threads are
+ * not pooled, there is no limit on the number of deliveries in flight. To
+ * prevent a single listener from being flooded, the number of concurrent
+ * invocations of each listener is limited; deliveries exceeding the limit wait
+ * in their virtual threads until an earlier invocation of the same listener
+ * has returned. A delivery whose thread is interrupted while waiting fails. <p> As there is no work queue, the {@link DeliveryOrder#PRIORITIZED}
+ * delivery order only affects the order in which deliveries are started when
+ * the event bus has fallen back to the thread pool. Missed deadlines are still
+ * reported. <p> Call {@link #shutdown()} when the event bus is no longer
+ * needed. <p> <b>Note!</b> When using this event bus, make sure that the
+ * listeners are thread safe!
+ *
+ * @see #isVirtualThreadSupported()
+ *
+ * @author Petter Holmström
+ * @since 1.0
+ */
+public class VirtualThreadEventBus extends AsynchronousEventBus {
+
+    /**
+     * The default maximum number of concurrent invocations of a single
+     * listener.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_LISTENER = 16;
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadEventBus.class);
+    private static final AtomicInteger busNumber = new AtomicInteger();
+    private final int maxConcurrencyPerListener;
+    private final Map<EventListener, Semaphore> permits = Collections.synchronizedMap(new WeakHashMap<EventListener, Semaphore>());
+    private volatile boolean usingVirtualThreads;
+
+    /**
+     * Creates a new
+     * <code>VirtualThreadEventBus</code> with the default maximum concurrency
+     * per listener.
+     *
+     * @see #DEFAULT_MAX_CONCURRENCY_PER_LISTENER
+     */
+    public VirtualThreadEventBus() {
+        this(DEFAULT_MAX_CONCURRENCY_PER_LISTENER);
+    }
+
+    /**
+     * Creates a new
+     * <code>VirtualThreadEventBus</code>.
+     *
+     * @param maxConcurrencyPerListener the maximum number of concurrent
+     * invocations of a single listener, must be greater than 0.
+     */
+    public VirtualThreadEventBus(int maxConcurrencyPerListener) {
+        this(maxConcurrencyPerListener, DeliveryOrder.UNORDERED);
+    }
+
+    /**
+     * Creates a new
+     * <code>VirtualThreadEventBus</code>.
+     *
+     * @param maxConcurrencyPerListener the maximum number of concurrent
+     * invocations of a single listener, must be greater than 0.
+     * @param deliveryOrder the delivery order, must not be null.
+     */
+    public VirtualThreadEventBus(int maxConcurrencyPerListener, DeliveryOrder deliveryOrder) {
+        super(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.CallerRunsPolicy(), deliveryOrder);
+        if (maxConcurrencyPerListener < 1) {
+            throw new IllegalArgumentException("Max concurrency per listener must be greater than 0");
+        }
+        this.maxConcurrencyPerListener = maxConcurrencyPerListener;
+    }
+
+    /**
+     * Checks whether the JVM supports virtual threads.
+     *
+     * @return true if listeners can be notified in virtual threads, false if
+     * the event bus will fall back to a thread pool.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.SUPPORTED;
+    }
+
+    /**
+     * Gets the maximum number of concurrent invocations of a single listener.
+     *
+     * @return the maximum concurrency, always greater than 0.
+     */
+    public int getMaxConcurrencyPerListener() {
+        return maxConcurrencyPerListener;
+    }
+
+    /**
+     * Checks whether the listeners are notified in virtual threads. This is
+     * only known after the executor service has been created, i.e. after the
+     * first event has been published.
+     *
+     * @return true if the executor service uses virtual threads, false
+     * otherwise.
+     */
+    public boolean isUsingVirtualThreads() {
+        return usingVirtualThreads;
+    }
+
+    /**
+     * Creates an executor service that starts a new virtual thread for every
+     * delivery. If virtual threads are not supported, the thread pool of {@link AsynchronousEventBus}
+     * is created instead.
+     */
+    @Override
+    protected ExecutorService createExecutorService() {
+        if (VirtualThreads.SUPPORTED) {
+            try {
+                final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("VirtualThreadEventBus-" + busNumber.incrementAndGet() + "-thread-");
+                usingVirtualThreads = true;
+                return executor;
+            } catch (Exception e) {
+                logger.warn("Could not create virtual thread executor, falling back to a thread pool", e);
+            }
+        }
+        return super.createExecutorService();
+    }
+
+    /**
+     * {@inheritDoc} <p> If the thread is interrupted while waiting for the
+     * listener to become available, the delivery fails and is reported to the
+     * metrics.
+     */
+    @Override
+    protected void notifyListener(EventListener listener, Event<?> event, EventBusMetrics metrics) {
+        final Semaphore semaphore = getPermits(listener);
+        acquire(semaphore, listener, 1, metrics);
+        try {
+            listener.handleEvent(event, metrics);
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc} <p> If the thread is interrupted while waiting for the
+     * listener to become available, the deliveries fail and are reported to
+     * the metrics.
+     */
+    @Override
+    protected void notifyListener(EventListener listener, List<Event<?>> events, EventBusMetrics metrics) {
+        final Semaphore semaphore = getPermits(listener);
+        acquire(semaphore, listener, events.size(), metrics);
+        try {
+            listener.handleEvents(events, metrics);
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private Semaphore getPermits(EventListener listener) {
+        synchronized (permits) {
+            Semaphore semaphore = permits.get(listener);
+            if (semaphore == null) {
+                semaphore = new Semaphore(maxConcurrencyPerListener);
+                permits.put(listener, semaphore);
+            }
+            return semaphore;
+        }
+    }
+
+    /**
+     * Acquires a permit to notify the listener.
+     *
+     * @throws IllegalStateException if the thread is interrupted while
+     * waiting, which fails the deliveries.
+     */
+    private void acquire(Semaphore semaphore, EventListener listener, int eventCount, EventBusMetrics metrics) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.deliveriesInterrupted(this, listener.getListener(), eventCount);
+            throw new IllegalStateException("Interrupted while waiting to notify listener " + listener.getListener(), e);
+        }
+    }
+
+    /**
+     * Looks up the virtual thread API reflectively, so that the event bus can
+     * be compiled and run on JVMs that do not have it.
+     */
+    private static final class VirtualThreads {
+
+        private static final Method OF_VIRTUAL;
+        private static final Method NAME;
+        private static final Method FACTORY;
+        private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+        private static final boolean SUPPORTED;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method factory = null;
+            Method newThreadPerTaskExecutor = null;
+            try {
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builderClass.getMethod("name", String.class, long.class);
+                factory = builderClass.getMethod("factory");
+                newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (Exception e) {
+                logger.debug("Virtual threads are not supported by this JVM");
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+            NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+            SUPPORTED = newThreadPerTaskExecutor != null;
+        }
+
+        static ExecutorService newThreadPerTaskExecutor(String namePrefix) throws Exception {
+            final Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 1L);
+            final ThreadFactory threadFactory = (ThreadFactory) FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package net.pkhsolutions.ceres.eventbus;
 
+import java.util.Arrays;
 import org.apache.commons.lang.ObjectUtils;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
@@ -173,4 +174,37 @@ public abstract class AbstractEventBusTest {
 
         verifyNoMoreInteractions(childListener1, childListener2, parentListener);
     }
+
+    @Test
+    public void listenersRegisteredAfterPublicationReceiveEvents() throws Exception {
+        childBus1.publishEvent("hello world", EventScope.LOCAL);
+        waitForEventsToBecomePublished();
+
+        ExampleListener lateListener = mock(ExampleListener.class);
+        childBus1.registerEventListener(lateListener);
+        childBus1.unregisterEventListener(childListener1);
+        reset(childListener1);
+
+        childBus1.publishEvent("hello again", EventScope.LOCAL);
+        waitForEventsToBecomePublished();
+
+        verify(lateListener).stringEventsOnly(argThat(matchesEvent(childBus1, "hello again")));
+        verify(lateListener).allEvents(argThat(matchesEvent(childBus1, (Object) "hello again")));
+        verifyNoMoreInteractions(lateListener);
+        verifyZeroInteractions(childListener1);
+    }
+
+    @Test
+    public void batchOfGlobalEvents() throws Exception {
+        ((BatchEventBus) grandChildBus1).publishEvents(Arrays.asList("hello world", 1234), EventScope.GLOBAL);
+        waitForEventsToBecomePublished();
+
+        for (ExampleListener listener : Arrays.asList(childListener1, childListener2, parentListener)) {
+            verify(listener).stringEventsOnly(argThat(matchesEvent(grandChildBus1, "hello world")));
+            verify(listener).integerEventsOnly(argThat(matchesEvent(grandChildBus1, 1234)));
+            verify(listener).allEvents(argThat(matchesEvent(grandChildBus1, (Object) "hello world")));
+            verify(listener).allEvents(argThat(matchesEvent(grandChildBus1, (Object) 1234)));
+        }
+        verifyNoMoreInteractions(childListener1, childListener2, parentListener);
+    }
 }
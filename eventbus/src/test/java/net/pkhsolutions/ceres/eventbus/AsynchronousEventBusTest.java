@@ -15,6 +15,18 @@
  */
 package net.pkhsolutions.ceres.eventbus;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.pkhsolutions.ceres.common.holder.ContextHolderStrategy;
+import net.pkhsolutions.ceres.common.holder.Holder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
 /**
  * Test case for {@link AsynchronousEventBus}.
  *
@@ -31,4 +43,209 @@ public class AsynchronousEventBusTest extends AbstractEventBusTest {
     protected void waitForEventsToBecomePublished() throws Exception {
         Thread.sleep(250);
     }
+
+    public static class BlockingListener {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Map<String, Thread> threads = new ConcurrentHashMap<String, Thread>();
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) throws InterruptedException {
+            threads.put(event.getPayload(), Thread.currentThread());
+            if (event.getPayload().equals("block")) {
+                started.countDown();
+                release.await();
+            }
+        }
+    }
+
+    public static class Progress implements Conflatable {
+
+        final String task;
+        final int percent;
+
+        Progress(String task, int percent) {
+            this.task = task;
+            this.percent = percent;
+        }
+
+        @Override
+        public Object getConflationKey() {
+            return task;
+        }
+    }
+
+    public static class ProgressListener extends BlockingListener {
+
+        final List<Integer> percents = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @EventListenerMethod
+        void handleProgress(Event<Progress> event) {
+            percents.add(event.getPayload().percent);
+        }
+    }
+
+    @Test
+    public void waitingConflatableEventsAreReplacedByNewerEvents() throws Exception {
+        AsynchronousEventBus eventBus = new AsynchronousEventBus(1, 10);
+        ProgressListener listener = new ProgressListener();
+        eventBus.registerEventListener(listener);
+
+        eventBus.publishEvent("block", EventScope.LOCAL);
+        assertTrue(listener.started.await(1, TimeUnit.SECONDS));
+        for (int i = 1; i <= 100; ++i) {
+            eventBus.publishEvent(new Progress("task", i), EventScope.LOCAL);
+        }
+        listener.release.countDown();
+
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(100), listener.percents);
+    }
+
+    @Test
+    public void listenerRunsInPublishingThreadWhenQueueIsFull() throws Exception {
+        AsynchronousEventBus eventBus = new AsynchronousEventBus(1, 1);
+        BlockingListener listener = new BlockingListener();
+        eventBus.registerEventListener(listener);
+
+        eventBus.publishEvent("block", EventScope.LOCAL);
+        assertTrue(listener.started.await(1, TimeUnit.SECONDS));
+        eventBus.publishEvent("queued", EventScope.LOCAL);
+        eventBus.publishEvent("rejected", EventScope.LOCAL);
+        assertSame(Thread.currentThread(), listener.threads.get("rejected"));
+        listener.release.countDown();
+
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), listener.threads.get("queued"));
+    }
+
+    public static class FailingListener {
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) {
+            throw new IllegalStateException(event.getPayload());
+        }
+    }
+
+    @Test
+    public void futureCompletesWhenAllListenersInHierarchyAreDone() throws Exception {
+        AsynchronousEventBus parentBus = new AsynchronousEventBus();
+        AsynchronousEventBus childBus = new AsynchronousEventBus();
+        childBus.setParentBus(parentBus);
+        BlockingListener parentListener = new BlockingListener();
+        BlockingListener childListener = new BlockingListener();
+        parentBus.registerEventListener(parentListener);
+        childBus.registerEventListener(childListener);
+
+        PublicationFuture<String> future = childBus.publishEventAsync("block", EventScope.GLOBAL);
+        assertTrue(parentListener.started.await(1, TimeUnit.SECONDS));
+        assertTrue(childListener.started.await(1, TimeUnit.SECONDS));
+        childListener.release.countDown();
+        assertFalse(future.isDone());
+        parentListener.release.countDown();
+
+        assertEquals("block", future.get(1, TimeUnit.SECONDS).getPayload());
+        assertTrue(future.getFailures().isEmpty());
+    }
+
+    @Test
+    public void futureReportsAllFailures() throws Exception {
+        AsynchronousEventBus parentBus = new AsynchronousEventBus();
+        AsynchronousEventBus childBus = new AsynchronousEventBus();
+        childBus.setParentBus(parentBus);
+        parentBus.registerEventListener(new FailingListener());
+        childBus.registerEventListener(new FailingListener());
+        BlockingListener listener = new BlockingListener();
+        childBus.registerEventListener(listener);
+
+        PublicationFuture<String> future = childBus.publishEventAsync("fail", EventScope.GLOBAL);
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("No failures reported");
+        } catch (EventDeliveryException e) {
+            assertEquals(2, e.getFailures().size());
+        }
+        assertTrue(listener.threads.containsKey("fail"));
+    }
+
+    @Test
+    public void eventsAreIgnoredAfterShutdown() throws Exception {
+        AsynchronousEventBus eventBus = new AsynchronousEventBus();
+        BlockingListener listener = new BlockingListener();
+        eventBus.registerEventListener(listener);
+
+        eventBus.shutdown();
+        eventBus.publishEvent("ignored", EventScope.LOCAL);
+
+        assertTrue(eventBus.isShutdown());
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+        assertTrue(listener.threads.isEmpty());
+    }
+
+    public static class HolderListener {
+
+        final CountDownLatch received = new CountDownLatch(1);
+        volatile EventBus heldEventBus;
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) {
+            heldEventBus = EventBusHolder.getEventBus();
+            received.countDown();
+        }
+    }
+
+    @Test
+    public void listenersSeeHolderContextOfPublisher() throws Exception {
+        Holder.setStrategy(EventBusHolder.class, new ContextHolderStrategy<EventBus>());
+        try {
+            AsynchronousEventBus eventBus = new AsynchronousEventBus();
+            HolderListener listener = new HolderListener();
+            eventBus.registerEventListener(listener);
+            EventBusHolder.setEventBus(eventBus);
+
+            eventBus.publishEvent("hello", EventScope.LOCAL);
+
+            assertTrue(listener.received.await(1, TimeUnit.SECONDS));
+            assertSame(eventBus, listener.heldEventBus);
+            eventBus.shutdown();
+        } finally {
+            EventBusHolder.setEventBus(null);
+            Holder.setStrategy(EventBusHolder.class, null);
+        }
+    }
+
+    @Test
+    public void futuresCompleteWhenShutdownRacesPublication() throws Exception {
+        for (int round = 0; round < 50; ++round) {
+            final AsynchronousEventBus eventBus = new AsynchronousEventBus(1, 1000);
+            final InMemoryEventBusMetrics metrics = new InMemoryEventBusMetrics();
+            eventBus.setMetrics(metrics);
+            eventBus.registerEventListener(new BlockingListener());
+            final List<PublicationFuture<String>> futures = Collections.synchronizedList(new ArrayList<PublicationFuture<String>>());
+            final CountDownLatch publishing = new CountDownLatch(1);
+            Thread publisher = new Thread() {
+
+                @Override
+                public void run() {
+                    publishing.countDown();
+                    for (int i = 0; i < 200; ++i) {
+                        futures.add(eventBus.publishEventAsync("event " + i, EventScope.LOCAL));
+                    }
+                }
+            };
+            publisher.start();
+            assertTrue(publishing.await(1, TimeUnit.SECONDS));
+            eventBus.shutdown();
+            publisher.join(1000);
+
+            assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+            for (PublicationFuture<String> future : futures) {
+                assertTrue(future.isDone());
+            }
+            assertEquals(0, metrics.getQueueDepth());
+        }
+    }
 }
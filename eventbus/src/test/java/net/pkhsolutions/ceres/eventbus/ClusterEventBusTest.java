@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link ClusterEventBus}.
+ *
+ * @author Petter Holmström
+ */
+public class ClusterEventBusTest {
+
+    public static class RecordingListener {
+
+        final List<Event<String>> events = new ArrayList<Event<String>>();
+
+        @EventListenerMethod
+        void stringEvents(Event<String> event) {
+            events.add(event);
+        }
+    }
+
+    public static class ReplyingListener {
+
+        final List<Event<String>> events = new ArrayList<Event<String>>();
+
+        @EventListenerMethod
+        void stringEvents(Event<String> event) {
+            events.add(event);
+            event.getOriginalEventBus().publishEvent("reply to " + event.getPayload(), EventScope.GLOBAL);
+        }
+    }
+
+    /**
+     * Transport that sends every message twice.
+     */
+    public static class DuplicatingTransport extends LoopbackTransport {
+
+        public DuplicatingTransport(LoopbackTransport peer) {
+            super(peer);
+        }
+
+        @Override
+        public void send(byte[] message) throws IOException {
+            super.send(message);
+            super.send(message);
+        }
+    }
+
+    /**
+     * Codec that fails with a runtime exception the first time it decodes a
+     * payload, like a codec fed a corrupt message would.
+     */
+    public static class FailingOnceCodec extends EventJournal.DefaultPayloadCodec {
+
+        private boolean failed;
+
+        @Override
+        public Object decode(ByteBuffer buffer) throws IOException {
+            if (!failed) {
+                failed = true;
+                throw new ClassCastException("Corrupt payload");
+            }
+            return super.decode(buffer);
+        }
+    }
+    private LoopbackTransport transport1;
+    private LoopbackTransport transport2;
+    private ClusterEventBus clusterBus1;
+    private ClusterEventBus clusterBus2;
+    private SynchronousEventBus rootBus1;
+    private SynchronousEventBus rootBus2;
+    private RecordingListener listener2;
+
+    @Before
+    public void setUp() throws Exception {
+        transport1 = new LoopbackTransport();
+        transport2 = new DuplicatingTransport(transport1);
+        clusterBus1 = new ClusterEventBus(transport1, new EventJournal.DefaultPayloadCodec(), 100, 0);
+        clusterBus2 = new ClusterEventBus(transport2, new EventJournal.DefaultPayloadCodec(), 100, 0);
+        rootBus1 = new SynchronousEventBus();
+        rootBus1.setParentBus(clusterBus1);
+        rootBus2 = new SynchronousEventBus();
+        rootBus2.setParentBus(clusterBus2);
+        listener2 = new RecordingListener();
+        rootBus2.registerEventListener(listener2);
+    }
+
+    @After
+    public void tearDown() {
+        clusterBus1.close();
+        clusterBus2.close();
+    }
+
+    @Test
+    public void globalEventsAreForwardedInBatches() {
+        rootBus1.publishEvent("local", EventScope.LOCAL);
+        rootBus1.publishEvent("first", EventScope.GLOBAL);
+        rootBus1.publishEvents(Arrays.asList("second", "third"), EventScope.GLOBAL);
+        assertEquals(3, clusterBus1.getQueuedEventCount());
+        assertTrue(listener2.events.isEmpty());
+
+        clusterBus1.flush();
+
+        assertEquals(1, transport1.getSentMessageCount());
+        assertEquals(3, listener2.events.size());
+        assertEquals("first", listener2.events.get(0).getPayload());
+        assertEquals("third", listener2.events.get(2).getPayload());
+        assertEquals(EventScope.GLOBAL, listener2.events.get(0).getScope());
+        final EventBus originalEventBus = listener2.events.get(0).getOriginalEventBus();
+        assertTrue(originalEventBus instanceof ClusterEventBus.RemoteEventBus);
+        assertEquals(clusterBus1.getNodeId(), ((ClusterEventBus.RemoteEventBus) originalEventBus).getNodeId());
+    }
+
+    @Test
+    public void receivedEventsAreNotForwardedAgain() {
+        RecordingListener listener1 = new RecordingListener();
+        rootBus1.registerEventListener(listener1);
+        rootBus1.publishEvent("hello", EventScope.GLOBAL);
+        clusterBus1.flush();
+
+        assertEquals(0, clusterBus2.getQueuedEventCount());
+        assertEquals(1, listener1.events.size());
+        assertEquals(1, listener2.events.size());
+    }
+
+    @Test
+    public void duplicateMessagesAreDiscarded() {
+        RecordingListener listener1 = new RecordingListener();
+        rootBus1.registerEventListener(listener1);
+        rootBus2.publishEvent("hello", EventScope.GLOBAL);
+        clusterBus2.flush();
+
+        assertEquals(2, transport2.getSentMessageCount());
+        assertEquals(1, listener1.events.size());
+    }
+
+    @Test
+    public void messageThatCannotBeDecodedIsNotTreatedAsDuplicate() throws Exception {
+        LoopbackTransport receivingTransport = new LoopbackTransport();
+        LoopbackTransport sendingTransport = new DuplicatingTransport(receivingTransport);
+        ClusterEventBus receivingBus = new ClusterEventBus(receivingTransport, new FailingOnceCodec(), 100, 0);
+        ClusterEventBus sendingBus = new ClusterEventBus(sendingTransport, new EventJournal.DefaultPayloadCodec(), 100, 0);
+        try {
+            RecordingListener listener = new RecordingListener();
+            receivingBus.registerEventListener(listener);
+            sendingBus.publishEvent("hello", EventScope.GLOBAL);
+            sendingBus.flush();
+
+            assertEquals(2, sendingTransport.getSentMessageCount());
+            assertEquals(1, listener.events.size());
+            assertEquals("hello", listener.events.get(0).getPayload());
+        } finally {
+            receivingBus.close();
+            sendingBus.close();
+        }
+    }
+
+    @Test
+    public void fullBatchesAreSentInSeparateMessages() {
+        final List<String> payloads = new ArrayList<String>();
+        for (int i = 0; i < 250; ++i) {
+            payloads.add("event " + i);
+        }
+        rootBus1.publishEvents(payloads, EventScope.GLOBAL);
+        clusterBus1.flush();
+
+        assertTrue(transport1.getSentMessageCount() >= 3);
+        assertEquals(250, listener2.events.size());
+        assertEquals("event 249", listener2.events.get(249).getPayload());
+    }
+
+    @Test
+    public void eventsThatCannotBeEncodedAreDiscarded() {
+        rootBus1.publishEvent(new Object(), EventScope.GLOBAL);
+        rootBus1.publishEvent("hello", EventScope.GLOBAL);
+        clusterBus1.flush();
+
+        assertEquals(1, listener2.events.size());
+        assertEquals("hello", listener2.events.get(0).getPayload());
+    }
+
+    @Test
+    public void repliesToRemoteEventBusAreIgnored() {
+        ReplyingListener replyingListener = new ReplyingListener();
+        rootBus2.registerEventListener(replyingListener);
+        rootBus1.publishEvent("hello", EventScope.GLOBAL);
+        clusterBus1.flush();
+
+        assertEquals(1, replyingListener.events.size());
+        assertEquals(0, clusterBus2.getQueuedEventCount());
+    }
+
+    @Test
+    public void idleNodesAreForgotten() {
+        rootBus1.publishEvent("first", EventScope.GLOBAL);
+        clusterBus1.flush();
+        assertEquals(1, clusterBus2.getRemoteNodeCount());
+        final long now = System.currentTimeMillis();
+
+        clusterBus2.evictIdleNodes(now);
+        assertEquals(1, clusterBus2.getRemoteNodeCount());
+        clusterBus2.evictIdleNodes(now + ClusterEventBus.NODE_TIMEOUT);
+        assertEquals(0, clusterBus2.getRemoteNodeCount());
+
+        rootBus1.publishEvent("second", EventScope.GLOBAL);
+        clusterBus1.flush();
+        assertEquals(1, clusterBus2.getRemoteNodeCount());
+        assertEquals(2, listener2.events.size());
+    }
+
+    @Test
+    public void closingForgetsNodes() {
+        rootBus1.publishEvent("hello", EventScope.GLOBAL);
+        clusterBus1.flush();
+        clusterBus2.close();
+
+        assertEquals(0, clusterBus2.getRemoteNodeCount());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link EventJournal}.
+ *
+ * @author Petter Holmström
+ */
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public static class RecordingListener implements Serializable {
+
+        final List<Event<Object>> events = new ArrayList<Event<Object>>();
+
+        @EventListenerMethod
+        void allEvents(Event<Object> event) {
+            events.add(event);
+        }
+    }
+
+    @Test
+    public void eventsAreReplayedFromOffset() throws Exception {
+        EventJournal journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        SynchronousEventBus eventBus = new SynchronousEventBus();
+        List<Long> offsets = new ArrayList<Long>();
+        for (int i = 0; i < 50; ++i) {
+            offsets.add(journal.append(new Event<Object>("event " + i, eventBus, i % 2 == 0 ? EventScope.LOCAL : EventScope.GLOBAL, i)));
+        }
+        assertTrue(folder.getRoot().list().length > 1);
+        RecordingListener listener = new RecordingListener();
+        eventBus.registerEventListener(listener);
+
+        assertEquals(journal.getEndOffset(), journal.replay(offsets.get(45), eventBus));
+
+        assertEquals(5, listener.events.size());
+        assertEquals("event 45", listener.events.get(0).getPayload());
+        assertEquals(EventScope.GLOBAL, listener.events.get(0).getScope());
+        assertEquals(45, listener.events.get(0).getTimestamp());
+        assertSame(eventBus, listener.events.get(0).getOriginalEventBus());
+        journal.close();
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws Exception {
+        EventJournal journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        SynchronousEventBus eventBus = new SynchronousEventBus();
+        for (Object payload : Arrays.asList("hello", 123, 456L, true, new ArrayList<String>(Arrays.asList("a", "b")))) {
+            journal.append(new Event<Object>(payload, eventBus, EventScope.LOCAL));
+        }
+        final long endOffset = journal.getEndOffset();
+        journal.close();
+
+        journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        assertEquals(endOffset, journal.getEndOffset());
+        RecordingListener listener = new RecordingListener();
+        eventBus.registerEventListener(listener);
+        journal.replay(journal.getStartOffset(), eventBus);
+
+        assertEquals(5, listener.events.size());
+        assertEquals(Arrays.asList("a", "b"), listener.events.get(4).getPayload());
+        assertEquals(456L, listener.events.get(2).getPayload());
+        journal.close();
+    }
+
+    @Test
+    public void remainsOfTornWriteAreNotReplayed() throws Exception {
+        EventJournal journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        SynchronousEventBus eventBus = new SynchronousEventBus();
+        journal.append(new Event<Object>("x", eventBus, EventScope.LOCAL));
+        journal.append(new Event<Object>("stale", eventBus, EventScope.LOCAL));
+        journal.close();
+        // Simulate a torn write by unpublishing the first record
+        RandomAccessFile segmentFile = new RandomAccessFile(folder.getRoot().listFiles()[0], "rw");
+        try {
+            segmentFile.writeInt(0);
+        } finally {
+            segmentFile.close();
+        }
+
+        journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        assertEquals(0, journal.getEndOffset());
+        journal.append(new Event<Object>("y", eventBus, EventScope.LOCAL));
+        journal.close();
+
+        journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        RecordingListener listener = new RecordingListener();
+        eventBus.registerEventListener(listener);
+        assertEquals(journal.getEndOffset(), journal.replay(journal.getStartOffset(), eventBus));
+
+        assertEquals(1, listener.events.size());
+        assertEquals("y", listener.events.get(0).getPayload());
+        journal.close();
+    }
+
+    /**
+     * Codec that cannot make sense of what it reads, like a codec reading a
+     * record whose payload was torn by a crash.
+     */
+    public static class TornPayloadCodec extends EventJournal.DefaultPayloadCodec {
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            throw new IllegalArgumentException("Torn payload");
+        }
+    }
+
+    @Test
+    public void tornPayloadFailsReplay() throws Exception {
+        EventJournal journal = new EventJournal(folder.getRoot(), 256, new TornPayloadCodec());
+        SynchronousEventBus eventBus = new SynchronousEventBus();
+        journal.append(new Event<Object>("hello", eventBus, EventScope.LOCAL));
+        try {
+            journal.replay(journal.getStartOffset(), eventBus);
+            fail("Torn payload was replayed");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void compactionDeletesOldSegments() throws Exception {
+        EventJournal journal = new EventJournal(folder.getRoot(), 256, new EventJournal.DefaultPayloadCodec());
+        SynchronousEventBus eventBus = new SynchronousEventBus();
+        long offset = 0;
+        for (int i = 0; i < 50; ++i) {
+            offset = journal.append(new Event<Object>("event " + i, eventBus, EventScope.LOCAL));
+        }
+        final int segmentCount = folder.getRoot().list().length;
+
+        assertEquals(segmentCount - 1, journal.compact(offset));
+
+        assertEquals(1, folder.getRoot().list().length);
+        assertTrue(journal.getStartOffset() <= offset);
+        RecordingListener listener = new RecordingListener();
+        eventBus.registerEventListener(listener);
+        journal.replay(offset, eventBus);
+        assertEquals("event 49", listener.events.get(0).getPayload());
+        journal.close();
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void payloadsMustBeSerializable() throws Exception {
+        EventJournal journal = new EventJournal(folder.getRoot());
+        try {
+            journal.append(new Event<Object>(new Object(), new SynchronousEventBus(), EventScope.LOCAL));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void serializableEventBusReplaysRecordedEvents() throws Exception {
+        SerializableEventBus eventBus = SerializableEventBus.createSynchronousSerializableEventBus();
+        eventBus.setEventJournal(new EventJournal(folder.getRoot()));
+        eventBus.publishEvent("hello", EventScope.LOCAL);
+        eventBus.publishEvents(Arrays.asList("one", "two"), EventScope.GLOBAL);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(eventBus);
+        os.flush();
+        SerializableEventBus restoredBus = (SerializableEventBus) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+        RecordingListener listener = new RecordingListener();
+        restoredBus.registerEventListener(listener);
+        restoredBus.replayEventJournal(restoredBus.getEventJournal().getStartOffset());
+
+        assertEquals(3, listener.events.size());
+        assertEquals("hello", listener.events.get(0).getPayload());
+        assertEquals(EventScope.GLOBAL, listener.events.get(2).getScope());
+        restoredBus.getEventJournal().close();
+        eventBus.getEventJournal().close();
+    }
+}
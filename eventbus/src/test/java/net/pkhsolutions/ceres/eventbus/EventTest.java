@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test case for {@link Event}.
+ *
+ * @author Petter Holmström
+ */
+public class EventTest {
+
+    @Test
+    public void publicationHistoryIsKeptInOrder() {
+        EventBus original = mock(EventBus.class);
+        EventBus second = mock(EventBus.class);
+        EventBus third = mock(EventBus.class);
+        Event<String> event = new Event<String>("hello world", original, EventScope.GLOBAL);
+        event.addEventBusToPublicationHistory(second);
+        event.addEventBusToPublicationHistory(third);
+
+        assertSame(original, event.getOriginalEventBus());
+        assertEquals(new LinkedList<EventBus>(Arrays.asList(original, second, third)), event.getPublicationHistory());
+    }
+
+    @Test
+    public void eventBusesAreOnlyAddedOnce() {
+        EventBus original = mock(EventBus.class);
+        EventBus other = mock(EventBus.class);
+        Event<String> event = new Event<String>("hello world", original, EventScope.GLOBAL);
+
+        assertTrue(event.hasVisited(original));
+        assertFalse(event.hasVisited(other));
+        assertFalse(event.addEventBusToPublicationHistoryIfAbsent(original));
+        assertTrue(event.addEventBusToPublicationHistoryIfAbsent(other));
+        assertFalse(event.addEventBusToPublicationHistoryIfAbsent(other));
+        assertTrue(event.hasVisited(other));
+        assertEquals(2, event.getPublicationHistory().size());
+    }
+
+    @Test
+    public void eventsWithEqualConflationKeysAreConflated() {
+        EventBus eventBus = mock(EventBus.class);
+        Event<AsynchronousEventBusTest.Progress> older = new Event<AsynchronousEventBusTest.Progress>(new AsynchronousEventBusTest.Progress("task", 1), eventBus, EventScope.LOCAL);
+        Event<AsynchronousEventBusTest.Progress> newer = new Event<AsynchronousEventBusTest.Progress>(new AsynchronousEventBusTest.Progress("task", 2), eventBus, EventScope.LOCAL);
+        Event<AsynchronousEventBusTest.Progress> other = new Event<AsynchronousEventBusTest.Progress>(new AsynchronousEventBusTest.Progress("other", 3), eventBus, EventScope.LOCAL);
+        Event<String> plain = new Event<String>("task", eventBus, EventScope.LOCAL);
+
+        assertEquals("task", older.getConflationKey());
+        assertNull(plain.getConflationKey());
+        assertTrue(older.isConflatedBy(newer));
+        assertFalse(older.isConflatedBy(other));
+        assertFalse(older.isConflatedBy(plain));
+        assertFalse(plain.isConflatedBy(new Event<String>("task", eventBus, EventScope.LOCAL)));
+    }
+}
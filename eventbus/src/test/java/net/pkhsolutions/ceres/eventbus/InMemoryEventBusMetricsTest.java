@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link InMemoryEventBusMetrics}.
+ *
+ * @author Petter Holmström
+ */
+public class InMemoryEventBusMetricsTest {
+
+    public static class StringListener {
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) {
+        }
+    }
+
+    @Test
+    public void publicationsAndInvocationsAreRecorded() throws Exception {
+        InMemoryEventBusMetrics metrics = new InMemoryEventBusMetrics();
+        SynchronousEventBus parentBus = new SynchronousEventBus();
+        SynchronousEventBus childBus = new SynchronousEventBus();
+        childBus.setParentBus(parentBus);
+        parentBus.setMetrics(metrics);
+        childBus.setMetrics(metrics);
+        StringListener listener = new StringListener();
+        childBus.registerEventListener(listener);
+
+        childBus.publishEvent("hello", EventScope.GLOBAL);
+        childBus.publishEvent(1, EventScope.LOCAL);
+
+        assertEquals(Long.valueOf(2), metrics.getPublishCounts().get(String.class));
+        assertEquals(Long.valueOf(1), metrics.getPublishCounts().get(Integer.class));
+        assertEquals(3, metrics.getHopCounts().getCount());
+        assertEquals(1, metrics.getHopCounts().getMax());
+        Method listenerMethod = StringListener.class.getDeclaredMethod("handleEvent", Event.class);
+        assertEquals(1, metrics.getListenerDurations().get(listenerMethod).getCount());
+
+        metrics.reset();
+        assertTrue(metrics.getPublishCounts().isEmpty());
+        assertEquals(0, metrics.getHopCounts().getCount());
+    }
+
+    @Test
+    public void queueDepthIsZeroWhenAllEventsHaveBeenDelivered() throws Exception {
+        InMemoryEventBusMetrics metrics = new InMemoryEventBusMetrics();
+        AsynchronousEventBus eventBus = new AsynchronousEventBus(AsynchronousEventBus.DeliveryOrder.ORDERED_PER_LISTENER);
+        eventBus.setMetrics(metrics);
+        StringListener listener = new StringListener();
+        eventBus.registerEventListener(listener);
+
+        for (int i = 0; i < 100; ++i) {
+            eventBus.publishEvent("event" + i, EventScope.LOCAL);
+        }
+        eventBus.publishEvents(Arrays.asList("a", "b", "c"), EventScope.LOCAL);
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertEquals(0, metrics.getQueueDepth());
+        assertTrue(metrics.getMaxQueueDepth() > 0);
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        InMemoryEventBusMetrics.Histogram histogram = new InMemoryEventBusMetrics.Histogram(new long[64], 0, 0);
+        assertEquals(0, histogram.getPercentile(99));
+        long[] buckets = new long[64];
+        buckets[InMemoryEventBusMetrics.Histogram.bucketOf(5)] = 9;
+        buckets[InMemoryEventBusMetrics.Histogram.bucketOf(100)] = 1;
+        histogram = new InMemoryEventBusMetrics.Histogram(buckets, 145, 100);
+        assertEquals(7, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(100));
+        assertEquals(14.5, histogram.getMean(), 0.0);
+    }
+}
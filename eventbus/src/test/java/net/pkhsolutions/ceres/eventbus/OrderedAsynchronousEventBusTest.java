@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link AsynchronousEventBus} using
+ * {@link AsynchronousEventBus.DeliveryOrder#ORDERED_PER_LISTENER}.
+ *
+ * @author Petter Holmström
+ */
+public class OrderedAsynchronousEventBusTest extends AbstractEventBusTest {
+
+    @Override
+    protected EventBus createEventBus() {
+        return new AsynchronousEventBus(AsynchronousEventBus.DeliveryOrder.ORDERED_PER_LISTENER);
+    }
+
+    @Override
+    protected void waitForEventsToBecomePublished() throws Exception {
+        Thread.sleep(250);
+    }
+
+    public static class RecordingListener {
+
+        final List<Integer> payloads = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger invocationsInProgress = new AtomicInteger();
+        final AtomicBoolean invokedConcurrently = new AtomicBoolean();
+
+        @EventListenerMethod
+        void handleEvent(Event<Integer> event) {
+            if (invocationsInProgress.incrementAndGet() > 1) {
+                invokedConcurrently.set(true);
+            }
+            payloads.add(event.getPayload());
+            invocationsInProgress.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void eventsAreDeliveredInOrderOneAtATime() throws Exception {
+        AsynchronousEventBus eventBus = new AsynchronousEventBus(4, 16, new ThreadPoolExecutor.CallerRunsPolicy(),
+                AsynchronousEventBus.DeliveryOrder.ORDERED_PER_LISTENER);
+        List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+        for (int i = 0; i < 4; ++i) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            eventBus.registerEventListener(listener);
+        }
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; ++i) {
+            eventBus.publishEvent(i, EventScope.LOCAL);
+            expected.add(i);
+        }
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(5, TimeUnit.SECONDS));
+
+        for (RecordingListener listener : listeners) {
+            assertEquals(expected, listener.payloads);
+            assertFalse(listener.invokedConcurrently.get());
+        }
+    }
+
+    public static class ProgressListener {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> payloads = Collections.synchronizedList(new ArrayList<Object>());
+
+        @EventListenerMethod
+        void handleString(Event<String> event) throws InterruptedException {
+            payloads.add(event.getPayload());
+            if (event.getPayload().equals("block")) {
+                started.countDown();
+                release.await();
+            }
+        }
+
+        @EventListenerMethod
+        void handleProgress(Event<AsynchronousEventBusTest.Progress> event) {
+            payloads.add(event.getPayload().task + event.getPayload().percent);
+        }
+    }
+
+    @Test
+    public void waitingConflatableEventsAreReplacedByNewerEvents() throws Exception {
+        AsynchronousEventBus eventBus = (AsynchronousEventBus) createEventBus();
+        ProgressListener listener = new ProgressListener();
+        eventBus.registerEventListener(listener);
+
+        eventBus.publishEvent("block", EventScope.LOCAL);
+        assertTrue(listener.started.await(1, TimeUnit.SECONDS));
+        eventBus.publishEvent(new AsynchronousEventBusTest.Progress("a", 1), EventScope.LOCAL);
+        eventBus.publishEvent(new AsynchronousEventBusTest.Progress("b", 1), EventScope.LOCAL);
+        eventBus.publishEvent("between", EventScope.LOCAL);
+        eventBus.publishEvent(new AsynchronousEventBusTest.Progress("a", 2), EventScope.LOCAL);
+        listener.release.countDown();
+
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.<Object>asList("block", "b1", "between", "a2"), listener.payloads);
+    }
+}
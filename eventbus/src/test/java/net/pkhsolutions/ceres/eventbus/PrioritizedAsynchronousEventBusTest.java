@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.lang.ref.ReferenceQueue;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link AsynchronousEventBus} using
+ * {@link AsynchronousEventBus.DeliveryOrder#PRIORITIZED}.
+ *
+ * @author Petter Holmström
+ */
+public class PrioritizedAsynchronousEventBusTest extends AbstractEventBusTest {
+
+    @Override
+    protected EventBus createEventBus() {
+        return new AsynchronousEventBus(AsynchronousEventBus.DeliveryOrder.PRIORITIZED);
+    }
+
+    @Override
+    protected void waitForEventsToBecomePublished() throws Exception {
+        Thread.sleep(250);
+    }
+
+    static final List<String> deliveries = Collections.synchronizedList(new ArrayList<String>());
+
+    public static class BlockingListener {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @EventListenerMethod
+        void handleEvent(Event<Boolean> event) throws InterruptedException {
+            started.countDown();
+            release.await();
+        }
+    }
+
+    public static class BackgroundListener {
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) {
+            deliveries.add("background " + event.getPayload());
+        }
+    }
+
+    public static class UserInterfaceListener {
+
+        @EventListenerMethod(priority = 10)
+        void handleEvent(Event<String> event) {
+            deliveries.add("ui " + event.getPayload());
+        }
+    }
+
+    public static class UrgentListener {
+
+        @EventListenerMethod(deadline = 1)
+        void handleEvent(Event<String> event) {
+            deliveries.add("urgent " + event.getPayload());
+        }
+    }
+
+    public static class Order implements Routable {
+
+        final String routingKey;
+
+        public Order(String routingKey) {
+            this.routingKey = routingKey;
+        }
+
+        @Override
+        public String getRoutingKey() {
+            return routingKey;
+        }
+    }
+
+    public static class RoutedListener {
+
+        @EventListenerMethod(routingKey = "express", priority = 10, deadline = 5)
+        void expressOrder(Event<Order> event) {
+            deliveries.add("express");
+        }
+
+        @EventListenerMethod(routingKey = "standard", priority = -10)
+        void standardOrder(Event<Order> event) {
+            deliveries.add("standard");
+        }
+    }
+
+    @Test
+    public void priorityAndDeadlineDependOnRoutingKey() {
+        AbstractEventBus.EventListener listener = new AbstractEventBus.EventListener(new RoutedListener(), null, new ReferenceQueue<Object>());
+        EventBus eventBus = createEventBus();
+
+        Event<Order> express = new Event<Order>(new Order("express"), eventBus, EventScope.LOCAL);
+        Event<Order> standard = new Event<Order>(new Order("standard"), eventBus, EventScope.LOCAL);
+        Event<Order> other = new Event<Order>(new Order("other"), eventBus, EventScope.LOCAL);
+        assertEquals(10, listener.getPriority(express));
+        assertEquals(5, listener.getDeadline(express));
+        assertEquals(-10, listener.getPriority(standard));
+        assertEquals(0, listener.getDeadline(standard));
+        assertEquals(0, listener.getPriority(other));
+        assertEquals(0, listener.getDeadline(other));
+    }
+
+    @Test
+    public void waitingDeliveriesAreOrderedByPriorityOfRoutedMethod() throws Exception {
+        deliveries.clear();
+        AsynchronousEventBus eventBus = new AsynchronousEventBus(1, 100, new ThreadPoolExecutor.CallerRunsPolicy(),
+                AsynchronousEventBus.DeliveryOrder.PRIORITIZED);
+        BlockingListener blockingListener = new BlockingListener();
+        eventBus.registerEventListener(blockingListener);
+        eventBus.publishEvent(true, EventScope.LOCAL);
+        assertTrue(blockingListener.started.await(1, TimeUnit.SECONDS));
+
+        eventBus.registerEventListener(new RoutedListener());
+        eventBus.publishEvent(new Order("standard"), EventScope.LOCAL);
+        eventBus.publishEvent(new Order("express"), EventScope.LOCAL);
+        blockingListener.release.countDown();
+
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("express", "standard"), deliveries);
+    }
+
+    @Test
+    public void waitingDeliveriesAreOrderedByPriorityAndDeadline() throws Exception {
+        deliveries.clear();
+        AsynchronousEventBus eventBus = new AsynchronousEventBus(1, 100, new ThreadPoolExecutor.CallerRunsPolicy(),
+                AsynchronousEventBus.DeliveryOrder.PRIORITIZED);
+        InMemoryEventBusMetrics metrics = new InMemoryEventBusMetrics();
+        eventBus.setMetrics(metrics);
+        BlockingListener blockingListener = new BlockingListener();
+        eventBus.registerEventListener(blockingListener);
+        eventBus.publishEvent(true, EventScope.LOCAL);
+        assertTrue(blockingListener.started.await(1, TimeUnit.SECONDS));
+
+        BackgroundListener backgroundListener = new BackgroundListener();
+        UserInterfaceListener userInterfaceListener = new UserInterfaceListener();
+        UrgentListener urgentListener = new UrgentListener();
+        eventBus.registerEventListener(backgroundListener);
+        eventBus.registerEventListener(userInterfaceListener);
+        eventBus.registerEventListener(urgentListener);
+        eventBus.publishEvent("1", EventScope.LOCAL);
+        eventBus.publishEvent("2", EventScope.LOCAL);
+        Thread.sleep(20);
+        blockingListener.release.countDown();
+
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("ui 1", "ui 2", "urgent 1", "urgent 2", "background 1", "background 2"), deliveries);
+        assertEquals(Long.valueOf(2), metrics.getMissedDeadlines().get(UrgentListener.class));
+    }
+}
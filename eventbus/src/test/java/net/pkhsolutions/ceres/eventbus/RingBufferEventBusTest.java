@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link RingBufferEventBus}.
+ *
+ * @author Petter Holmström
+ */
+public class RingBufferEventBusTest extends AbstractEventBusTest {
+
+    @Override
+    protected EventBus createEventBus() {
+        return new RingBufferEventBus();
+    }
+
+    @Override
+    protected void waitForEventsToBecomePublished() throws Exception {
+        Thread.sleep(250);
+    }
+
+    public static class RecordingListener {
+
+        final List<Integer> payloads = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @EventListenerMethod
+        void handleEvent(Event<Integer> event) {
+            payloads.add(event.getPayload());
+        }
+    }
+
+    public static class RepublishingListener {
+
+        final EventBus eventBus;
+        final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+
+        RepublishingListener(EventBus eventBus) {
+            this.eventBus = eventBus;
+        }
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) {
+            payloads.add(event.getPayload());
+            if (event.getPayload().startsWith("original")) {
+                eventBus.publishEvent("republished", EventScope.LOCAL);
+            }
+        }
+    }
+
+    public static class FailingListener {
+
+        final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+
+        @EventListenerMethod
+        void handleEvent(Event<String> event) {
+            payloads.add(event.getPayload());
+            if (event.getPayload().equals("fail")) {
+                throw new AssertionError("Listener failed");
+            }
+        }
+    }
+
+    private void publishFromSeveralThreads(RingBufferEventBus.WaitStrategy waitStrategy) throws Exception {
+        final RingBufferEventBus eventBus = new RingBufferEventBus(8, waitStrategy);
+        final RecordingListener listener = new RecordingListener();
+        eventBus.registerEventListener(listener);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; ++t) {
+            final int offset = t * 1000;
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; ++i) {
+                        eventBus.publishEvent(offset + i, EventScope.LOCAL);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(4000, listener.payloads.size());
+        int[] lastPerThread = {-1, 999, 1999, 2999};
+        for (Integer payload : listener.payloads) {
+            int thread = payload / 1000;
+            assertTrue("events from one thread must be delivered in order", payload > lastPerThread[thread]);
+            lastPerThread[thread] = payload;
+        }
+    }
+
+    @Test
+    public void publishFromSeveralThreadsUsingBusySpin() throws Exception {
+        publishFromSeveralThreads(RingBufferEventBus.WaitStrategy.BUSY_SPIN);
+    }
+
+    @Test
+    public void publishFromSeveralThreadsUsingYield() throws Exception {
+        publishFromSeveralThreads(RingBufferEventBus.WaitStrategy.YIELD);
+    }
+
+    @Test
+    public void publishFromSeveralThreadsUsingPark() throws Exception {
+        publishFromSeveralThreads(RingBufferEventBus.WaitStrategy.PARK);
+    }
+
+    @Test
+    public void listenerCanPublishWhenBufferIsFull() throws Exception {
+        RingBufferEventBus eventBus = new RingBufferEventBus(2, RingBufferEventBus.WaitStrategy.PARK);
+        RepublishingListener listener = new RepublishingListener(eventBus);
+        eventBus.registerEventListener(listener);
+        for (int i = 0; i < 10; ++i) {
+            eventBus.publishEvent("original" + i, EventScope.LOCAL);
+        }
+        Thread.sleep(250);
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(20, listener.payloads.size());
+    }
+
+    @Test
+    public void futuresCompleteWhenShutdownRacesPublication() throws Exception {
+        for (int round = 0; round < 50; ++round) {
+            final RingBufferEventBus eventBus = new RingBufferEventBus(4, RingBufferEventBus.WaitStrategy.YIELD);
+            final InMemoryEventBusMetrics metrics = new InMemoryEventBusMetrics();
+            eventBus.setMetrics(metrics);
+            eventBus.registerEventListener(new RecordingListener());
+            final List<PublicationFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<PublicationFuture<Integer>>());
+            final CountDownLatch publishing = new CountDownLatch(1);
+            Thread publisher = new Thread() {
+
+                @Override
+                public void run() {
+                    publishing.countDown();
+                    for (int i = 0; i < 200; ++i) {
+                        futures.add(eventBus.publishEventAsync(i, EventScope.LOCAL));
+                    }
+                }
+            };
+            publisher.start();
+            assertTrue(publishing.await(1, TimeUnit.SECONDS));
+            eventBus.shutdown();
+            publisher.join(1000);
+            assertFalse("publisher must not wait for a stopped consumer", publisher.isAlive());
+
+            assertTrue(eventBus.awaitTermination(1, TimeUnit.SECONDS));
+            for (PublicationFuture<Integer> future : futures) {
+                assertTrue(future.isDone());
+            }
+            assertEquals(0, metrics.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void consumerSurvivesListenerErrors() throws Exception {
+        RingBufferEventBus eventBus = new RingBufferEventBus(2, RingBufferEventBus.WaitStrategy.PARK);
+        FailingListener listener = new FailingListener();
+        eventBus.registerEventListener(listener);
+        PublicationFuture<String> failed = eventBus.publishEventAsync("fail", EventScope.LOCAL);
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("delivery should have failed");
+        } catch (EventDeliveryException e) {
+            assertEquals(1, e.getFailures().size());
+        }
+        for (int i = 0; i < 10; ++i) {
+            eventBus.publishEvent("event" + i, EventScope.LOCAL);
+        }
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(11, listener.payloads.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new RingBufferEventBus(10, RingBufferEventBus.WaitStrategy.PARK);
+    }
+}
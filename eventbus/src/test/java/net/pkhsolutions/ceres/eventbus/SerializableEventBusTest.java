@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link SerializableEventBus}.
+ *
+ * @author Petter Holmström
+ */
+public class SerializableEventBusTest {
+
+    static final AtomicInteger deliveries = new AtomicInteger();
+
+    public static class SerializableListener implements Serializable {
+
+        @EventListenerMethod
+        void stringEvents(Event<String> event) {
+            deliveries.incrementAndGet();
+        }
+    }
+
+    public static class TransientListener {
+
+        @EventListenerMethod
+        void stringEvents(Event<String> event) {
+            deliveries.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T serializeAndDeserialize(T object) throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(object);
+        os.close();
+        return (T) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+    }
+
+    @Test
+    public void serializableListenersAndParentAreRetained() throws Exception {
+        SerializableEventBus parentBus = SerializableEventBus.createSynchronousSerializableEventBus();
+        SerializableEventBus eventBus = SerializableEventBus.createSynchronousSerializableEventBus();
+        eventBus.setParentBus(parentBus);
+        eventBus.registerEventListener(new SerializableListener());
+        eventBus.registerEventListener(new TransientListener());
+        parentBus.registerEventListener(new SerializableListener());
+
+        SerializableEventBus[] restored = serializeAndDeserialize(new SerializableEventBus[]{parentBus, eventBus});
+        SerializableEventBus restoredParentBus = restored[0];
+        SerializableEventBus restoredBus = restored[1];
+        assertSame(restoredParentBus, restoredBus.getParentBus());
+
+        deliveries.set(0);
+        restoredBus.publishEvent("hello", EventScope.GLOBAL);
+        assertEquals(2, deliveries.get());
+    }
+
+    @Test
+    public void asynchronousEventBusIsRecreated() throws Exception {
+        SerializableEventBus restoredBus = serializeAndDeserialize(SerializableEventBus.createAsynchronousSerializableEventBus());
+
+        assertTrue(restoredBus.getWrappedEventBus() instanceof AsynchronousEventBus);
+    }
+}
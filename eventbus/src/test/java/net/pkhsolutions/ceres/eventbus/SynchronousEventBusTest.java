@@ -15,6 +15,16 @@
  */
 package net.pkhsolutions.ceres.eventbus;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
 /**
  * Test case for {@link SynchronousEventBus}.
  *
@@ -27,4 +37,188 @@ public class SynchronousEventBusTest extends AbstractEventBusTest {
         return new SynchronousEventBus();
     }
 
+    public static class CountingListener {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @EventListenerMethod
+        void countEvents(Event<String> event) {
+            count.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void concurrentRegistrationDoesNotLoseListeners() throws Exception {
+        final EventBus eventBus = createEventBus();
+        final List<CountingListener> listeners = new ArrayList<CountingListener>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        for (int i = 0; i < 16; ++i) {
+            final CountingListener listener = new CountingListener();
+            listeners.add(listener);
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    eventBus.registerEventListener(listener);
+                    eventBus.publishEvent("hello world", EventScope.LOCAL);
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        eventBus.publishEvent("hello again", EventScope.LOCAL);
+        for (CountingListener listener : listeners) {
+            assertTrue(listener.count.get() >= 1);
+        }
+    }
+
+    public static class BatchListener {
+
+        final List<List<Event<String>>> batches = new ArrayList<List<Event<String>>>();
+
+        @EventListenerMethod
+        void stringEvents(List<Event<String>> events) {
+            batches.add(new ArrayList<Event<String>>(events));
+        }
+    }
+
+    @Test
+    public void batchListenerReceivesAllEventsAtOnce() {
+        final BatchEventBus eventBus = (BatchEventBus) createEventBus();
+        final BatchListener listener = new BatchListener();
+        eventBus.registerEventListener(listener);
+
+        eventBus.publishEvents(Arrays.asList("one", 2, "three"), EventScope.LOCAL);
+        eventBus.publishEvent("four", EventScope.LOCAL);
+
+        assertEquals(2, listener.batches.size());
+        assertEquals(2, listener.batches.get(0).size());
+        assertEquals("one", listener.batches.get(0).get(0).getPayload());
+        assertEquals("three", listener.batches.get(0).get(1).getPayload());
+        assertEquals(1, listener.batches.get(1).size());
+        assertEquals("four", listener.batches.get(1).get(0).getPayload());
+    }
+
+    @Test
+    public void batchIsPublishedEventByEventOnParentWithoutBatchSupport() {
+        final EventBus parent = mock(EventBus.class);
+        final SynchronousEventBus eventBus = new SynchronousEventBus();
+        eventBus.setParentBus(parent);
+        final Event<String> first = new Event<String>("one", eventBus, EventScope.GLOBAL);
+        final Event<String> second = new Event<String>("two", eventBus, EventScope.GLOBAL);
+
+        eventBus.publishEvents(Arrays.<Event<?>>asList(first, new Event<String>("local", eventBus, EventScope.LOCAL), second));
+
+        verify(parent).publishEvent(first);
+        verify(parent).publishEvent(second);
+        verify(parent, times(2)).publishEvent(any(Event.class));
+    }
+
+    @Test
+    public void globalEventIsPublishedOnceOnEveryBusOfTheHierarchy() {
+        final EventBus grandChildBus2 = createEventBus();
+        grandChildBus2.setParentBus(childBus2);
+        final List<CountingListener> listeners = new ArrayList<CountingListener>();
+        for (EventBus eventBus : Arrays.asList(parentBus, childBus1, childBus2, grandChildBus1, grandChildBus2)) {
+            final CountingListener listener = new CountingListener();
+            listeners.add(listener);
+            eventBus.registerEventListener(listener);
+        }
+        final Event<String> event = new Event<String>("hello world", grandChildBus1, EventScope.GLOBAL);
+
+        grandChildBus1.publishEvent(event);
+
+        for (CountingListener listener : listeners) {
+            assertEquals(1, listener.count.get());
+        }
+        assertEquals(Arrays.asList(grandChildBus1, childBus1, parentBus, childBus2, grandChildBus2), new ArrayList<EventBus>(event.getPublicationHistory()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void descendantCannotBecomeParent() {
+        parentBus.setParentBus(grandChildBus1);
+    }
+
+    @Test
+    public void garbageCollectedListenersAreReclaimed() throws Exception {
+        final SynchronousEventBus eventBus = new SynchronousEventBus();
+        final CountingListener liveListener = new CountingListener();
+        eventBus.registerEventListener(liveListener);
+        for (int i = 0; i < 100; ++i) {
+            eventBus.registerEventListener(new CountingListener());
+        }
+
+        for (int attempt = 0; attempt < 50 && eventBus.getReclaimedListenerCount() < 100; ++attempt) {
+            System.gc();
+            Thread.sleep(20);
+            eventBus.reclaimListeners();
+        }
+
+        assertEquals(100, eventBus.getReclaimedListenerCount());
+        assertEquals(1, eventBus.getLiveListenerCount());
+        eventBus.publishEvent("hello world", EventScope.LOCAL);
+        assertEquals(1, liveListener.count.get());
+    }
+
+    public static class AggregateChanged implements Routable {
+
+        final String aggregateId;
+
+        AggregateChanged(String aggregateId) {
+            this.aggregateId = aggregateId;
+        }
+
+        @Override
+        public String getRoutingKey() {
+            return aggregateId;
+        }
+    }
+
+    public static class AggregateListener {
+
+        final List<String> received = new ArrayList<String>();
+
+        @EventListenerMethod
+        void aggregateChanged(Event<AggregateChanged> event) {
+            received.add(event.getPayload().aggregateId);
+        }
+    }
+
+    public static class FixedKeyAggregateListener {
+
+        final List<String> received = new ArrayList<String>();
+
+        @EventListenerMethod(routingKey = "b")
+        void aggregateChanged(Event<AggregateChanged> event) {
+            received.add(event.getPayload().aggregateId);
+        }
+    }
+
+    @Test
+    public void routedEventsOnlyReachSubscribedListeners() {
+        final SynchronousEventBus eventBus = new SynchronousEventBus();
+        final AggregateListener allListener = new AggregateListener();
+        final AggregateListener aListener = new AggregateListener();
+        final FixedKeyAggregateListener bListener = new FixedKeyAggregateListener();
+        eventBus.registerEventListener(allListener);
+        eventBus.registerEventListener(aListener, "a");
+        eventBus.registerEventListener(bListener);
+
+        eventBus.publishEvent(new AggregateChanged("a"), EventScope.LOCAL);
+        eventBus.publishEvents(Arrays.asList(new AggregateChanged("b"), new AggregateChanged("c"), new AggregateChanged(null)), EventScope.LOCAL);
+
+        assertEquals(Arrays.asList("a", "b", "c", null), allListener.received);
+        assertEquals(Arrays.asList("a"), aListener.received);
+        assertEquals(Arrays.asList("b"), bListener.received);
+    }
 }
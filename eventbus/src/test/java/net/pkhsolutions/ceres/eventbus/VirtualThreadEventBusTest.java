@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.eventbus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link VirtualThreadEventBus}.
+ *
+ * @author Petter Holmström
+ */
+public class VirtualThreadEventBusTest extends AbstractEventBusTest {
+
+    @Override
+    protected EventBus createEventBus() {
+        return new VirtualThreadEventBus();
+    }
+
+    @Override
+    protected void waitForEventsToBecomePublished() throws Exception {
+        Thread.sleep(250);
+    }
+
+    public static class SlowListener {
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+
+        @EventListenerMethod
+        void handleEvent(Event<Integer> event) throws InterruptedException {
+            final int current = running.incrementAndGet();
+            int max;
+            while ((max = maxRunning.get()) < current && !maxRunning.compareAndSet(max, current)) {
+            }
+            Thread.sleep(5);
+            running.decrementAndGet();
+            count.incrementAndGet();
+        }
+    }
+
+    public static class BlockingListener {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @EventListenerMethod
+        void handleEvent(Event<Integer> event) {
+            entered.countDown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void interruptedWaitForListenerFailsDelivery() throws Exception {
+        VirtualThreadEventBus eventBus = new VirtualThreadEventBus(1);
+        InMemoryEventBusMetrics metrics = new InMemoryEventBusMetrics();
+        eventBus.setMetrics(metrics);
+        BlockingListener listener = new BlockingListener();
+        eventBus.registerEventListener(listener);
+
+        PublicationFuture<Integer> first = eventBus.publishEventAsync(1, EventScope.LOCAL);
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        PublicationFuture<Integer> second = eventBus.publishEventAsync(2, EventScope.LOCAL);
+        // A pool thread that has not started yet is not interrupted
+        for (int attempt = 0; attempt < 500 && !second.isDone(); ++attempt) {
+            eventBus.getExecutorService().shutdownNow();
+            Thread.sleep(10);
+        }
+
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("Interrupted delivery did not fail");
+        } catch (EventDeliveryException e) {
+            assertEquals(1, e.getFailures().size());
+            assertTrue(e.getFailures().get(0).getCause() instanceof InterruptedException);
+        }
+        assertEquals(1L, metrics.getInterruptedDeliveries());
+        listener.release.countDown();
+        assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS).getPayload());
+    }
+
+    @Test
+    public void concurrentInvocationsOfListenerAreBounded() throws Exception {
+        VirtualThreadEventBus eventBus = new VirtualThreadEventBus(4);
+        SlowListener listener = new SlowListener();
+        eventBus.registerEventListener(listener);
+        for (int i = 0; i < 200; ++i) {
+            eventBus.publishEvent(i, EventScope.LOCAL);
+        }
+        eventBus.shutdown();
+        assertTrue(eventBus.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(200, listener.count.get());
+        assertTrue(listener.maxRunning.get() <= 4);
+        assertEquals(VirtualThreadEventBus.isVirtualThreadSupported(), eventBus.isUsingVirtualThreads());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxConcurrencyMustBePositive() {
+        new VirtualThreadEventBus(0);
+    }
+}
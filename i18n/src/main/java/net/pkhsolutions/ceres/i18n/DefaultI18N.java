@@ -16,7 +16,9 @@
 package net.pkhsolutions.ceres.i18n;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
 import net.pkhsolutions.ceres.eventbus.EventBus;
 import net.pkhsolutions.ceres.eventbus.EventBusHolder;
@@ -25,16 +27,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Default implementation of {@link I18N}. This class is not thread-safe.
+ * Default implementation of {@link I18N}. This class is not thread-safe. <p>
+ * When serialized, only the supported locales and the index of the current
+ * locale are written; the collections holding them are recreated on
+ * deserialization.
  *
  * @author Petter Holmström
  * @since 1.0
  */
 public class DefaultI18N implements I18N {
 
-    private final Set<Locale> supportedLocales;
+    private static final long serialVersionUID = 4723125476036367093L;
+    private transient Set<Locale> supportedLocales;
     private transient Logger logger = LoggerFactory.getLogger(getClass());
-    private Locale currentLocale;
+    private transient Locale currentLocale;
 
     /**
      * Constructs a new
@@ -54,8 +60,37 @@ public class DefaultI18N implements I18N {
         currentLocale = this.supportedLocales.iterator().next();
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(supportedLocales.size());
+        int currentIndex = 0;
+        int index = 0;
+        for (Locale locale : supportedLocales) {
+            if (locale.equals(currentLocale)) {
+                currentIndex = index;
+            }
+            out.writeObject(locale);
+            ++index;
+        }
+        out.writeInt(currentIndex);
+    }
+
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        final int count = in.readInt();
+        if (count < 1) {
+            throw new InvalidObjectException("At least one locale must be specified");
+        }
+        final Locale[] locales = new Locale[count];
+        for (int i = 0; i < count; ++i) {
+            locales[i] = (Locale) in.readObject();
+        }
+        final int currentIndex = in.readInt();
+        if (currentIndex < 0 || currentIndex >= count) {
+            throw new InvalidObjectException("Invalid current locale index " + currentIndex);
+        }
+        supportedLocales = Collections.unmodifiableSet(new HashSet<Locale>(Arrays.asList(locales)));
+        currentLocale = locales[currentIndex];
         logger = LoggerFactory.getLogger(getClass());
     }
 
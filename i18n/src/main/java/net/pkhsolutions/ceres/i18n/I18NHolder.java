@@ -25,6 +25,8 @@ import net.pkhsolutions.ceres.common.holder.Holder;
  */
 public class I18NHolder extends Holder<I18N> {
 
+    private static final StrategyReference<I18N> strategy = getStrategyReference(I18NHolder.class);
+
     private I18NHolder() {
     }
 
@@ -34,7 +36,7 @@ public class I18NHolder extends Holder<I18N> {
      * @return the I18N, or null if not set.
      */
     public static I18N get() {
-        return getStrategy(I18NHolder.class).get();
+        return strategy.get().get();
     }
 
     /**
@@ -43,6 +45,6 @@ public class I18NHolder extends Holder<I18N> {
      * @param i18n the I18N to set, may be null.
      */
     public static void set(I18N i18n) {
-        getStrategy(I18NHolder.class).set(i18n);
+        strategy.get().set(i18n);
     }
 }
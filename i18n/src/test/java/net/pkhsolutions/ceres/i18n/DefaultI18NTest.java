@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2012 Petter Holmström
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.pkhsolutions.ceres.i18n;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test case for {@link DefaultI18N}.
+ *
+ * @author Petter Holmström
+ */
+public class DefaultI18NTest {
+
+    private static byte[] serialize(DefaultI18N i18n) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(i18n);
+        os.flush();
+        return bos.toByteArray();
+    }
+
+    private static DefaultI18N deserialize(byte[] data) throws Exception {
+        return (DefaultI18N) new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+    }
+
+    @Test
+    public void localesSurviveSerialization() throws Exception {
+        DefaultI18N i18n = new DefaultI18N(Arrays.asList(Locale.ENGLISH, Locale.GERMAN, Locale.FRENCH));
+        Locale nonDefaultLocale = Locale.ENGLISH.equals(i18n.getCurrentLocale()) ? Locale.FRENCH : Locale.ENGLISH;
+        i18n.setCurrentLocale(nonDefaultLocale);
+
+        DefaultI18N restored = deserialize(serialize(i18n));
+
+        assertEquals(nonDefaultLocale, restored.getCurrentLocale());
+        assertEquals(new HashSet<Locale>(Arrays.asList(Locale.ENGLISH, Locale.GERMAN, Locale.FRENCH)), restored.getSupportedLocales());
+    }
+
+    @Test
+    public void restoredInstanceCanChangeLocale() throws Exception {
+        DefaultI18N restored = deserialize(serialize(new DefaultI18N(Arrays.asList(Locale.ENGLISH, Locale.GERMAN))));
+        Locale otherLocale = Locale.ENGLISH.equals(restored.getCurrentLocale()) ? Locale.GERMAN : Locale.ENGLISH;
+
+        restored.setCurrentLocale(otherLocale);
+
+        assertEquals(otherLocale, restored.getCurrentLocale());
+    }
+
+    @Test(expected = InvalidObjectException.class)
+    public void invalidCurrentLocaleIndexIsRejected() throws Exception {
+        byte[] data = serialize(new DefaultI18N(Arrays.asList(Locale.ENGLISH, Locale.GERMAN)));
+        // The index of the current locale is the last int before the end of
+        // the block data written by writeObject
+        assertEquals(ObjectStreamConstants.TC_ENDBLOCKDATA, data[data.length - 1]);
+        data[data.length - 2] = 2;
+
+        deserialize(data);
+    }
+}